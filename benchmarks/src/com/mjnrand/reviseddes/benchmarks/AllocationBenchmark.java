@@ -0,0 +1,138 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.BitslicedBlockEngine;
+import com.mjnrand.reviseddes.BlockEngine;
+import com.mjnrand.reviseddes.BlockEngines;
+import com.mjnrand.reviseddes.BufferCipher;
+import com.mjnrand.reviseddes.FeistelRound;
+import com.mjnrand.reviseddes.Key;
+import com.mjnrand.reviseddes.PackedBlockEngine;
+
+/**
+ * AllocationBenchmark runs the steady state encrypt loop of each block engine,
+ * of a {@link BufferCipher}, and of 16 {@link FeistelRound}s reused from one
+ * block to the next, reported per block.  Run with -prof gc: the
+ * gc.alloc.rate.norm of every benchmark is the number of bytes allocated per
+ * block once warmed up, and should be 0.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+  /** Number of blocks encrypted by each invocation. */
+  private static final int BLOCKS = 512;
+  
+  private byte[] input = new byte[BLOCKS * 8];
+  private byte[] output = new byte[BLOCKS * 8];
+  private long[] blocks = new long[BLOCKS];
+  private byte[] block = new byte[8];
+  private byte[][] subkeys = new byte[16][];
+  private FeistelRound round;
+  private PackedBlockEngine packed;
+  private BitslicedBlockEngine bitsliced;
+  private BlockEngine vector;
+  private BufferCipher buffer;
+  
+  /**
+   * Generates the key, the engines and the blocks to be encrypted.
+   */
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Key key = new Key("benchmrk".getBytes());
+    
+    key.generateSubKeys();
+    random.nextBytes(this.input);
+    random.nextBytes(this.block);
+    
+    for (int i=0; i < BLOCKS; i++) {
+      this.blocks[i] = random.nextLong();
+    }
+    
+    for (int i=0; i < 16; i++) {
+      this.subkeys[i] = key.getSubKey(i);
+    }
+    
+    this.round = new FeistelRound(this.block, this.subkeys[0]);
+    this.packed = new PackedBlockEngine(key);
+    this.bitsliced = new BitslicedBlockEngine(key.getSchedule());
+    this.vector = BlockEngines.createVector(key.getSchedule());
+    this.buffer = new BufferCipher(key);
+  }
+  
+  /**
+   * Runs a block through 16 rounds, loading the same round with each subkey in
+   * turn and executing it into the block.
+   */
+  @Benchmark
+  @OperationsPerInvocation(16)
+  public byte[] feistelRounds() {
+    for (int i=0; i < 16; i++) {
+      this.round.load(this.block, this.subkeys[i]);
+      this.round.execute(this.block);
+    }
+    
+    return this.block;
+  }
+  
+  /**
+   * Encrypts the byte array with the packed engine.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BLOCKS)
+  public byte[] packed() {
+    this.packed.encrypt(this.input, 0, this.output, 0, BLOCKS);
+    return this.output;
+  }
+  
+  /**
+   * Encrypts the packed blocks in place with the bitsliced engine.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BLOCKS)
+  public long[] bitsliced() {
+    this.bitsliced.encrypt(this.blocks, 0, BLOCKS);
+    return this.blocks;
+  }
+  
+  /**
+   * Encrypts the packed blocks in place with the vector engine, or the packed
+   * engine when the Vector API is not available.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BLOCKS)
+  public long[] vector() {
+    this.vector.encrypt(this.blocks, 0, BLOCKS);
+    return this.blocks;
+  }
+  
+  /**
+   * Encrypts the byte array with the buffer cipher.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BLOCKS)
+  public byte[] bufferCipher() {
+    this.buffer.encrypt(this.input, 0, this.input.length, this.output, 0);
+    return this.output;
+  }
+}
@@ -0,0 +1,55 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain runs the Revised DES benchmarks with the standard JMH command
+ * line options.  Unless another result format or file is given, results are
+ * written as JSON to jmh-result.json so that runs can be compared between
+ * engine changes.
+ * 
+ * @author mark
+ */
+public final class BenchmarkMain {
+  /** Result file written when none is given on the command line. */
+  private static final String DEFAULT_RESULT = "jmh-result.json";
+  
+  /**
+   * Main method used to run the benchmarks.
+   * 
+   * @param args    JMH command line options
+   * @throws Exception  if the options are invalid or the benchmarks fail to run
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+    
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    
+    if (!cmd.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON);
+    }
+    
+    if (!cmd.getResult().hasValue()) {
+      builder.result(DEFAULT_RESULT);
+    }
+    
+    Runner runner = new Runner(builder.build());
+    
+    if (cmd.shouldList()) {
+      runner.list();
+    } else {
+      runner.run();
+    }
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private BenchmarkMain() {}
+}
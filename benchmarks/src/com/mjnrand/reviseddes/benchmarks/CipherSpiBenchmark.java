@@ -0,0 +1,81 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.RevisedDESProvider;
+
+/**
+ * CipherSpiBenchmark measures streaming updates through the javax.crypto
+ * Cipher API, into a byte array and into a direct buffer.  Run with
+ * -prof gc to confirm that updates do not allocate.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherSpiBenchmark {
+  @Param({ "ECB", "CBC", "CTR" })
+  public String mode;
+  
+  @Param({ "4096" })
+  public int size;
+  
+  private Cipher cipher;
+  private byte[] input;
+  private byte[] output;
+  private ByteBuffer inputBuffer;
+  private ByteBuffer outputBuffer;
+  
+  /**
+   * Initializes the cipher and generates the message to be encrypted.
+   * 
+   * @throws GeneralSecurityException  if the cipher could not be initialized
+   */
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    this.cipher = Cipher.getInstance("RevisedDES/" + this.mode + "/NoPadding", new RevisedDESProvider());
+    this.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec("abcdefgh".getBytes(), "RevisedDES"));
+    this.input = new byte[this.size];
+    this.output = new byte[this.size];
+    new Random(42).nextBytes(this.input);
+    this.inputBuffer = ByteBuffer.allocateDirect(this.size);
+    this.outputBuffer = ByteBuffer.allocateDirect(this.size);
+    this.inputBuffer.put(this.input);
+  }
+  
+  @Benchmark
+  public byte[] updateArray() throws GeneralSecurityException {
+    this.cipher.update(this.input, 0, this.input.length, this.output, 0);
+    return this.output;
+  }
+  
+  @Benchmark
+  public ByteBuffer updateBuffer() throws GeneralSecurityException {
+    this.inputBuffer.clear();
+    this.outputBuffer.clear();
+    this.cipher.update(this.inputBuffer, this.outputBuffer);
+    return this.outputBuffer;
+  }
+}
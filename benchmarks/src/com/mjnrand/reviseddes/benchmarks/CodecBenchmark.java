@@ -0,0 +1,78 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.CipherTextInputStream;
+import com.mjnrand.reviseddes.CipherTextOutputStream;
+
+/**
+ * CodecBenchmark measures encoding bytes into, and decoding bytes from, the bit
+ * form written by the cipher text streams.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+  @Param({ "65536" })
+  public int size;
+  
+  private byte[] bytes;
+  private byte[] text;
+  private byte[] decoded;
+  
+  /**
+   * Generates the bytes to be encoded and their bit form to be decoded.
+   * 
+   * @throws IOException  if the bytes could not be encoded
+   */
+  @Setup
+  public void setUp() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    OutputStream os = new CipherTextOutputStream(baos);
+    
+    this.bytes = new byte[this.size];
+    this.decoded = new byte[this.size];
+    new Random(42).nextBytes(this.bytes);
+    os.write(this.bytes);
+    os.close();
+    this.text = baos.toByteArray();
+  }
+  
+  @Benchmark
+  public void encode() throws IOException {
+    OutputStream os = new CipherTextOutputStream(OutputStream.nullOutputStream());
+    
+    os.write(this.bytes, 0, this.bytes.length);
+    os.flush();
+  }
+  
+  @Benchmark
+  public byte[] decode() throws IOException {
+    CipherTextInputStream is = new CipherTextInputStream(new ByteArrayInputStream(this.text));
+    
+    is.read(this.decoded, 0, this.decoded.length);
+    return this.decoded;
+  }
+}
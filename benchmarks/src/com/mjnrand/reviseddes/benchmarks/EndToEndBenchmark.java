@@ -0,0 +1,149 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.Key;
+import com.mjnrand.reviseddes.RevisedDES;
+
+/**
+ * EndToEndBenchmark measures encrypting and decrypting whole files through
+ * each of the file based methods of {@link RevisedDES}.  Throughput in bytes
+ * per second is the score multiplied by the file size.
+ * 
+ * The bit form multiplies the size of the cipher text file by 8, so only the
+ * byte stream is measured by default; pass -p format=bits to measure it.
+ * 
+ * The asynchronous method keeps as many reads and writes in flight as the
+ * depth, which the other methods ignore; pass -p io=async -p depth=1,4,16 to
+ * compare depths without repeating the other methods.
+ * 
+ * @author mark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+  /** Size of the plain text, in bytes: 1 KB, 1 MB and 1 GB. */
+  @Param({ "1024", "1048576", "1073741824" })
+  public long size;
+  
+  /** File based method: stream, parallel, mapped, pipelined or async. */
+  @Param({ "stream", "parallel", "mapped", "pipelined", "async" })
+  public String io;
+  
+  /** Number of reads and of writes kept in flight by the async method. */
+  @Param({ "4" })
+  public int depth;
+  
+  /** Cipher text format: bytes or bits. */
+  @Param({ "bytes" })
+  public String format;
+  
+  private Key key;
+  private Path directory;
+  private String plainTextFile;
+  private String cipherTextFile;
+  private String outputFile;
+  
+  /**
+   * Writes a random plain text file of the benchmarked size and encrypts it
+   * once, so that there is a cipher text file to decrypt.
+   * 
+   * @throws IOException  if the files could not be written
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Random random = new Random(42);
+    byte[] chunk = new byte[1 << 20];
+    
+    this.key = new Key("benchmk!".getBytes());
+    this.key.generateSubKeys();
+    this.directory = Files.createTempDirectory("reviseddes-bench");
+    this.plainTextFile = this.directory.resolve("plain").toString();
+    this.cipherTextFile = this.directory.resolve("cipher").toString();
+    this.outputFile = this.directory.resolve("output").toString();
+    
+    try (OutputStream os = Files.newOutputStream(this.directory.resolve("plain"))) {
+      for (long written=0; written < this.size; written += chunk.length) {
+        random.nextBytes(chunk);
+        os.write(chunk, 0, (int) Math.min(chunk.length, this.size - written));
+      }
+    }
+    
+    RevisedDES.encryptParallel(this.plainTextFile, this.cipherTextFile, this.key, this.isByteStream());
+  }
+  
+  /**
+   * Deletes the files written by the benchmark.
+   * 
+   * @throws IOException  if the files could not be deleted
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.directory.resolve("plain"));
+    Files.deleteIfExists(this.directory.resolve("cipher"));
+    Files.deleteIfExists(this.directory.resolve("output"));
+    Files.deleteIfExists(this.directory);
+  }
+  
+  @Benchmark
+  public void encrypt() {
+    if (this.io.equals("parallel")) {
+      RevisedDES.encryptParallel(this.plainTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("mapped")) {
+      RevisedDES.encryptMapped(this.plainTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("pipelined")) {
+      RevisedDES.encryptPipelined(this.plainTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("async")) {
+      RevisedDES.encryptAsync(this.plainTextFile, this.outputFile, this.key, this.isByteStream(), this.depth);
+    } else {
+      RevisedDES.encrypt(this.plainTextFile, this.outputFile, this.key, this.isByteStream());
+    }
+  }
+  
+  @Benchmark
+  public void decrypt() {
+    if (this.io.equals("parallel")) {
+      RevisedDES.decryptParallel(this.cipherTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("mapped")) {
+      RevisedDES.decryptMapped(this.cipherTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("pipelined")) {
+      RevisedDES.decryptPipelined(this.cipherTextFile, this.outputFile, this.key, this.isByteStream());
+    } else if (this.io.equals("async")) {
+      RevisedDES.decryptAsync(this.cipherTextFile, this.outputFile, this.key, this.isByteStream(), this.depth);
+    } else {
+      RevisedDES.decrypt(this.cipherTextFile, this.outputFile, this.key, this.isByteStream());
+    }
+  }
+  
+  /**
+   * Returns true if the cipher text is measured as a stream of bytes.
+   * 
+   * @return boolean  true for the byte stream; false for the bit form
+   */
+  private boolean isByteStream() {
+    return !this.format.equals("bits");
+  }
+}
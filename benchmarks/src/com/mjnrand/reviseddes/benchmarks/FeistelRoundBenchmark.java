@@ -0,0 +1,134 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.BitslicedBlockEngine;
+import com.mjnrand.reviseddes.BlockEngine;
+import com.mjnrand.reviseddes.BlockEngines;
+import com.mjnrand.reviseddes.FeistelRound;
+import com.mjnrand.reviseddes.Key;
+import com.mjnrand.reviseddes.PackedBlockEngine;
+import com.mjnrand.reviseddes.TripleBlockEngine;
+
+/**
+ * FeistelRoundBenchmark measures a single Feistel Round executed by
+ * {@link FeistelRound}, a whole block of 16 rounds executed by each of the
+ * block engines (the vector engine in a JVM started with the Vector API), and a Triple Revised DES block of 48 rounds executed by the
+ * fused engine and by three packed engines in turn.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeistelRoundBenchmark {
+  private byte[] block = new byte[8];
+  private byte[] subkey;
+  private long packedBlock;
+  private long[] blocks = new long[BitslicedBlockEngine.BLOCKS];
+  private PackedBlockEngine packed;
+  private BitslicedBlockEngine bitsliced;
+  private BlockEngine vector;
+  private PackedBlockEngine packed2;
+  private PackedBlockEngine packed3;
+  private TripleBlockEngine triple;
+  
+  /**
+   * Generates the subkeys and blocks used by the benchmarks.
+   */
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Key key = new Key("benchmk!".getBytes());
+    Key key2 = new Key("benchmk2".getBytes());
+    Key key3 = new Key("benchmk3".getBytes());
+    
+    key.generateSubKeys();
+    key2.generateSubKeys();
+    key3.generateSubKeys();
+    random.nextBytes(this.block);
+    
+    for (int i=0; i < this.blocks.length; i++) {
+      this.blocks[i] = random.nextLong();
+    }
+    
+    this.subkey = key.getSubKey(0);
+    this.packedBlock = random.nextLong();
+    this.packed = new PackedBlockEngine(key);
+    this.bitsliced = new BitslicedBlockEngine(key.getSchedule());
+    this.vector = BlockEngines.createVector(key.getSchedule());
+    this.packed2 = new PackedBlockEngine(key2);
+    this.packed3 = new PackedBlockEngine(key3);
+    this.triple = new TripleBlockEngine(key, key2, key3);
+  }
+  
+  @Benchmark
+  public byte[] execute() {
+    return new FeistelRound(this.block, this.subkey).execute();
+  }
+  
+  /**
+   * Encrypts a block with the packed engine, feeding each result into the
+   * next invocation.
+   */
+  @Benchmark
+  public long packedBlock() {
+    return this.packedBlock = this.packed.encrypt(this.packedBlock);
+  }
+  
+  /**
+   * Encrypts 64 blocks in place with the bitsliced engine; reported per block.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BitslicedBlockEngine.BLOCKS)
+  public long[] bitslicedBlock() {
+    this.bitsliced.encrypt(this.blocks, 0, this.blocks.length);
+    return this.blocks;
+  }
+  
+  /**
+   * Encrypts 64 blocks in place with the vector engine; reported per block.
+   * Without the Vector API this measures the packed engine it falls back to.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BitslicedBlockEngine.BLOCKS)
+  @Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+  public long[] vectorBlock() {
+    this.vector.encrypt(this.blocks, 0, this.blocks.length);
+    return this.blocks;
+  }
+  
+  /**
+   * Encrypts a block with the fused Triple Revised DES engine, feeding each
+   * result into the next invocation.
+   */
+  @Benchmark
+  public long tripleBlock() {
+    return this.packedBlock = this.triple.encrypt(this.packedBlock);
+  }
+  
+  /**
+   * Encrypts a block with Triple Revised DES by running it through three
+   * packed engines in turn, each with its own permutations.
+   */
+  @Benchmark
+  public long chainedTripleBlock() {
+    return this.packedBlock = this.packed3.encrypt(this.packed2.decrypt(this.packed.encrypt(this.packedBlock)));
+  }
+}
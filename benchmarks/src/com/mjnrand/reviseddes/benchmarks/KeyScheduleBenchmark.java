@@ -0,0 +1,51 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.Key;
+import com.mjnrand.reviseddes.KeySchedule;
+
+/**
+ * KeyScheduleBenchmark measures generating the subkeys of a key, both through
+ * {@link Key#generateSubKeys()}, which is served from the schedule cache once
+ * warm, and by expanding a new schedule each time.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyScheduleBenchmark {
+  private byte[] keyBytes = "benchmk!".getBytes();
+  private long keyValue = 0x0123456789abcdefL;
+  
+  @Benchmark
+  public Key generateSubKeys() {
+    Key key = new Key(this.keyBytes);
+    
+    key.generateSubKeys();
+    return key;
+  }
+  
+  /**
+   * Expands a schedule for a different key on every invocation, bypassing the
+   * schedule cache.
+   */
+  @Benchmark
+  public KeySchedule expandUncached() {
+    return new KeySchedule(this.keyValue++);
+  }
+}
@@ -0,0 +1,93 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.Block;
+import com.mjnrand.reviseddes.BufferCipher;
+import com.mjnrand.reviseddes.Key;
+import com.mjnrand.reviseddes.MultiKeyCipher;
+
+/**
+ * MultiKeyBenchmark measures encrypting a batch of short records, each under a
+ * different key, both with a {@link MultiKeyCipher} and by a loop creating a
+ * {@link Key} and a {@link BufferCipher} for each record.  There are more keys
+ * than the schedule cache holds, so the loop expands a schedule for every
+ * record as it would for a stream of tenants.  Reported per record.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiKeyBenchmark {
+  /** Number of records in each batch. */
+  private static final int RECORDS = 1024;
+  
+  @Param({ "16", "64", "256" })
+  public int size;
+  
+  private long[] keys = new long[RECORDS];
+  private byte[][] keyBytes = new byte[RECORDS][Block.SIZE];
+  private byte[][] input = new byte[RECORDS][];
+  private byte[][] output = new byte[RECORDS][];
+  private MultiKeyCipher cipher = new MultiKeyCipher();
+  
+  /**
+   * Generates the keys and records of the batch.
+   */
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    
+    for (int i=0; i < RECORDS; i++) {
+      random.nextBytes(this.keyBytes[i]);
+      this.keys[i] = Block.pack(this.keyBytes[i], 0);
+      this.input[i] = new byte[this.size];
+      this.output[i] = new byte[BufferCipher.getEncryptedLength(this.size)];
+      random.nextBytes(this.input[i]);
+    }
+  }
+  
+  /**
+   * Encrypts the batch with a single call to the multi-key cipher.
+   */
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public byte[][] multiKey() {
+    this.cipher.encrypt(this.keys, this.input, this.output, RECORDS);
+    return this.output;
+  }
+  
+  /**
+   * Encrypts the batch one record at a time, with a new key and cipher for each.
+   */
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public byte[][] individualCalls() {
+    for (int i=0; i < RECORDS; i++) {
+      Key key = new Key(this.keyBytes[i]);
+      
+      key.generateSubKeys();
+      new BufferCipher(key).encrypt(this.input[i], 0, this.size, this.output[i], 0);
+    }
+    
+    return this.output;
+  }
+}
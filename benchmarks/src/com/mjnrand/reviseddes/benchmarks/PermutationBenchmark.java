@@ -0,0 +1,68 @@
+package com.mjnrand.reviseddes.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mjnrand.reviseddes.Block;
+import com.mjnrand.reviseddes.CompiledPermutation;
+import com.mjnrand.reviseddes.Permutation;
+
+/**
+ * PermutationBenchmark measures each permutation function of the Revised DES
+ * cryptosystem, both through the byte array API and in its compiled form.
+ * 
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBenchmark {
+  @Param({ "INITIAL_PERMUTATION", "INITIAL_PERMUTATION_INVERSE", "EXPANSION_PERMUTATION",
+           "PERMUTATION_FUNCTION", "PERMUTED_CHOICE_1", "PERMUTED_CHOICE_2" })
+  public String table;
+  
+  private byte[] permutation;
+  private CompiledPermutation compiled;
+  private byte[] bytes;
+  private long bits;
+  
+  /**
+   * Looks up the permutation function being measured and builds an input of
+   * the width it is applied to.
+   * 
+   * @throws ReflectiveOperationException  if there is no such permutation function
+   */
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    this.permutation = (byte[]) Permutation.class.getField(this.table).get(null);
+    this.compiled = (CompiledPermutation) Permutation.class.getField("COMPILED_" + this.table).get(null);
+    this.bytes = new byte[this.compiled.getWidth() / 8];
+    new Random(42).nextBytes(this.bytes);
+    this.bits = Block.pack(this.bytes, 0, this.bytes.length);
+  }
+  
+  @Benchmark
+  public byte[] permute() {
+    return Permutation.permute(this.bytes, this.permutation);
+  }
+  
+  @Benchmark
+  public long permuteCompiled() {
+    return this.compiled.permute(this.bits);
+  }
+}
@@ -0,0 +1,370 @@
+package com.mjnrand.reviseddes;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * AsyncFileCipher encrypts / decrypts a file through asynchronous file
+ * channels, keeping several reads in flight ahead of the cipher and several
+ * writes in flight behind it.  Every segment of the input maps to a segment of
+ * the output at an offset known before either is read, so each read and write
+ * is issued at its own explicit position and the storage device is given a
+ * queue of requests to work through rather than one at a time.
+ * 
+ * The cipher runs on the calling thread, which waits only for the read of the
+ * segment it needs next and for the write of the segment whose buffers it is
+ * about to reuse.  Segments are allocated once, two for every request kept in
+ * flight, so no memory is allocated once the file is under way.
+ * 
+ * Cipher text being decrypted must consist of whole blocks.
+ * 
+ * @author mark
+ */
+final class AsyncFileCipher {
+  /** Number of blocks held by a single segment. */
+  static final int SEGMENT_BLOCKS = 1 << 14;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  private final AsynchronousFileChannel in;
+  private final AsynchronousFileChannel out;
+  private final BlockEngine engine;
+  private final boolean encrypt;
+  private final boolean byteStream;
+  private final int depth;
+  private final Segment[] segments;
+  
+  /**
+   * Constructs a new cipher over the given channels, allocating its segments.
+   * 
+   * @param in          channel to read the input text from
+   * @param out         channel to write the output text to
+   * @param schedule    schedule of subkeys used to encrypt / decrypt each block
+   * @param encrypt     true to encrypt the input; false to decrypt it
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param depth       number of reads and of writes to keep in flight
+   */
+  private AsyncFileCipher(AsynchronousFileChannel in, AsynchronousFileChannel out, KeySchedule schedule,
+                          boolean encrypt, boolean byteStream, int depth) {
+    this.in = in;
+    this.out = out;
+    this.engine = BlockEngines.create(schedule, SEGMENT_BLOCKS);
+    this.encrypt = encrypt;
+    this.byteStream = byteStream;
+    this.depth = depth;
+    this.segments = new Segment[2 * depth];
+    
+    for (int i=0; i < this.segments.length; i++) {
+      this.segments[i] = new Segment(SEGMENT_BLOCKS, byteStream);
+    }
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel.  The last
+   * block is padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param depth       number of reads and of writes to keep in flight; at least 1
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(AsynchronousFileChannel in, AsynchronousFileChannel out, KeySchedule schedule,
+                      boolean byteStream, int depth) throws IOException {
+    new AsyncFileCipher(in, out, schedule, true, byteStream, depth).run();
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel.  The
+   * cipher text must consist of whole blocks.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param depth       number of reads and of writes to keep in flight; at least 1
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(AsynchronousFileChannel in, AsynchronousFileChannel out, KeySchedule schedule,
+                      boolean byteStream, int depth) throws IOException {
+    new AsyncFileCipher(in, out, schedule, false, byteStream, depth).run();
+  }
+  
+  /**
+   * Returns the largest depth whose segments take up no more than half of the
+   * most memory the heap may grow to, so that a depth given by the user cannot
+   * exhaust the heap before the file is under way.
+   * 
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @return int        largest depth allowed; at least 1
+   */
+  static int maxDepth(boolean byteStream) {
+    long segmentBytes = (long) SEGMENT_BLOCKS * (Block.SIZE + Long.BYTES + ((byteStream) ? 0 : Block.SIZE * BITS));
+    long depth = (Runtime.getRuntime().maxMemory() / 2) / (2 * segmentBytes);
+    
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, depth));
+  }
+  
+  /**
+   * Returns true if the cipher text read by the given channel consists of whole
+   * blocks.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @return boolean    true if the cipher text consists of whole blocks
+   * @throws IOException  if the size of the channel could not be read
+   */
+  static boolean isBlockAligned(AsynchronousFileChannel in, boolean byteStream) throws IOException {
+    return (in.size() % (byteStream ? Block.SIZE : Block.SIZE * BITS)) == 0;
+  }
+  
+  /**
+   * Issues the reads of the first segments, and then takes each segment in
+   * turn: waits for its read, transforms it, issues its write, and reuses the
+   * buffers of the segment whose write is furthest behind for the next read.
+   * Every write is waited for before returning.
+   * 
+   * @throws IOException  if a read or write failed, or the cipher text is not valid
+   */
+  private void run() throws IOException {
+    long inputSize = this.in.size();
+    long inputSegment = (long) SEGMENT_BLOCKS * Block.SIZE * ((this.encrypt || this.byteStream) ? 1 : BITS);
+    long count = (inputSize + inputSegment - 1) / inputSegment;
+    
+    try {
+      for (long n=0; n < Math.min(count, this.depth); n++) {
+        this.read(this.segments[(int) n], n, inputSize, inputSegment);
+      }
+      
+      for (long n=0; n < count; n++) {
+        Segment segment = this.segments[(int) (n % this.segments.length)];
+        
+        this.completeRead(segment);
+        this.transform(segment);
+        this.write(segment, n);
+        
+        if (n + this.depth < count) {
+          Segment next = this.segments[(int) ((n + this.depth) % this.segments.length)];
+          
+          this.completeWrite(next);
+          this.read(next, n + this.depth, inputSize, inputSegment);
+        }
+      }
+      
+      for (Segment segment : this.segments) {
+        this.completeWrite(segment);
+      }
+    } finally {
+      for (Segment segment : this.segments) {
+        segment.cancel();
+      }
+    }
+  }
+  
+  /**
+   * Issues the read of the given segment of the input.
+   * 
+   * @param segment       segment to read into
+   * @param n             number of the segment in the input
+   * @param inputSize     number of bytes in the input
+   * @param inputSegment  number of input bytes in a whole segment
+   */
+  private void read(Segment segment, long n, long inputSize, long inputSegment) {
+    ByteBuffer buffer = (this.encrypt || this.byteStream) ? segment.dataBuffer : segment.textBuffer;
+    
+    buffer.clear().limit((int) Math.min(inputSegment, inputSize - (n * inputSegment)));
+    segment.position = n * inputSegment;
+    segment.buffer = buffer;
+    segment.start = CipherMetrics.getInstance().start();
+    segment.pending = this.in.read(buffer, segment.position);
+  }
+  
+  /**
+   * Waits for the read of the given segment to fill its buffer, issuing the
+   * rest of the read again if it came back short, and sets the number of bytes
+   * it holds.  The last block of plain text being encrypted is padded with
+   * spaces.
+   * 
+   * @param segment   segment being read
+   * @throws IOException  if the input could not be read
+   */
+  private void completeRead(Segment segment) throws IOException {
+    ByteBuffer buffer = segment.buffer;
+    
+    while (this.await(segment) != -1 && buffer.hasRemaining()) {
+      segment.pending = this.in.read(buffer, segment.position + buffer.position());
+    }
+    
+    if (buffer.hasRemaining()) {
+      throw new IOException("Input ended before its expected size");
+    }
+    
+    CipherMetrics.getInstance().read(buffer.limit(), segment.start);
+    
+    if (this.encrypt) {
+      segment.length = (buffer.limit() + Block.SIZE - 1) & -Block.SIZE;
+      Arrays.fill(segment.data, buffer.limit(), segment.length, (byte) ' ');
+    } else {
+      segment.length = buffer.limit() / ((this.byteStream) ? 1 : BITS);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the blocks held by the given segment in place, decoding
+   * and encoding bit form cipher text as needed.
+   * 
+   * @param segment   segment to transform
+   * @throws IOException  if the cipher text is not valid
+   */
+  private void transform(Segment segment) throws IOException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    int numBlocks = segment.length / Block.SIZE;
+    long start = metrics.start();
+    
+    if (!this.encrypt && !this.byteStream) {
+      CipherTextInputStream.decode(segment.text, 0, segment.data, 0, segment.length);
+    }
+    
+    for (int i=0; i < numBlocks; i++) {
+      segment.blocks[i] = Block.pack(segment.data, i * Block.SIZE);
+    }
+    
+    if (this.encrypt) {
+      this.engine.encrypt(segment.blocks, 0, numBlocks);
+    } else {
+      this.engine.decrypt(segment.blocks, 0, numBlocks);
+    }
+    
+    for (int i=0; i < numBlocks; i++) {
+      Block.unpack(segment.blocks[i], segment.data, i * Block.SIZE);
+    }
+    
+    if (this.encrypt && !this.byteStream) {
+      CipherTextOutputStream.encode(segment.data, 0, segment.text, 0, segment.length);
+    }
+    
+    metrics.processed(this.encrypt, numBlocks, start);
+  }
+  
+  /**
+   * Issues the write of the given transformed segment to its place in the
+   * output.
+   * 
+   * @param segment   segment to write
+   * @param n         number of the segment in the input
+   */
+  private void write(Segment segment, long n) {
+    ByteBuffer buffer = (this.encrypt && !this.byteStream) ? segment.textBuffer : segment.dataBuffer;
+    int scale = (buffer == segment.textBuffer) ? BITS : 1;
+    
+    buffer.clear().limit(segment.length * scale);
+    segment.position = n * SEGMENT_BLOCKS * Block.SIZE * scale;
+    segment.buffer = buffer;
+    segment.start = CipherMetrics.getInstance().start();
+    segment.pending = this.out.write(buffer, segment.position);
+  }
+  
+  /**
+   * Waits for any write issued for the given segment to drain its buffer,
+   * issuing the rest of the write again if it came back short.
+   * 
+   * @param segment   segment being written, or not in use
+   * @throws IOException  if the output could not be written
+   */
+  private void completeWrite(Segment segment) throws IOException {
+    if (segment.pending == null) {
+      return;
+    }
+    
+    ByteBuffer buffer = segment.buffer;
+    
+    while (this.await(segment) >= 0 && buffer.hasRemaining()) {
+      segment.pending = this.out.write(buffer, segment.position + buffer.position());
+    }
+    
+    CipherMetrics.getInstance().written(buffer.limit(), segment.start);
+  }
+  
+  /**
+   * Waits for the request in flight for the given segment to finish.
+   * 
+   * @param segment   segment with a request in flight
+   * @return int      number of bytes transferred, or -1 at the end of the input
+   * @throws IOException  if the request failed or the wait was interrupted
+   */
+  private int await(Segment segment) throws IOException {
+    try {
+      return segment.pending.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for file request");
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) {
+        throw (IOException) ee.getCause();
+      }
+      
+      throw new IOException(ee.getCause());
+    } finally {
+      segment.pending = null;
+    }
+  }
+  
+  /**
+   * Segment holds a run of consecutive blocks from the time it is read until
+   * it has been written, along with the buffers it is read and written through
+   * and the request in flight for it.
+   */
+  private static final class Segment {
+    final byte[] data;
+    final byte[] text;
+    final long[] blocks;
+    final ByteBuffer dataBuffer;
+    final ByteBuffer textBuffer;
+    
+    /** Request in flight for this segment, or null if there is none. */
+    Future<Integer> pending;
+    
+    /** Buffer the request in flight reads into or writes from. */
+    ByteBuffer buffer;
+    
+    /** Position of the file the request in flight started at. */
+    long position;
+    
+    /** Time the request in flight was issued, for the metrics. */
+    long start;
+    
+    /** Number of plain text / cipher text bytes held; a multiple of the block size. */
+    int length;
+    
+    /**
+     * Allocates a segment for the given number of blocks.
+     * 
+     * @param numBlocks   number of blocks the segment can hold
+     * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+     */
+    Segment(int numBlocks, boolean byteStream) {
+      this.data = new byte[numBlocks * Block.SIZE];
+      this.text = (byteStream) ? null : new byte[numBlocks * Block.SIZE * BITS];
+      this.blocks = new long[numBlocks];
+      this.dataBuffer = ByteBuffer.wrap(this.data);
+      this.textBuffer = (byteStream) ? null : ByteBuffer.wrap(this.text);
+    }
+    
+    /**
+     * Cancels the request in flight for this segment, if any, after a failure.
+     */
+    void cancel() {
+      if (this.pending != null) {
+        this.pending.cancel(true);
+        this.pending = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,463 @@
+package com.mjnrand.reviseddes;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BatchCipher encrypts / decrypts many files with a single key on one
+ * work-stealing pool sized to the machine.  Each input may be a file, a
+ * directory, whose whole tree is processed, or a glob pattern such as
+ * <code>logs/**.txt</code>.  Directories are walked in parallel, and every
+ * file is then processed by its own task, which splits the file into the
+ * chunks of {@link ParallelFileCipher} on the same pool, so that a single
+ * large file is shared between idle workers instead of holding up the rest.
+ * 
+ * A file reached through more than one input is processed only once.  Files
+ * found in directories or by patterns that carry the output suffix, and files
+ * under the output directory, are skipped, as they are the outputs of an
+ * earlier run.  A file that cannot be processed is reported and counted as
+ * failed without stopping the other files.
+ * 
+ * @author mark
+ */
+final class BatchCipher {
+  /** Characters that make an input a glob pattern rather than a path. */
+  private static final String GLOB_CHARACTERS = "*?[{";
+  
+  private final Key key;
+  private final boolean encrypt;
+  private final boolean byteStream;
+  private final int chaining;
+  private final Path outputDirectory;
+  private final String suffix;
+  private final ForkJoinPool pool;
+  
+  private final AtomicLong files = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  
+  /**
+   * Constructs a new batch cipher.
+   * 
+   * @param key             key to be used for encrypting / decrypting every file
+   * @param encrypt         true to encrypt the files; false to decrypt them
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining        chaining mode, as defined by {@link Chaining}
+   * @param outputDirectory directory to write the output files to, keeping their paths relative
+   *                        to the input they were found under; null to write each output file
+   *                        next to its input file with the given suffix
+   * @param suffix          suffix appended to the name of each input file when there is no
+   *                        output directory
+   * @param pool            pool to walk the inputs and process the files on
+   */
+  BatchCipher(Key key, boolean encrypt, boolean byteStream, int chaining,
+              String outputDirectory, String suffix, ForkJoinPool pool) {
+    this.key = key;
+    this.encrypt = encrypt;
+    this.byteStream = byteStream;
+    this.chaining = chaining;
+    this.outputDirectory = (outputDirectory == null) ? null : Paths.get(outputDirectory);
+    this.suffix = suffix;
+    this.pool = pool;
+  }
+  
+  /**
+   * Encrypts / decrypts every file found under the given inputs, and returns a
+   * summary of the run.
+   * 
+   * @param inputs      names of files, directories or glob patterns to process
+   * @return Summary    number of files and bytes processed, and the time taken
+   */
+  Summary process(List<String> inputs) {
+    long start = System.nanoTime();
+    List<Job> jobs = this.unique(this.pool.invoke(new InputTask(inputs)));
+    
+    this.pool.invoke(new JobTask(jobs, 0, jobs.size()));
+    
+    return new Summary(this.encrypt, this.files.get(), this.failures.get(), this.bytesRead.get(),
+                       this.bytesWritten.get(), System.nanoTime() - start);
+  }
+  
+  /**
+   * Returns true if the given input is a glob pattern rather than a path.
+   * 
+   * @param input     name of the input
+   * @return boolean  true if the input contains any glob characters
+   */
+  static boolean isGlob(String input) {
+    for (int i=0; i < input.length(); i++) {
+      if (GLOB_CHARACTERS.indexOf(input.charAt(i)) != -1) {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  /**
+   * Returns the directory a glob pattern is rooted at, which is made up of the
+   * leading names of the pattern that contain no glob characters.
+   * 
+   * @param pattern   glob pattern
+   * @return Path     directory to walk to find the matches of the pattern
+   */
+  private static Path globRoot(String pattern) {
+    int end = 0;
+    
+    for (int i=0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      
+      if (GLOB_CHARACTERS.indexOf(c) != -1) {
+        break;
+      }
+      
+      if (c == '/' || c == java.io.File.separatorChar) {
+        end = i + 1;
+      }
+    }
+    
+    return Paths.get(pattern.substring(0, end));
+  }
+  
+  /**
+   * Returns the given jobs without those whose input file is that of an
+   * earlier job or lies under the output directory.  A job whose output file
+   * is that of an earlier job is reported and counted as failed.
+   * 
+   * @param jobs    jobs found for the inputs
+   * @return List   jobs to process
+   */
+  private List<Job> unique(List<Job> jobs) {
+    List<Job> unique = new ArrayList<Job>();
+    Set<Path> inputs = new HashSet<Path>();
+    Set<Path> outputs = new HashSet<Path>();
+    Path excluded = null;
+    
+    try {
+      if (this.outputDirectory != null && Files.isDirectory(this.outputDirectory)) {
+        excluded = this.outputDirectory.toRealPath();
+      }
+    } catch (IOException ioe) {
+      // An output directory that cannot be resolved holds no inputs to skip.
+    }
+    
+    for (Job job : jobs) {
+      try {
+        Path input = job.input.toRealPath();
+        
+        if ((excluded != null && input.startsWith(excluded)) || !inputs.add(input)) {
+          continue;
+        }
+        
+        if (!outputs.add(job.output.toAbsolutePath().normalize())) {
+          throw new IOException(job.output + " is the output of another file");
+        }
+        
+        unique.add(job);
+      } catch (IOException ioe) {
+        this.failures.incrementAndGet();
+        System.out.println(new StringBuffer("[ERROR]  Unable to ").append((this.encrypt) ? "encrypt " : "decrypt ").
+                           append(job.input).append(": ").append(ioe.getMessage()).toString());
+      }
+    }
+    
+    return unique;
+  }
+  
+  /**
+   * Returns true if the given file found in a directory or by a pattern is the
+   * output of an earlier run, carrying the output suffix.
+   * 
+   * @param file      file found
+   * @return boolean  true if the file is to be skipped
+   */
+  private boolean isOutput(Path file) {
+    return this.outputDirectory == null && file.getFileName().toString().endsWith(this.suffix);
+  }
+  
+  /**
+   * Returns the output path of the given input file.
+   * 
+   * @param file    input file
+   * @param root    input the file was found under
+   * @return Path   output file
+   */
+  private Path output(Path file, Path root) {
+    if (this.outputDirectory == null) {
+      return file.resolveSibling(file.getFileName() + this.suffix);
+    }
+    
+    return this.outputDirectory.resolve(root.relativize(file).toString());
+  }
+  
+  /**
+   * Encrypts / decrypts a single file, reporting and counting any failure.
+   * 
+   * @param job   input and output file to process
+   */
+  private void process(Job job) {
+    try {
+      if (job.output.getParent() != null) {
+        Files.createDirectories(job.output.getParent());
+      }
+      
+      ParallelFileCipher.process(job.input, job.output, this.key, this.encrypt, this.byteStream, this.chaining, this.pool);
+      this.count(job);
+    } catch (IOException ioe) {
+      this.failures.incrementAndGet();
+      System.out.println(new StringBuffer("[ERROR]  Unable to ").append((this.encrypt) ? "encrypt " : "decrypt ").
+                         append(job.input).append(": ").append(ioe.getMessage()).toString());
+    }
+  }
+  
+  /**
+   * Adds the sizes of a processed file to the totals of the run.
+   * 
+   * @param job   input and output file that were processed
+   * @throws IOException  if the size of either file could not be read
+   */
+  private void count(Job job) throws IOException {
+    this.files.incrementAndGet();
+    this.bytesRead.addAndGet(Files.size(job.input));
+    this.bytesWritten.addAndGet(Files.size(job.output));
+  }
+  
+  /**
+   * Job holds an input file and the output file it is processed into.
+   */
+  private static final class Job {
+    final Path input;
+    final Path output;
+    
+    /**
+     * Constructs a new job.
+     * 
+     * @param input     file to read from
+     * @param output    file to write to
+     */
+    Job(Path input, Path output) {
+      this.input = input;
+      this.output = output;
+    }
+  }
+  
+  /**
+   * InputTask expands each input into the files to process, walking
+   * directories in parallel.
+   */
+  private final class InputTask extends RecursiveTask<List<Job>> {
+    private static final long serialVersionUID = 1L;
+    
+    private final List<String> inputs;
+    
+    /**
+     * Constructs a task expanding the given inputs.
+     * 
+     * @param inputs    names of files, directories or glob patterns
+     */
+    InputTask(List<String> inputs) {
+      this.inputs = inputs;
+    }
+    
+    /**
+     * @see java.util.concurrent.RecursiveTask#compute()
+     */
+    protected List<Job> compute() {
+      List<Job> jobs = new ArrayList<Job>();
+      List<WalkTask> walks = new ArrayList<WalkTask>();
+      
+      for (String input : this.inputs) {
+        Path path = Paths.get(input);
+        
+        if (Files.isDirectory(path)) {
+          walks.add(new WalkTask(path, path, null));
+        } else if (Files.isRegularFile(path)) {
+          jobs.add(new Job(path, output(path, (path.getParent() == null) ? Paths.get("") : path.getParent())));
+        } else if (isGlob(input)) {
+          Path root = globRoot(input);
+          PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+          
+          walks.add(new WalkTask(root, root, matcher));
+        } else {
+          failures.incrementAndGet();
+          System.out.println(new StringBuffer("[ERROR]  File ").append(input).append(" does not exist.").toString());
+        }
+      }
+      
+      invokeAll(walks);
+      
+      for (WalkTask walk : walks) {
+        jobs.addAll(walk.join());
+      }
+      
+      return jobs;
+    }
+  }
+  
+  /**
+   * WalkTask finds the files of a directory, forking a task for each of its
+   * subdirectories.  Symbolic links to directories are not followed, so that a
+   * link back up the tree cannot make the walk endless.
+   */
+  private final class WalkTask extends RecursiveTask<List<Job>> {
+    private static final long serialVersionUID = 1L;
+    
+    private final Path directory;
+    private final Path root;
+    private final PathMatcher matcher;
+    
+    /**
+     * Constructs a task walking the given directory.
+     * 
+     * @param directory   directory to walk
+     * @param root        input the directory was found under
+     * @param matcher     matcher the files must match; null to accept every file
+     */
+    WalkTask(Path directory, Path root, PathMatcher matcher) {
+      this.directory = directory;
+      this.root = root;
+      this.matcher = matcher;
+    }
+    
+    /**
+     * @see java.util.concurrent.RecursiveTask#compute()
+     */
+    protected List<Job> compute() {
+      List<Job> jobs = new ArrayList<Job>();
+      List<WalkTask> walks = new ArrayList<WalkTask>();
+      
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.directory)) {
+        for (Path entry : entries) {
+          if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+            walks.add(new WalkTask(entry, this.root, this.matcher));
+          } else if (Files.isRegularFile(entry) && !isOutput(entry) &&
+                     (this.matcher == null || this.matcher.matches(entry))) {
+            jobs.add(new Job(entry, output(entry, this.root)));
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        failures.incrementAndGet();
+        System.out.println(new StringBuffer("[ERROR]  Unable to read directory ").append(this.directory).
+                           append(".").toString());
+      }
+      
+      invokeAll(walks);
+      
+      for (WalkTask walk : walks) {
+        jobs.addAll(walk.join());
+      }
+      
+      return jobs;
+    }
+  }
+  
+  /**
+   * JobTask processes a range of jobs, splitting it in half until a single
+   * job remains.
+   */
+  private final class JobTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final List<Job> jobs;
+    private final int first;
+    private final int last;
+    
+    /**
+     * Constructs a task processing the jobs between the given indices.
+     * 
+     * @param jobs    every job of the run
+     * @param first   index of the first job to process
+     * @param last    index following the last job to process
+     */
+    JobTask(List<Job> jobs, int first, int last) {
+      this.jobs = jobs;
+      this.first = first;
+      this.last = last;
+    }
+    
+    /**
+     * @see java.util.concurrent.RecursiveAction#compute()
+     */
+    protected void compute() {
+      if (this.last - this.first > 1) {
+        int middle = (this.first + this.last) >>> 1;
+        
+        invokeAll(new JobTask(this.jobs, this.first, middle), new JobTask(this.jobs, middle, this.last));
+      } else if (this.last > this.first) {
+        process(this.jobs.get(this.first));
+      }
+    }
+  }
+  
+  /**
+   * Summary holds the totals of a batch run, and formats them as a throughput
+   * report.
+   */
+  static final class Summary {
+    private final boolean encrypt;
+    private final long files;
+    private final long failures;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long nanos;
+    
+    /**
+     * Constructs a new summary.
+     * 
+     * @param encrypt       true if the files were encrypted; false if they were decrypted
+     * @param files         number of files processed
+     * @param failures      number of files or inputs that could not be processed
+     * @param bytesRead     number of bytes read from the input files
+     * @param bytesWritten  number of bytes written to the output files
+     * @param nanos         time taken by the run, in nanoseconds
+     */
+    Summary(boolean encrypt, long files, long failures, long bytesRead, long bytesWritten, long nanos) {
+      this.encrypt = encrypt;
+      this.files = files;
+      this.failures = failures;
+      this.bytesRead = bytesRead;
+      this.bytesWritten = bytesWritten;
+      this.nanos = nanos;
+    }
+    
+    /**
+     * Returns the number of files or inputs that could not be processed.
+     * 
+     * @return long   number of failures
+     */
+    long getFailures() {
+      return this.failures;
+    }
+    
+    /**
+     * Returns the throughput report of the run.
+     * 
+     * @return String   report listing the files and bytes processed and the rate they were processed at
+     */
+    public String toString() {
+      double seconds = this.nanos / 1e9;
+      double megabytes = this.bytesRead / (1024.0 * 1024.0);
+      
+      return String.format("%s %d file(s), %d failed: read %d bytes, wrote %d bytes in %.3f s (%.1f MB/s, %.1f files/s)",
+                           (this.encrypt) ? "Encrypted" : "Decrypted", this.files, this.failures, this.bytesRead,
+                           this.bytesWritten, seconds, (seconds > 0) ? megabytes / seconds : 0.0,
+                           (seconds > 0) ? this.files / seconds : 0.0);
+    }
+  }
+}
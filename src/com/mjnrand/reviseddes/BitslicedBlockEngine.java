@@ -0,0 +1,282 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * BitslicedBlockEngine encrypts / decrypts 64 blocks of the Revised DES
+ * cryptosystem per pass.  The blocks are transposed into 64 bit-planes, where
+ * plane <i>j</i> holds bit <i>j</i> of every block, so that each bitwise
+ * operation on a plane acts on all 64 blocks at once.  The initial permutation,
+ * the expansion, the permutation function and the final swap only select which
+ * planes are used, the complement of the left hand side is a NOT per plane, and
+ * each S-Box is evaluated as a boolean circuit.
+ * 
+ * The circuits are generated from {@link SBox#S_BOXES} when the class is
+ * initialized: each output bit of an S-Box is written in algebraic normal form,
+ * as the XOR of products of its input bits.  The 64 products of an S-Box's
+ * inputs are computed once per S-Box and shared by its 4 output bits.
+ * 
+ * Runs of fewer than 64 blocks are handed to a {@link PackedBlockEngine}.  An
+ * engine holds the planes it works on, so it must not be shared between threads.
+ * 
+ * @author mark
+ */
+public final class BitslicedBlockEngine implements BlockEngine {
+  /** Number of blocks processed in a single pass. */
+  public static final int BLOCKS = 64;
+  
+  /** Products of S-Box inputs XORed together to form each S-Box output bit. */
+  private static final int[][][] TERMS = new int[8][4][];
+  
+  static {
+    for (int i=0; i < 8; i++) {
+      for (int q=0; q < 4; q++) {
+        long anf = 0;
+        
+        for (int v=0; v < 64; v++) {
+          int row = ((v >>> 4) & 0x02) | (v & 0x01);
+          int col = (v >>> 1) & 0x0f;
+          
+          anf |= (long) ((SBox.S_BOXES[i][row][col] >>> (3 - q)) & 0x01) << v;
+        }
+        
+        for (int p=0; p < 6; p++) {
+          for (int v=0; v < 64; v++) {
+            if ((v & (1 << p)) != 0) {
+              anf ^= ((anf >>> (v ^ (1 << p))) & 1L) << v;
+            }
+          }
+        }
+        
+        TERMS[i][q] = new int[Long.bitCount(anf)];
+        
+        for (int v=0, n=0; v < 64; v++) {
+          if (((anf >>> v) & 1L) != 0) {
+            TERMS[i][q][n++] = v;
+          }
+        }
+      }
+    }
+  }
+  
+  private final PackedBlockEngine packed;
+  private final long[][] keyPlanes = new long[16][48];
+  
+  private final long[] planes = new long[BLOCKS];
+  private final long[] left = new long[32];
+  private final long[] right = new long[32];
+  private final long[] next = new long[32];
+  private final long[] substituted = new long[32];
+  private final long[] products = new long[64];
+  private final long[] inputs = new long[6];
+  
+  /**
+   * Constructs a new engine using the subkeys of the given schedule.
+   * 
+   * @param schedule  schedule of subkeys to be used for encrypting / decrypting blocks
+   */
+  public BitslicedBlockEngine(KeySchedule schedule) {
+    this.packed = new PackedBlockEngine(schedule);
+    
+    for (int i=0; i < 16; i++) {
+      for (int e=0; e < 48; e++) {
+        this.keyPlanes[i][e] = -((schedule.getSubKey(i) >>> (47 - e)) & 1L);
+      }
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(long[], int, int)
+   */
+  public void encrypt(long[] blocks, int off, int numBlocks) {
+    this.process(blocks, off, numBlocks, true);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(long[], int, int)
+   */
+  public void decrypt(long[] blocks, int off, int numBlocks) {
+    this.process(blocks, off, numBlocks, false);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(byte[], int, byte[], int, int)
+   */
+  public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    this.process(in, inOff, out, outOff, numBlocks, true);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(byte[], int, byte[], int, int)
+   */
+  public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    this.process(in, inOff, out, outOff, numBlocks, false);
+  }
+  
+  /**
+   * Encrypts / decrypts the given packed blocks in place, 64 at a time.
+   * 
+   * @param blocks      array holding the blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to process
+   * @param encrypt     true to encrypt the blocks; false to decrypt them
+   */
+  private void process(long[] blocks, int off, int numBlocks, boolean encrypt) {
+    int end = off + numBlocks;
+    
+    for (; off + BLOCKS <= end; off += BLOCKS) {
+      System.arraycopy(blocks, off, this.planes, 0, BLOCKS);
+      this.slice(encrypt);
+      System.arraycopy(this.planes, 0, blocks, off, BLOCKS);
+    }
+    
+    if (encrypt) {
+      this.packed.encrypt(blocks, off, end - off);
+    } else {
+      this.packed.decrypt(blocks, off, end - off);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the given blocks into the output array, 64 at a time.
+   * 
+   * @param in          array holding the input blocks
+   * @param inOff       offset of the first input block
+   * @param out         array to write the output blocks to
+   * @param outOff      offset at which to write the first output block
+   * @param numBlocks   number of blocks to process
+   * @param encrypt     true to encrypt the blocks; false to decrypt them
+   */
+  private void process(byte[] in, int inOff, byte[] out, int outOff, int numBlocks, boolean encrypt) {
+    for (; numBlocks >= BLOCKS; numBlocks -= BLOCKS) {
+      for (int i=0; i < BLOCKS; i++, inOff += Block.SIZE) {
+        this.planes[i] = Block.pack(in, inOff);
+      }
+      
+      this.slice(encrypt);
+      
+      for (int i=0; i < BLOCKS; i++, outOff += Block.SIZE) {
+        Block.unpack(this.planes[i], out, outOff);
+      }
+    }
+    
+    if (encrypt) {
+      this.packed.encrypt(in, inOff, out, outOff, numBlocks);
+    } else {
+      this.packed.decrypt(in, inOff, out, outOff, numBlocks);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the 64 blocks held in the planes array in place.
+   * 
+   * @param encrypt   true to encrypt the blocks; false to decrypt them
+   */
+  private void slice(boolean encrypt) {
+    long[] l = this.left;
+    long[] r = this.right;
+    long[] n = this.next;
+    long[] s = this.substituted;
+    
+    transpose(this.planes);
+    
+    for (int k=0; k < 32; k++) {
+      l[k] = this.planes[Permutation.INITIAL_PERMUTATION[k] - 1];
+      r[k] = this.planes[Permutation.INITIAL_PERMUTATION[32 + k] - 1];
+    }
+    
+    for (int i=0; i < 16; i++) {
+      this.substitute(r, this.keyPlanes[(encrypt) ? i : 15 - i]);
+      
+      for (int k=0; k < 32; k++) {
+        n[k] = ~l[k] ^ s[Permutation.PERMUTATION_FUNCTION[k] - 1];
+      }
+      
+      long[] t = l;
+      l = r;
+      r = n;
+      n = t;
+    }
+    
+    for (int j=0; j < 64; j++) {
+      int bit = Permutation.INITIAL_PERMUTATION_INVERSE[j] - 1;
+      
+      this.planes[j] = (bit < 32) ? r[bit] : l[bit - 32];
+    }
+    
+    transpose(this.planes);
+  }
+  
+  /**
+   * Performs the expansion, the XOR with the subkey and the S-Box substitution
+   * on the given right hand planes, leaving the 32 output planes in the
+   * substituted array.  The S-Boxes are fed their inputs in the same way as
+   * {@link FeistelRound}: S-Box <i>i</i> is fed the 6 bit group <i>i</i> - 1
+   * for 2 &le; <i>i</i> &le; 8, and S-Box 1 is fed the leading bit in all 6
+   * positions.
+   * 
+   * @param r           32 planes of the right hand side
+   * @param keyPlanes   48 planes of the subkey for this round
+   */
+  private void substitute(long[] r, long[] keyPlanes) {
+    long[] s = this.substituted;
+    long[] m = this.products;
+    long[] x = this.inputs;
+    long lead = r[Permutation.EXPANSION_PERMUTATION[0] - 1] ^ keyPlanes[0];
+    
+    for (int q=0; q < 4; q++) {
+      int low = (SBox.S_BOXES[0][0][0] >>> (3 - q)) & 0x01;
+      int high = (SBox.S_BOXES[0][3][15] >>> (3 - q)) & 0x01;
+      
+      s[q] = -low ^ (-(low ^ high) & lead);
+    }
+    
+    for (int i=1; i < 8; i++) {
+      int group = 6 * (i - 1);
+      
+      for (int p=0; p < 6; p++) {
+        x[p] = r[Permutation.EXPANSION_PERMUTATION[group + 5 - p] - 1] ^ keyPlanes[group + 5 - p];
+      }
+      
+      m[0] = -1L;
+      
+      for (int p=0; p < 6; p++) {
+        long xp = x[p];
+        int bit = 1 << p;
+        
+        for (int v=0; v < bit; v++) {
+          m[bit | v] = m[v] & xp;
+        }
+      }
+      
+      for (int q=0; q < 4; q++) {
+        int[] terms = TERMS[i][q];
+        long acc = 0;
+        
+        for (int t=0; t < terms.length; t++) {
+          acc ^= m[terms[t]];
+        }
+        
+        s[(4 * i) + q] = acc;
+      }
+    }
+  }
+  
+  /**
+   * Transposes the given 64 x 64 bit matrix in place, so that bit <i>j</i>
+   * (counting from the most significant bit) of row <i>k</i> becomes bit
+   * <i>k</i> of row <i>j</i>.
+   * 
+   * @param a   64 rows of the matrix
+   */
+  static void transpose(long[] a) {
+    long m = 0x00000000ffffffffL;
+    
+    for (int j=32; j != 0; j >>>= 1, m ^= (m << j)) {
+      for (int k=0; k < 64; k = ((k | j) + 1) & ~j) {
+        long t = (a[k] ^ (a[k | j] >>> j)) & m;
+        
+        a[k] ^= t;
+        a[k | j] ^= (t << j);
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * Block provides static helpers for moving 64 bit blocks between their byte
+ * array form and their packed form, where the first byte of the block is held
+ * in the most significant 8 bits of a long.
+ * 
+ * @author mark
+ */
+public final class Block {
+  /** Number of bytes in a single block of the Revised DES cryptosystem. */
+  public static final int SIZE = 8;
+  
+  /**
+   * Packs the 8 bytes starting at the given offset into a long.
+   * 
+   * @param bytes   array holding the block
+   * @param off     offset of the first byte of the block
+   * @return long   packed block
+   */
+  public static long pack(byte[] bytes, int off) {
+    return pack(bytes, off, SIZE);
+  }
+  
+  /**
+   * Packs the given number of bytes starting at the given offset into the low
+   * order bits of a long, first byte most significant.
+   * 
+   * @param bytes   array holding the bits
+   * @param off     offset of the first byte
+   * @param len     number of bytes to pack; must be between 0-8
+   * @return long   packed bits
+   */
+  public static long pack(byte[] bytes, int off, int len) {
+    long result = 0;
+    
+    for (int i=0; i < len; i++) {
+      result = (result << 8) | (bytes[off + i] & 0xffL);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Writes the given packed block into the 8 bytes starting at the given offset.
+   * 
+   * @param block   packed block
+   * @param bytes   array to write the block to
+   * @param off     offset of the first byte of the block
+   */
+  public static void unpack(long block, byte[] bytes, int off) {
+    unpack(block, bytes, off, SIZE);
+  }
+  
+  /**
+   * Writes the given number of low order bytes of the given long into the
+   * array starting at the given offset, first byte most significant.
+   * 
+   * @param bits    packed bits
+   * @param bytes   array to write the bits to
+   * @param off     offset of the first byte
+   * @param len     number of bytes to write; must be between 0-8
+   */
+  public static void unpack(long bits, byte[] bytes, int off, int len) {
+    for (int i=len - 1; i >= 0; i--) {
+      bytes[off + i] = (byte) bits;
+      bits >>>= 8;
+    }
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private Block() {}
+}
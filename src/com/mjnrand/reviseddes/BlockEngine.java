@@ -0,0 +1,54 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * BlockEngine is implemented by every engine that encrypts / decrypts runs of
+ * 64 bit blocks of the Revised DES cryptosystem.  Blocks are independent of one
+ * another, so all engines produce identical output for the same key.
+ * 
+ * @author mark
+ */
+public interface BlockEngine {
+  /**
+   * Encrypts the given number of packed blocks in place.
+   * 
+   * @param blocks      array holding the plain text blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to encrypt
+   */
+  public void encrypt(long[] blocks, int off, int numBlocks);
+  
+  /**
+   * Decrypts the given number of packed blocks in place.
+   * 
+   * @param blocks      array holding the cipher text blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to decrypt
+   */
+  public void decrypt(long[] blocks, int off, int numBlocks);
+  
+  /**
+   * Encrypts the given number of blocks starting at the given offset of the
+   * input array and writes the result to the given offset of the output array.
+   * The arrays may be the same if the offsets are equal.
+   * 
+   * @param in          array holding the plain text blocks
+   * @param inOff       offset of the first plain text block
+   * @param out         array to write the cipher text blocks to
+   * @param outOff      offset at which to write the first cipher text block
+   * @param numBlocks   number of blocks to encrypt
+   */
+  public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks);
+  
+  /**
+   * Decrypts the given number of blocks starting at the given offset of the
+   * input array and writes the result to the given offset of the output array.
+   * The arrays may be the same if the offsets are equal.
+   * 
+   * @param in          array holding the cipher text blocks
+   * @param inOff       offset of the first cipher text block
+   * @param out         array to write the plain text blocks to
+   * @param outOff      offset at which to write the first plain text block
+   * @param numBlocks   number of blocks to decrypt
+   */
+  public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks);
+}
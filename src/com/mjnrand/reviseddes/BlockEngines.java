@@ -0,0 +1,82 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * BlockEngines chooses the block engine best suited to the number of blocks
+ * that are to be encrypted / decrypted.  Large runs are given a
+ * {@link VectorBlockEngine} when the Vector API is available, and a
+ * {@link BitslicedBlockEngine} otherwise.
+ * 
+ * @author mark
+ */
+public final class BlockEngines {
+  /**
+   * Number of blocks from which a {@link BitslicedBlockEngine} is used instead
+   * of a {@link PackedBlockEngine}.  Below this, the cost of setting up the
+   * subkey planes is not recovered.
+   */
+  public static final long BITSLICE_THRESHOLD = 1024;
+  
+  /**
+   * True if the jdk.incubator.vector module was resolved at startup, which it
+   * only is when the JVM is started with --add-modules jdk.incubator.vector,
+   * and the processor has vectors of at least 8 ints.
+   */
+  public static final boolean VECTOR_AVAILABLE = isVectorAvailable();
+  
+  /**
+   * Returns a new engine for encrypting / decrypting the given number of blocks
+   * using the subkeys of the given schedule.  The engine must not be shared
+   * between threads.
+   * 
+   * @param schedule    schedule of subkeys to be used
+   * @param numBlocks   number of blocks that will be processed
+   * @return BlockEngine  engine for processing the blocks
+   */
+  public static BlockEngine create(KeySchedule schedule, long numBlocks) {
+    if (numBlocks >= BITSLICE_THRESHOLD && VECTOR_AVAILABLE) {
+      return new VectorBlockEngine(schedule);
+    } else if (numBlocks >= BITSLICE_THRESHOLD) {
+      return new BitslicedBlockEngine(schedule);
+    }
+    
+    return new PackedBlockEngine(schedule);
+  }
+  
+  /**
+   * Returns a new {@link VectorBlockEngine} using the subkeys of the given
+   * schedule, or a {@link PackedBlockEngine} if the Vector API is not
+   * available.  The engine must not be shared between threads.
+   * 
+   * @param schedule    schedule of subkeys to be used
+   * @return BlockEngine  engine for processing blocks
+   */
+  public static BlockEngine createVector(KeySchedule schedule) {
+    if (VECTOR_AVAILABLE) {
+      return new VectorBlockEngine(schedule);
+    }
+    
+    return new PackedBlockEngine(schedule);
+  }
+  
+  /**
+   * Returns true if the Vector API can be used and is worth using.  With fewer
+   * than 8 lanes, each SP-Box lookup takes too many shuffles to beat the
+   * bitsliced engine.
+   * 
+   * @return boolean  true if vector engines should be created
+   */
+  private static boolean isVectorAvailable() {
+    if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      return false;
+    }
+    
+    try {
+      return VectorBlockEngine.LANES >= 8;
+    } catch (LinkageError le) {
+      return false;
+    }
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private BlockEngines() {}
+}
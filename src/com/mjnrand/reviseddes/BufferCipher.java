@@ -0,0 +1,295 @@
+package com.mjnrand.reviseddes;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * BufferCipher encrypts / decrypts data held in memory, either in byte arrays or
+ * in heap or direct byte buffers, writing the result into output supplied by the
+ * caller.  Encryption pads the last block with spaces exactly as
+ * {@link RevisedDES#encrypt(String, String, Key, boolean)} does, so the cipher
+ * text is identical to the byte stream written for the same plain text.
+ * 
+ * No objects are created once a cipher has been constructed, and failures are
+ * reported by throwing exceptions before any output is written.  A cipher holds
+ * the blocks it is working on, so it must not be shared between threads.
+ * 
+ * @author mark
+ */
+public final class BufferCipher {
+  private final PackedBlockEngine packed;
+  private final BitslicedBlockEngine bitsliced;
+  private final long[] batch = new long[BitslicedBlockEngine.BLOCKS];
+  
+  /**
+   * Constructs a new cipher using the subkeys of the given key.  The subkeys
+   * must already have been generated.
+   * 
+   * @param key   key to be used for encrypting / decrypting
+   */
+  public BufferCipher(Key key) {
+    this(key.getSchedule());
+  }
+  
+  /**
+   * Constructs a new cipher using the subkeys of the given schedule.
+   * 
+   * @param schedule  schedule of subkeys to be used for encrypting / decrypting
+   */
+  public BufferCipher(KeySchedule schedule) {
+    this.packed = new PackedBlockEngine(schedule);
+    this.bitsliced = new BitslicedBlockEngine(schedule);
+  }
+  
+  /**
+   * Returns the number of cipher text bytes produced by encrypting the given
+   * number of plain text bytes.
+   * 
+   * @param len   number of plain text bytes
+   * @return int  number of cipher text bytes
+   */
+  public static int getEncryptedLength(int len) {
+    return ((len + Block.SIZE - 1) / Block.SIZE) * Block.SIZE;
+  }
+  
+  /**
+   * Encrypts the given range of the input array into the output array.  The
+   * arrays may be the same if the offsets are equal.
+   * 
+   * @param in      array holding the plain text
+   * @param inOff   offset of the first plain text byte
+   * @param len     number of plain text bytes
+   * @param out     array to write the cipher text to
+   * @param outOff  offset at which to write the cipher text
+   * @return int    number of cipher text bytes written
+   * @throws IndexOutOfBoundsException  if either range lies outside its array
+   */
+  public int encrypt(byte[] in, int inOff, int len, byte[] out, int outOff) {
+    long start = CipherMetrics.getInstance().start();
+    int outLen = getEncryptedLength(len);
+    int whole = len / Block.SIZE;
+    int rem = len % Block.SIZE;
+    
+    checkRange(in.length, inOff, len);
+    checkRange(out.length, outOff, outLen);
+    
+    this.engine(whole).encrypt(in, inOff, out, outOff, whole);
+    
+    if (rem != 0) {
+      long block = pad(Block.pack(in, inOff + (whole * Block.SIZE), rem), rem);
+      Block.unpack(this.packed.encrypt(block), out, outOff + (whole * Block.SIZE));
+    }
+    
+    CipherMetrics.getInstance().processed(true, outLen / Block.SIZE, start);
+    
+    return outLen;
+  }
+  
+  /**
+   * Decrypts the given range of the input array into the output array.  The
+   * arrays may be the same if the offsets are equal.
+   * 
+   * @param in      array holding the cipher text
+   * @param inOff   offset of the first cipher text byte
+   * @param len     number of cipher text bytes; must be a multiple of 8
+   * @param out     array to write the plain text to
+   * @param outOff  offset at which to write the plain text
+   * @return int    number of plain text bytes written
+   * @throws IllegalArgumentException   if the cipher text does not consist of whole blocks
+   * @throws IndexOutOfBoundsException  if either range lies outside its array
+   */
+  public int decrypt(byte[] in, int inOff, int len, byte[] out, int outOff) {
+    long start = CipherMetrics.getInstance().start();
+    
+    checkBlocks(len);
+    checkRange(in.length, inOff, len);
+    checkRange(out.length, outOff, len);
+    
+    this.engine(len / Block.SIZE).decrypt(in, inOff, out, outOff, len / Block.SIZE);
+    CipherMetrics.getInstance().processed(false, len / Block.SIZE, start);
+    
+    return len;
+  }
+  
+  /**
+   * Encrypts the remaining bytes of the input buffer into the output buffer,
+   * advancing the position of both.
+   * 
+   * @param in    buffer holding the plain text
+   * @param out   buffer to write the cipher text to
+   * @return int  number of cipher text bytes written
+   * @throws BufferOverflowException  if the output buffer does not have room for the cipher text
+   * @throws ReadOnlyBufferException  if the output buffer is read only
+   */
+  public int encrypt(ByteBuffer in, ByteBuffer out) {
+    long start = CipherMetrics.getInstance().start();
+    int len = in.remaining();
+    int outLen = getEncryptedLength(len);
+    int rem = len % Block.SIZE;
+    
+    checkOutput(out, outLen);
+    this.process(in, out, len / Block.SIZE, true);
+    
+    if (rem != 0) {
+      long block = 0;
+      
+      for (int i=0; i < rem; i++) {
+        block = (block << 8) | (in.get() & 0xff);
+      }
+      
+      putLong(out, this.packed.encrypt(pad(block, rem)));
+    }
+    
+    CipherMetrics.getInstance().processed(true, outLen / Block.SIZE, start);
+    
+    return outLen;
+  }
+  
+  /**
+   * Decrypts the remaining bytes of the input buffer into the output buffer,
+   * advancing the position of both.
+   * 
+   * @param in    buffer holding the cipher text; the remaining bytes must be a multiple of 8
+   * @param out   buffer to write the plain text to
+   * @return int  number of plain text bytes written
+   * @throws IllegalArgumentException if the cipher text does not consist of whole blocks
+   * @throws BufferOverflowException  if the output buffer does not have room for the plain text
+   * @throws ReadOnlyBufferException  if the output buffer is read only
+   */
+  public int decrypt(ByteBuffer in, ByteBuffer out) {
+    long start = CipherMetrics.getInstance().start();
+    int len = in.remaining();
+    
+    checkBlocks(len);
+    checkOutput(out, len);
+    this.process(in, out, len / Block.SIZE, false);
+    CipherMetrics.getInstance().processed(false, len / Block.SIZE, start);
+    
+    return len;
+  }
+  
+  /**
+   * Encrypts / decrypts the given number of whole blocks from the input buffer
+   * into the output buffer, 64 at a time.
+   * 
+   * @param in          buffer to read the blocks from
+   * @param out         buffer to write the blocks to
+   * @param numBlocks   number of blocks to process
+   * @param encrypt     true to encrypt the blocks; false to decrypt them
+   */
+  private void process(ByteBuffer in, ByteBuffer out, int numBlocks, boolean encrypt) {
+    BlockEngine engine = this.engine(numBlocks);
+    
+    while (numBlocks > 0) {
+      int count = Math.min(numBlocks, this.batch.length);
+      
+      for (int i=0; i < count; i++) {
+        this.batch[i] = getLong(in);
+      }
+      
+      if (encrypt) {
+        engine.encrypt(this.batch, 0, count);
+      } else {
+        engine.decrypt(this.batch, 0, count);
+      }
+      
+      for (int i=0; i < count; i++) {
+        putLong(out, this.batch[i]);
+      }
+      
+      numBlocks -= count;
+    }
+  }
+  
+  /**
+   * Returns the engine best suited to the given number of blocks.
+   * 
+   * @param numBlocks   number of blocks to be processed
+   * @return BlockEngine  engine for processing the blocks
+   */
+  private BlockEngine engine(int numBlocks) {
+    return (numBlocks >= BlockEngines.BITSLICE_THRESHOLD) ? this.bitsliced : this.packed;
+  }
+  
+  /**
+   * Pads the given partial block with spaces.
+   * 
+   * @param bits    bytes of the partial block, packed into the low order bits
+   * @param len     number of bytes in the partial block
+   * @return long   padded block
+   */
+  static long pad(long bits, int len) {
+    for (int i=len; i < Block.SIZE; i++) {
+      bits = (bits << 8) | ' ';
+    }
+    
+    return bits;
+  }
+  
+  /**
+   * Reads the next block from the given buffer, first byte most significant
+   * regardless of the byte order of the buffer.
+   * 
+   * @param buffer  buffer to read from
+   * @return long   packed block
+   */
+  private static long getLong(ByteBuffer buffer) {
+    long block = buffer.getLong();
+    
+    return (buffer.order() == ByteOrder.BIG_ENDIAN) ? block : Long.reverseBytes(block);
+  }
+  
+  /**
+   * Writes the given block to the given buffer, first byte most significant
+   * regardless of the byte order of the buffer.
+   * 
+   * @param buffer  buffer to write to
+   * @param block   packed block
+   */
+  private static void putLong(ByteBuffer buffer, long block) {
+    buffer.putLong((buffer.order() == ByteOrder.BIG_ENDIAN) ? block : Long.reverseBytes(block));
+  }
+  
+  /**
+   * Checks that the given range lies within an array of the given length.
+   * 
+   * @param length  length of the array
+   * @param off     offset of the range
+   * @param len     length of the range
+   */
+  private static void checkRange(int length, int off, int len) {
+    if (off < 0 || len < 0 || off > length - len) {
+      throw new IndexOutOfBoundsException("Range [" + off + ", " + off + " + " + len + ") out of bounds for length " + length);
+    }
+  }
+  
+  /**
+   * Checks that the given number of cipher text bytes consists of whole blocks.
+   * 
+   * @param len   number of cipher text bytes
+   */
+  private static void checkBlocks(int len) {
+    if ((len % Block.SIZE) != 0) {
+      throw new IllegalArgumentException("Cipher text length " + len + " is not a multiple of " + Block.SIZE);
+    }
+  }
+  
+  /**
+   * Checks that the given buffer can be written to and has room for the given
+   * number of bytes.
+   * 
+   * @param out   output buffer
+   * @param len   number of bytes to be written
+   */
+  private static void checkOutput(ByteBuffer out, int len) {
+    if (out.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    
+    if (out.remaining() < len) {
+      throw new BufferOverflowException();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.mjnrand.reviseddes;
+
+import java.security.SecureRandom;
+
+/**
+ * Chaining defines the modes in which successive blocks of a message are
+ * encrypted / decrypted, and provides the functionality of applying a mode to a
+ * run of packed blocks.  The modes are the following:
+ * 
+ *    ECB   each block is encrypted on its own
+ *    CBC   each plain text block is XORed with the previous cipher text block,
+ *          or the initialization vector, before it is encrypted
+ *    CTR   each plain text block is XORed with the encryption of the
+ *          initialization vector plus the number of the block
+ * 
+ * CBC and CTR cipher text begins with the initialization vector.  Every mode
+ * other than CBC encryption can process any run of blocks independently of the
+ * runs before it, given the initialization vector and, for CBC decryption, the
+ * cipher text block preceding the run.
+ * 
+ * @author mark
+ */
+public final class Chaining {
+  /** Electronic codebook mode. */
+  public static final int ECB = 0;
+  
+  /** Cipher block chaining mode. */
+  public static final int CBC = 1;
+  
+  /** Counter mode. */
+  public static final int CTR = 2;
+  
+  /** Names of the modes, indexed by mode. */
+  private static final String[] NAMES = { "ecb", "cbc", "ctr" };
+  
+  private static final SecureRandom RANDOM = new SecureRandom();
+  
+  /**
+   * Returns the mode with the given name, ignoring case.
+   * 
+   * @param name    name of the mode; one of ecb, cbc or ctr
+   * @return int    the mode
+   * @throws IllegalArgumentException if there is no mode with the given name
+   */
+  public static int parse(String name) {
+    for (int i=0; i < NAMES.length; i++) {
+      if (NAMES[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    
+    throw new IllegalArgumentException("Unknown chaining mode: " + name);
+  }
+  
+  /**
+   * Returns the name of the given mode.
+   * 
+   * @param chaining    the mode
+   * @return String     name of the mode
+   */
+  public static String getName(int chaining) {
+    return NAMES[chaining];
+  }
+  
+  /**
+   * Returns a new random initialization vector.
+   * 
+   * @return long   64 bit initialization vector
+   */
+  public static long generateIV() {
+    return RANDOM.nextLong();
+  }
+  
+  /**
+   * Encrypts the given packed blocks in place in CBC mode.
+   * 
+   * @param engine      engine used to encrypt each block
+   * @param blocks      array holding the plain text blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to encrypt
+   * @param chain       cipher text block preceding the run, or the initialization vector
+   * @return long       last cipher text block of the run, to be chained into the next run
+   */
+  public static long encryptCBC(SingleBlockEngine engine, long[] blocks, int off, int numBlocks, long chain) {
+    for (int i=off; i < off + numBlocks; i++) {
+      chain = engine.encrypt(blocks[i] ^ chain);
+      blocks[i] = chain;
+    }
+    
+    return chain;
+  }
+  
+  /**
+   * Decrypts the given packed blocks in place in CBC mode.
+   * 
+   * @param engine      engine used to decrypt the blocks
+   * @param blocks      array holding the cipher text blocks
+   * @param scratch     array of at least numBlocks blocks used to hold the cipher text
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to decrypt
+   * @param chain       cipher text block preceding the run, or the initialization vector
+   */
+  public static void decryptCBC(BlockEngine engine, long[] blocks, long[] scratch, int off, int numBlocks, long chain) {
+    System.arraycopy(blocks, off, scratch, 0, numBlocks);
+    engine.decrypt(blocks, off, numBlocks);
+    
+    for (int i=0; i < numBlocks; i++) {
+      blocks[off + i] ^= chain;
+      chain = scratch[i];
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the given packed blocks in place in CTR mode.  Both
+   * directions are the same operation.
+   * 
+   * @param engine      engine used to encrypt the counter blocks
+   * @param blocks      array holding the blocks
+   * @param scratch     array of at least numBlocks blocks used to hold the counter blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to process
+   * @param counter     initialization vector plus the number of the first block of the run
+   */
+  public static void applyCTR(BlockEngine engine, long[] blocks, long[] scratch, int off, int numBlocks, long counter) {
+    for (int i=0; i < numBlocks; i++) {
+      scratch[i] = counter + i;
+    }
+    
+    engine.encrypt(scratch, 0, numBlocks);
+    
+    for (int i=0; i < numBlocks; i++) {
+      blocks[off + i] ^= scratch[i];
+    }
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private Chaining() {}
+}
@@ -0,0 +1,112 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * ChunkBuffers holds the arrays and engines used to process a chunk of
+ * {@link ParallelFileCipher#CHUNK_BLOCKS} blocks.  Each thread has its own,
+ * so the workers of a pool reuse them from one chunk, and one file, to the
+ * next, instead of allocating them for every chunk.  The bit form and the
+ * copy of held cipher text are only allocated by the threads that need them.
+ * 
+ * An engine is kept for the schedules it was last created for, and is only
+ * used for whole chunks, since {@link BlockEngines} may choose another engine
+ * for fewer blocks.
+ * 
+ * @author mark
+ */
+final class ChunkBuffers {
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  private static final ThreadLocal<ChunkBuffers> BUFFERS = ThreadLocal.withInitial(ChunkBuffers::new);
+  
+  final byte[] data = new byte[ParallelFileCipher.CHUNK_BLOCKS * Block.SIZE];
+  final long[] blocks = new long[ParallelFileCipher.CHUNK_BLOCKS];
+  final long[] scratch = new long[ParallelFileCipher.CHUNK_BLOCKS];
+  private byte[] text = null;
+  private byte[] held = null;
+  private KeySchedule[] engineSchedules = new KeySchedule[3];
+  private BlockEngine engine = null;
+  private KeySchedule packedSchedule = null;
+  private PackedBlockEngine packed = null;
+  
+  // Make constructor private so that buffers are only obtained through get().
+  private ChunkBuffers() {}
+  
+  /**
+   * Returns the buffers of the calling thread.
+   * 
+   * @return ChunkBuffers   buffers of the calling thread
+   */
+  static ChunkBuffers get() {
+    return BUFFERS.get();
+  }
+  
+  /**
+   * Returns an array large enough to hold a chunk in bit form.
+   * 
+   * @return byte[]   array of 8 times the bytes of a chunk
+   */
+  byte[] text() {
+    if (this.text == null) {
+      this.text = new byte[this.data.length * BITS];
+    }
+    
+    return this.text;
+  }
+  
+  /**
+   * Returns a second array large enough to hold the bytes of a chunk.
+   * 
+   * @return byte[]   array of the bytes of a chunk
+   */
+  byte[] held() {
+    if (this.held == null) {
+      this.held = new byte[this.data.length];
+    }
+    
+    return this.held;
+  }
+  
+  /**
+   * Returns the engine for a whole chunk under the given schedules: a
+   * {@link TripleBlockEngine} if three are given, otherwise the engine chosen
+   * by {@link BlockEngines}.
+   * 
+   * @param first     schedule of the first or only stage
+   * @param second    schedule of the second stage; null for a single stage
+   * @param third     schedule of the third stage; null for a single stage
+   * @return BlockEngine  engine for a whole chunk
+   */
+  BlockEngine engine(KeySchedule first, KeySchedule second, KeySchedule third) {
+    if (this.engine == null || this.engineSchedules[0] != first || this.engineSchedules[1] != second ||
+        this.engineSchedules[2] != third) {
+      if (second == null) {
+        this.engine = BlockEngines.create(first, ParallelFileCipher.CHUNK_BLOCKS);
+      } else {
+        this.engine = new TripleBlockEngine(first, second, third);
+      }
+      
+      this.engineSchedules[0] = first;
+      this.engineSchedules[1] = second;
+      this.engineSchedules[2] = third;
+    }
+    
+    return this.engine;
+  }
+  
+  /**
+   * Returns the packed engine for the given schedule, used to chain CBC
+   * encryption one block at a time.
+   * 
+   * @param schedule    schedule of subkeys for the engine
+   * @return PackedBlockEngine  engine for the schedule
+   */
+  PackedBlockEngine packed(KeySchedule schedule) {
+    if (this.packedSchedule != schedule) {
+      this.packed = new PackedBlockEngine(schedule);
+      this.packedSchedule = schedule;
+    }
+    
+    return this.packed;
+  }
+}
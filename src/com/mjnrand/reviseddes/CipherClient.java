@@ -0,0 +1,136 @@
+package com.mjnrand.reviseddes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/**
+ * CipherClient sends encryption / decryption jobs to a {@link CipherDaemon}
+ * over its Unix domain socket.  A client holds a single connection, over
+ * which any number of jobs may be sent one after another.
+ * 
+ * @author mark
+ */
+final class CipherClient implements AutoCloseable {
+  private final SocketChannel channel;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  
+  /**
+   * Connects to the daemon listening on the given socket file.
+   * 
+   * @param socket    path of the Unix domain socket the daemon listens on
+   * @throws IOException  if no daemon is listening on the socket
+   */
+  CipherClient(String socket) throws IOException {
+    this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    
+    try {
+      this.channel.connect(UnixDomainSocketAddress.of(socket));
+    } catch (IOException ioe) {
+      this.channel.close();
+      throw ioe;
+    }
+    
+    this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+    this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+  }
+  
+  /**
+   * Has the daemon encrypt / decrypt the whole of the input file into the
+   * output file.  Relative names are resolved against the working directory of
+   * the client.
+   * 
+   * @param encrypt     true to encrypt the input file; false to decrypt it
+   * @param inputFile   name of the file to encrypt / decrypt
+   * @param outputFile  name of the file in which to output the result
+   * @param key         8 character (64 bit) ASCII string
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   * @throws IOException  if the connection failed, or the daemon could not process the files
+   */
+  void process(boolean encrypt, String inputFile, String outputFile, String key,
+               boolean byteStream, int chaining) throws IOException {
+    this.writeHeader(encrypt, CipherDaemon.FILE_JOB, key, byteStream, chaining);
+    this.out.writeUTF(Paths.get(inputFile).toAbsolutePath().toString());
+    this.out.writeUTF(Paths.get(outputFile).toAbsolutePath().toString());
+    this.out.flush();
+    
+    this.readStatus();
+  }
+  
+  /**
+   * Has the daemon encrypt / decrypt the given payload in ECB mode.
+   * 
+   * @param encrypt     true to encrypt the payload; false to decrypt it
+   * @param payload     plain text or cipher text
+   * @param key         8 character (64 bit) ASCII string
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @return byte[]     cipher text or plain text
+   * @throws IOException  if the connection failed, or the daemon could not process the payload
+   */
+  byte[] process(boolean encrypt, byte[] payload, String key, boolean byteStream) throws IOException {
+    if (payload.length > CipherDaemon.MAX_PAYLOAD) {
+      throw new IOException("Inline payload of " + payload.length + " bytes is too large");
+    }
+    
+    this.writeHeader(encrypt, CipherDaemon.INLINE_JOB, key, byteStream, Chaining.ECB);
+    this.out.writeInt(payload.length);
+    this.out.write(payload);
+    this.out.flush();
+    
+    this.readStatus();
+    
+    byte[] result = new byte[this.in.readInt()];
+    
+    this.in.readFully(result);
+    
+    return result;
+  }
+  
+  /**
+   * Closes the connection to the daemon.
+   * 
+   * @throws IOException  if the connection could not be closed
+   */
+  public void close() throws IOException {
+    this.channel.close();
+  }
+  
+  /**
+   * Writes the fields common to every request.
+   * 
+   * @param encrypt     true to encrypt the input; false to decrypt it
+   * @param form        either FILE_JOB or INLINE_JOB
+   * @param key         8 character (64 bit) ASCII string
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   * @throws IOException  if the request could not be written
+   */
+  private void writeHeader(boolean encrypt, byte form, String key, boolean byteStream, int chaining) throws IOException {
+    this.out.writeByte((encrypt) ? CipherDaemon.OP_ENCRYPT : CipherDaemon.OP_DECRYPT);
+    this.out.writeByte(form);
+    this.out.writeUTF(key);
+    this.out.writeBoolean(byteStream);
+    this.out.writeInt(chaining);
+  }
+  
+  /**
+   * Reads the status of a response, throwing the message of the daemon if the
+   * request failed.
+   * 
+   * @throws IOException  if the connection failed, or the request failed
+   */
+  private void readStatus() throws IOException {
+    if (this.in.readByte() != CipherDaemon.STATUS_OK) {
+      throw new IOException(this.in.readUTF());
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package com.mjnrand.reviseddes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * CipherDaemon is a long running server that encrypts / decrypts files and
+ * inline payloads on behalf of clients connecting over a local Unix domain
+ * socket, so that a job does not pay for starting a JVM and warming up the
+ * engines.  Schedules are kept in the shared {@link KeyScheduleCache} across
+ * jobs.  Each connection is served on its own virtual thread when the runtime
+ * provides them, and on a thread of a cached pool otherwise.
+ * 
+ * A connection carries any number of requests, each answered before the next
+ * is read.  A request is made up of:
+ * 
+ * <pre>
+ *   byte     OP_ENCRYPT or OP_DECRYPT
+ *   byte     FILE_JOB or INLINE_JOB
+ *   UTF      8 character key
+ *   boolean  true if the cipher text is a stream of bytes; false if it is a stream of bits
+ *   int      chaining mode, as defined by {@link Chaining}
+ *   FILE_JOB:    UTF input path, UTF output path
+ *   INLINE_JOB:  int length, followed by the payload
+ * </pre>
+ * 
+ * and is answered by STATUS_OK, followed by the length and the result for an
+ * inline job, or by STATUS_ERROR followed by a UTF message.  Inline jobs are
+ * processed in ECB mode only.
+ * 
+ * @author mark
+ */
+final class CipherDaemon {
+  /** Request to encrypt the input. */
+  static final byte OP_ENCRYPT = 0;
+  
+  /** Request to decrypt the input. */
+  static final byte OP_DECRYPT = 1;
+  
+  /** Request naming an input file and output file visible to the daemon. */
+  static final byte FILE_JOB = 0;
+  
+  /** Request carrying the input, and answered with the output. */
+  static final byte INLINE_JOB = 1;
+  
+  /** Response to a request that succeeded. */
+  static final byte STATUS_OK = 0;
+  
+  /** Response to a request that failed. */
+  static final byte STATUS_ERROR = 1;
+  
+  /** Largest inline payload accepted. */
+  static final int MAX_PAYLOAD = 1 << 26;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  private final Path socket;
+  private final ExecutorService executor;
+  
+  /**
+   * Constructs a new daemon listening on the given socket file.
+   * 
+   * @param socket    path of the Unix domain socket to listen on
+   */
+  CipherDaemon(String socket) {
+    this.socket = Paths.get(socket);
+    this.executor = newExecutor();
+  }
+  
+  /**
+   * Binds the socket and serves connections until the process is stopped.  A
+   * socket file left behind by a daemon that is no longer running is
+   * replaced; the socket file is removed when the process exits.
+   * 
+   * @throws IOException  if another daemon is listening on the socket, or it could not be bound
+   */
+  void serve() throws IOException {
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(this.socket);
+    
+    if (Files.exists(this.socket)) {
+      if (isListening(address)) {
+        throw new IOException("A daemon is already listening on " + this.socket);
+      }
+      
+      Files.delete(this.socket);
+    }
+    
+    ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    
+    server.bind(address);
+    
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      public void run() {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException ioe) {
+          System.out.println("[ERROR]  Unable to remove socket file.");
+        }
+      }
+    }));
+    
+    while (true) {
+      final SocketChannel connection = server.accept();
+      
+      this.executor.execute(new Runnable() {
+        public void run() {
+          serve(connection);
+        }
+      });
+    }
+  }
+  
+  /**
+   * Answers every request sent over a connection until the client closes it.
+   * 
+   * @param connection    connection to a client
+   */
+  private void serve(SocketChannel connection) {
+    try (SocketChannel channel = connection) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      
+      while (true) {
+        int op = in.read();
+        
+        if (op == -1) {
+          return;
+        }
+        
+        this.answer(op, in, out);
+        out.flush();
+      }
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  Connection to client failed: " + ioe.getMessage());
+    }
+  }
+  
+  /**
+   * Reads the rest of a single request, processes it and writes the response.
+   * 
+   * @param op    operation of the request, which has already been read
+   * @param in    stream to read the request from
+   * @param out   stream to write the response to
+   * @throws IOException  if the connection failed, or the request is malformed
+   */
+  private void answer(int op, DataInputStream in, DataOutputStream out) throws IOException {
+    int form = in.readByte();
+    String keyString = in.readUTF();
+    boolean byteStream = in.readBoolean();
+    int chaining = in.readInt();
+    boolean encrypt = (op == OP_ENCRYPT);
+    
+    if ((op != OP_ENCRYPT && op != OP_DECRYPT) || (form != FILE_JOB && form != INLINE_JOB)) {
+      throw new IOException("Malformed request");
+    }
+    
+    if (form == FILE_JOB) {
+      String input = in.readUTF();
+      String output = in.readUTF();
+      
+      try {
+        Key key = newKey(keyString);
+        
+        if (chaining != Chaining.ECB && chaining != Chaining.CBC && chaining != Chaining.CTR) {
+          throw new IllegalArgumentException("Unknown chaining mode " + chaining);
+        }
+        
+        ParallelFileCipher.process(Paths.get(input), Paths.get(output), key, encrypt, byteStream,
+                                   chaining, ForkJoinPool.commonPool());
+        out.writeByte(STATUS_OK);
+      } catch (IOException | IllegalArgumentException e) {
+        error(out, e);
+      }
+      
+      return;
+    }
+    
+    int length = in.readInt();
+    
+    if (length < 0 || length > MAX_PAYLOAD) {
+      throw new IOException("Inline payload of " + length + " bytes is not allowed");
+    }
+    
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long start = metrics.start();
+    byte[] payload = new byte[length];
+    
+    in.readFully(payload);
+    metrics.read(length, start);
+    
+    try {
+      if (chaining != Chaining.ECB) {
+        throw new IllegalArgumentException("Inline jobs must use ecb");
+      }
+      
+      byte[] result = process(newKey(keyString), encrypt, byteStream, payload);
+      
+      long write = metrics.start();
+      
+      out.writeByte(STATUS_OK);
+      out.writeInt(result.length);
+      out.write(result);
+      metrics.written(result.length, write);
+      metrics.completed(encrypt, start);
+    } catch (IOException | IllegalArgumentException e) {
+      error(out, e);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts an inline payload.
+   * 
+   * @param key         key to be used for encrypting / decrypting the payload
+   * @param encrypt     true to encrypt the payload; false to decrypt it
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param payload     plain text or cipher text
+   * @return byte[]     cipher text or plain text
+   * @throws IOException  if the cipher text is not valid
+   */
+  static byte[] process(Key key, boolean encrypt, boolean byteStream, byte[] payload) throws IOException {
+    BufferCipher cipher = new BufferCipher(key);
+    
+    if (encrypt) {
+      byte[] cipherText = new byte[BufferCipher.getEncryptedLength(payload.length)];
+      
+      cipher.encrypt(payload, 0, payload.length, cipherText, 0);
+      
+      if (byteStream) {
+        return cipherText;
+      }
+      
+      byte[] text = new byte[cipherText.length * BITS];
+      
+      CipherTextOutputStream.encode(cipherText, 0, text, 0, cipherText.length);
+      
+      return text;
+    }
+    
+    byte[] cipherText = payload;
+    
+    if (!byteStream) {
+      cipherText = new byte[payload.length / BITS];
+      CipherTextInputStream.decode(payload, 0, cipherText, 0, cipherText.length);
+    }
+    
+    byte[] plainText = new byte[cipherText.length];
+    
+    cipher.decrypt(cipherText, 0, cipherText.length, plainText, 0);
+    
+    return plainText;
+  }
+  
+  /**
+   * Returns the key with the given 8 character string, with its schedule
+   * taken from the shared cache.
+   * 
+   * @param key   8 character (64 bit) ASCII string
+   * @return Key  key with its subkeys generated
+   */
+  private static Key newKey(String key) {
+    if (key.length() != 8) {
+      throw new IllegalArgumentException("The key must be an 8 character string");
+    }
+    
+    Key k = new Key(key.getBytes());
+    k.generateSubKeys();
+    
+    return k;
+  }
+  
+  /**
+   * Writes an error response.
+   * 
+   * @param out   stream to write the response to
+   * @param e     cause of the error
+   * @throws IOException  if the response could not be written
+   */
+  private static void error(DataOutputStream out, Exception e) throws IOException {
+    out.writeByte(STATUS_ERROR);
+    out.writeUTF(String.valueOf(e.getMessage()));
+  }
+  
+  /**
+   * Returns true if a daemon is accepting connections on the given address.
+   * 
+   * @param address   address of the socket
+   * @return boolean  true if a connection could be made
+   */
+  private static boolean isListening(UnixDomainSocketAddress address) {
+    try {
+      SocketChannel.open(address).close();
+      
+      return true;
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+  
+  /**
+   * Returns an executor starting a virtual thread for each task when the
+   * runtime provides them, and reusing the threads of a cached pool otherwise.
+   * 
+   * @return ExecutorService  executor to serve connections on
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
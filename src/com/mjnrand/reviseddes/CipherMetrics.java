@@ -0,0 +1,384 @@
+package com.mjnrand.reviseddes;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * CipherMetrics counts the blocks and bytes processed by the application, the
+ * time spent generating key schedules, reading and writing files, and
+ * encrypting / decrypting blocks, and the latency of each file operation and
+ * inline daemon job.  Metrics are recorded once per chunk, segment, file or
+ * call of an in-memory cipher rather than once per block, into striped
+ * counters, so that recording them does not slow down the engines; while
+ * metrics are disabled, which is the default, nothing is timed at all.
+ * 
+ * The shared instance can be registered as an MBean, and can print its
+ * values periodically.
+ * 
+ * @author mark
+ */
+public final class CipherMetrics implements CipherMetricsMBean {
+  /** Name the shared instance is registered under. */
+  public static final String OBJECT_NAME = "com.mjnrand.reviseddes:type=CipherMetrics";
+  
+  private static final CipherMetrics INSTANCE = new CipherMetrics();
+  
+  private volatile boolean enabled = false;
+  private ScheduledExecutorService logger = null;
+  
+  private final LongAdder blocksEncrypted = new LongAdder();
+  private final LongAdder blocksDecrypted = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder keySchedules = new LongAdder();
+  private final LongAdder keyScheduleNanos = new LongAdder();
+  private final LongAdder ioNanos = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+  private final LatencyHistogram encryptLatency = new LatencyHistogram();
+  private final LatencyHistogram decryptLatency = new LatencyHistogram();
+  
+  /**
+   * Constructs a new, disabled set of metrics.
+   */
+  private CipherMetrics() {}
+  
+  /**
+   * Returns the metrics shared by the whole application.
+   * 
+   * @return CipherMetrics  shared metrics
+   */
+  public static CipherMetrics getInstance() {
+    return INSTANCE;
+  }
+  
+  /**
+   * Registers the shared metrics with the platform MBean server under
+   * {@link #OBJECT_NAME}, unless they are already registered.
+   * 
+   * @throws IllegalStateException  if the MBean could not be registered
+   */
+  public static synchronized void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    } catch (JMException jme) {
+      throw new IllegalStateException("Unable to register metrics", jme);
+    }
+  }
+  
+  /**
+   * Prints a line holding the values of the metrics to the console at the
+   * given period, replacing any earlier period.
+   * 
+   * @param seconds   number of seconds between lines
+   */
+  public synchronized void startLogging(long seconds) {
+    this.stopLogging();
+    
+    this.logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "RevisedDES-metrics");
+        
+        thread.setDaemon(true);
+        
+        return thread;
+      }
+    });
+    
+    this.logger.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        System.out.println(CipherMetrics.this);
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Stops printing the values of the metrics.
+   */
+  public synchronized void stopLogging() {
+    if (this.logger != null) {
+      this.logger.shutdownNow();
+      this.logger = null;
+    }
+  }
+  
+  /**
+   * Returns the current time if metrics are enabled, to be passed to one of
+   * the methods recording a time.
+   * 
+   * @return long   current value of {@link System#nanoTime()}, or 0 if metrics are disabled
+   */
+  long start() {
+    return (this.enabled) ? System.nanoTime() : 0;
+  }
+  
+  /**
+   * Records bytes read from a file.
+   * 
+   * @param bytes   number of bytes read
+   * @param start   time the read started, as returned by {@link #start()}
+   */
+  void read(long bytes, long start) {
+    if (start != 0) {
+      this.bytesRead.add(bytes);
+      this.ioNanos.add(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * Records bytes written to a file.
+   * 
+   * @param bytes   number of bytes written
+   * @param start   time the write started, as returned by {@link #start()}
+   */
+  void written(long bytes, long start) {
+    if (start != 0) {
+      this.bytesWritten.add(bytes);
+      this.ioNanos.add(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * Records blocks encrypted / decrypted along with the bytes read and written
+   * for them, where the time spent on input / output cannot be told apart from
+   * the time spent processing the blocks, such as through memory mapped
+   * regions or buffered streams.
+   * 
+   * @param encrypt   true if the blocks were encrypted; false if they were decrypted
+   * @param blocks    number of blocks
+   * @param read      number of bytes read
+   * @param written   number of bytes written
+   * @param start     time the blocks started to be processed, as returned by {@link #start()}
+   */
+  void transferred(boolean encrypt, long blocks, long read, long written, long start) {
+    if (start != 0) {
+      ((encrypt) ? this.blocksEncrypted : this.blocksDecrypted).add(blocks);
+      this.bytesRead.add(read);
+      this.bytesWritten.add(written);
+    }
+  }
+  
+  /**
+   * Records blocks encrypted / decrypted.
+   * 
+   * @param encrypt   true if the blocks were encrypted; false if they were decrypted
+   * @param blocks    number of blocks
+   * @param start     time the blocks started to be processed, as returned by {@link #start()}
+   */
+  void processed(boolean encrypt, long blocks, long start) {
+    if (start != 0) {
+      ((encrypt) ? this.blocksEncrypted : this.blocksDecrypted).add(blocks);
+      this.cpuNanos.add(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * Records a key schedule being generated.
+   * 
+   * @param start   time generation of the schedule started, as returned by {@link #start()}
+   */
+  void scheduled(long start) {
+    if (start != 0) {
+      this.keySchedules.increment();
+      this.keyScheduleNanos.add(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * Records a whole file being encrypted / decrypted.
+   * 
+   * @param encrypt   true if the file was encrypted; false if it was decrypted
+   * @param start     time the operation started, as returned by {@link #start()}
+   */
+  void completed(boolean encrypt, long start) {
+    if (start != 0) {
+      ((encrypt) ? this.encryptLatency : this.decryptLatency).record(System.nanoTime() - start);
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#isEnabled()
+   */
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#setEnabled(boolean)
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getBlocksEncrypted()
+   */
+  public long getBlocksEncrypted() {
+    return this.blocksEncrypted.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getBlocksDecrypted()
+   */
+  public long getBlocksDecrypted() {
+    return this.blocksDecrypted.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getBytesRead()
+   */
+  public long getBytesRead() {
+    return this.bytesRead.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getBytesWritten()
+   */
+  public long getBytesWritten() {
+    return this.bytesWritten.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getKeySchedules()
+   */
+  public long getKeySchedules() {
+    return this.keySchedules.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getKeyScheduleNanos()
+   */
+  public long getKeyScheduleNanos() {
+    return this.keyScheduleNanos.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getIONanos()
+   */
+  public long getIONanos() {
+    return this.ioNanos.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getCPUNanos()
+   */
+  public long getCPUNanos() {
+    return this.cpuNanos.sum();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getEncryptCount()
+   */
+  public long getEncryptCount() {
+    return this.encryptLatency.getCount();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getEncryptMeanMicros()
+   */
+  public double getEncryptMeanMicros() {
+    return this.encryptLatency.getMeanMicros();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getEncryptP50Micros()
+   */
+  public long getEncryptP50Micros() {
+    return this.encryptLatency.getPercentileMicros(50);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getEncryptP99Micros()
+   */
+  public long getEncryptP99Micros() {
+    return this.encryptLatency.getPercentileMicros(99);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getEncryptMaxMicros()
+   */
+  public long getEncryptMaxMicros() {
+    return this.encryptLatency.getMaxMicros();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getDecryptCount()
+   */
+  public long getDecryptCount() {
+    return this.decryptLatency.getCount();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getDecryptMeanMicros()
+   */
+  public double getDecryptMeanMicros() {
+    return this.decryptLatency.getMeanMicros();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getDecryptP50Micros()
+   */
+  public long getDecryptP50Micros() {
+    return this.decryptLatency.getPercentileMicros(50);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getDecryptP99Micros()
+   */
+  public long getDecryptP99Micros() {
+    return this.decryptLatency.getPercentileMicros(99);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#getDecryptMaxMicros()
+   */
+  public long getDecryptMaxMicros() {
+    return this.decryptLatency.getMaxMicros();
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.CipherMetricsMBean#reset()
+   */
+  public void reset() {
+    this.blocksEncrypted.reset();
+    this.blocksDecrypted.reset();
+    this.bytesRead.reset();
+    this.bytesWritten.reset();
+    this.keySchedules.reset();
+    this.keyScheduleNanos.reset();
+    this.ioNanos.reset();
+    this.cpuNanos.reset();
+    this.encryptLatency.reset();
+    this.decryptLatency.reset();
+  }
+  
+  /**
+   * Returns a single line holding the values of the metrics.
+   * 
+   * @return String   values of the metrics
+   */
+  public String toString() {
+    return String.format("[METRICS]  blocks encrypted=%d decrypted=%d, bytes read=%d written=%d, " +
+                         "key schedules=%d (%.3f ms), io=%.3f ms, cpu=%.3f ms, " +
+                         "encrypt n=%d mean=%.1f p50=%d p99=%d max=%d us, " +
+                         "decrypt n=%d mean=%.1f p50=%d p99=%d max=%d us",
+                         this.getBlocksEncrypted(), this.getBlocksDecrypted(), this.getBytesRead(),
+                         this.getBytesWritten(), this.getKeySchedules(), this.getKeyScheduleNanos() / 1e6,
+                         this.getIONanos() / 1e6, this.getCPUNanos() / 1e6,
+                         this.getEncryptCount(), this.getEncryptMeanMicros(), this.getEncryptP50Micros(),
+                         this.getEncryptP99Micros(), this.getEncryptMaxMicros(),
+                         this.getDecryptCount(), this.getDecryptMeanMicros(), this.getDecryptP50Micros(),
+                         this.getDecryptP99Micros(), this.getDecryptMaxMicros());
+  }
+}
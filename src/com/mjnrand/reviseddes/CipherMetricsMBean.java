@@ -0,0 +1,155 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * CipherMetricsMBean is the management interface through which
+ * {@link CipherMetrics} is exposed over JMX.  Times are reported in
+ * nanoseconds unless their name says otherwise.
+ * 
+ * @author mark
+ */
+public interface CipherMetricsMBean {
+  /**
+   * Returns true if metrics are being recorded.
+   * 
+   * @return boolean  true if metrics are enabled
+   */
+  boolean isEnabled();
+  
+  /**
+   * Enables or disables the recording of metrics.
+   * 
+   * @param enabled   true to record metrics
+   */
+  void setEnabled(boolean enabled);
+  
+  /**
+   * Returns the number of blocks encrypted.
+   * 
+   * @return long   number of blocks
+   */
+  long getBlocksEncrypted();
+  
+  /**
+   * Returns the number of blocks decrypted.
+   * 
+   * @return long   number of blocks
+   */
+  long getBlocksDecrypted();
+  
+  /**
+   * Returns the number of bytes read from input files.
+   * 
+   * @return long   number of bytes
+   */
+  long getBytesRead();
+  
+  /**
+   * Returns the number of bytes written to output files.
+   * 
+   * @return long   number of bytes
+   */
+  long getBytesWritten();
+  
+  /**
+   * Returns the number of key schedules generated.
+   * 
+   * @return long   number of schedules
+   */
+  long getKeySchedules();
+  
+  /**
+   * Returns the time spent generating key schedules.
+   * 
+   * @return long   time in nanoseconds
+   */
+  long getKeyScheduleNanos();
+  
+  /**
+   * Returns the time spent reading and writing files.
+   * 
+   * @return long   time in nanoseconds
+   */
+  long getIONanos();
+  
+  /**
+   * Returns the time spent encrypting / decrypting blocks.
+   * 
+   * @return long   time in nanoseconds
+   */
+  long getCPUNanos();
+  
+  /**
+   * Returns the number of files encrypted.
+   * 
+   * @return long   number of operations
+   */
+  long getEncryptCount();
+  
+  /**
+   * Returns the mean time taken to encrypt a file.
+   * 
+   * @return double   mean latency in microseconds
+   */
+  double getEncryptMeanMicros();
+  
+  /**
+   * Returns the median time taken to encrypt a file.
+   * 
+   * @return long   median latency in microseconds
+   */
+  long getEncryptP50Micros();
+  
+  /**
+   * Returns the 99th percentile of the time taken to encrypt a file.
+   * 
+   * @return long   99th percentile latency in microseconds
+   */
+  long getEncryptP99Micros();
+  
+  /**
+   * Returns the longest time taken to encrypt a file.
+   * 
+   * @return long   largest latency in microseconds
+   */
+  long getEncryptMaxMicros();
+  
+  /**
+   * Returns the number of files decrypted.
+   * 
+   * @return long   number of operations
+   */
+  long getDecryptCount();
+  
+  /**
+   * Returns the mean time taken to decrypt a file.
+   * 
+   * @return double   mean latency in microseconds
+   */
+  double getDecryptMeanMicros();
+  
+  /**
+   * Returns the median time taken to decrypt a file.
+   * 
+   * @return long   median latency in microseconds
+   */
+  long getDecryptP50Micros();
+  
+  /**
+   * Returns the 99th percentile of the time taken to decrypt a file.
+   * 
+   * @return long   99th percentile latency in microseconds
+   */
+  long getDecryptP99Micros();
+  
+  /**
+   * Returns the longest time taken to decrypt a file.
+   * 
+   * @return long   largest latency in microseconds
+   */
+  long getDecryptMaxMicros();
+  
+  /**
+   * Resets every counter and histogram to zero.
+   */
+  void reset();
+}
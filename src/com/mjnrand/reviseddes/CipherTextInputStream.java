@@ -4,16 +4,40 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 /**
  * CipherTextInputStream is an input stream class that reads from a stream of
  * 1's and 0's (usually from a file) and converts a sequence of 8 bits into
  * a byte.
  * 
+ * Characters are read from the underlying stream into a buffer, and each run
+ * of 8 characters is validated and packed into a byte as a single long.
+ * 
  * @author mark
  */
 public class CipherTextInputStream extends InputStream {
+  /** Number of characters held by the buffer. */
+  private static final int BUFFER_SIZE = 8192;
+  
+  /** Eight '0' characters, which leaves the value of each bit once XORed out. */
+  private static final long ZEROS = 0x3030303030303030L;
+  
+  /** Mask selecting every bit of 8 characters that must be clear once ZEROS is XORed out. */
+  private static final long INVALID = 0xfefefefefefefefeL;
+  
+  /** Multiplier gathering the lowest bit of each of 8 bytes into the top byte. */
+  private static final long GATHER = 0x0102040810204080L;
+  
+  /** View of a byte array as big endian longs. */
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+  
   private InputStream is = null;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
   
   /**
    * Construct a CipherTextInputStream using the given input stream.
@@ -42,22 +66,121 @@ public class CipherTextInputStream extends InputStream {
    * @see java.io.InputStream#read()
    */
   public int read() throws IOException {
-    int result = 0;
+    if (this.limit - this.pos < 8 && !this.fill()) {
+      return -1;
+    }
     
-    for (int i=0; i < 8; i++) {
-      int c = this.is.read();
-      
-      if (c == -1) {
-        return c;
+    int result = decode(this.buffer, this.pos);
+    this.pos += 8;
+    
+    return result;
+  }
+  
+  /**
+   * Reads bytes from the cipher text stream until the given number of bytes
+   * have been read or the end of the stream is reached.
+   * 
+   * @see java.io.InputStream#read(byte[], int, int)
+   */
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = 0;
+    
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    }
+    
+    if (len == 0) {
+      return 0;
+    }
+    
+    while (n < len) {
+      if (this.limit - this.pos < 8 && !this.fill()) {
+        break;
       }
       
-      if (c != '1' && c != '0') {
-        throw new IOException("Not a valid ciphertext file");
+      int count = Math.min(len - n, (this.limit - this.pos) / 8);
+      
+      decode(this.buffer, this.pos, b, off + n, count);
+      this.pos += count * 8;
+      n += count;
+    }
+    
+    return (n == 0) ? -1 : n;
+  }
+  
+  /**
+   * @see java.io.InputStream#available()
+   */
+  public int available() throws IOException {
+    return ((this.limit - this.pos) + this.is.available()) / 8;
+  }
+  
+  /**
+   * Closes the underlying stream.
+   * 
+   * @see java.io.InputStream#close()
+   */
+  public void close() throws IOException {
+    this.is.close();
+  }
+  
+  /**
+   * Moves any partial run of characters to the front of the buffer and reads
+   * from the underlying stream until at least 8 characters are buffered.
+   * 
+   * @return boolean  true if 8 characters are buffered; false if the end of the stream was reached first
+   * @throws IOException  if the underlying stream could not be read
+   */
+  private boolean fill() throws IOException {
+    System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit - this.pos);
+    this.limit -= this.pos;
+    this.pos = 0;
+    
+    while (this.limit < 8) {
+      int count = this.is.read(this.buffer, this.limit, this.buffer.length - this.limit);
+      
+      if (count == -1) {
+        return false;
       }
       
-      result |= ((c == '1') ? (int) Math.pow(2, 7 - i) : 0x00);
+      this.limit += count;
     }
     
-    return result;
+    return true;
+  }
+  
+  /**
+   * Decodes the 8 characters starting at the given offset into a byte.
+   * 
+   * @param in    1's and 0's to be decoded
+   * @param off   offset of the first character
+   * @return int  decoded byte
+   * @throws IOException  if a character is neither a 1 nor a 0
+   */
+  private static int decode(byte[] in, int off) throws IOException {
+    long bits = ((long) LONGS.get(in, off)) ^ ZEROS;
+    
+    if ((bits & INVALID) != 0) {
+      throw new IOException("Not a valid ciphertext file");
+    }
+    
+    return (int) ((bits * GATHER) >>> 56);
+  }
+  
+  /**
+   * Decodes the given bit form characters into bytes, reading 8 characters
+   * from the input array for each output byte.
+   * 
+   * @param in      1's and 0's to be decoded
+   * @param inOff   offset of the first character to decode
+   * @param out     array to write the bytes to
+   * @param outOff  offset at which to write the first byte
+   * @param len     number of bytes to decode
+   * @throws IOException  if a character is neither a 1 nor a 0
+   */
+  static void decode(byte[] in, int inOff, byte[] out, int outOff, int len) throws IOException {
+    for (int i=0; i < len; i++) {
+      out[outOff + i] = (byte) decode(in, inOff + (i * 8));
+    }
   }
 }
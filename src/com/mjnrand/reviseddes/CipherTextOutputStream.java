@@ -4,15 +4,45 @@ import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 /**
  * CipherTextOutputStream is an output stream that writes a single byte in it's
  * bit form (as a sequence of 1's and 0's).
  * 
+ * Bytes are encoded through a table holding the 8 characters of every byte
+ * value packed into a long, and the characters are collected in a buffer that
+ * is written to the underlying stream when it is full or the stream is flushed.
+ * 
  * @author mark
  */
 public class CipherTextOutputStream extends OutputStream {
+  /** Number of characters held by the buffer. */
+  private static final int BUFFER_SIZE = 8192;
+  
+  /** The 8 characters of each byte value, first character most significant. */
+  private static final long[] ENCODING = new long[256];
+  
+  /** View of a byte array as big endian longs. */
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+  
+  static {
+    for (int b=0; b < 256; b++) {
+      long chars = 0;
+      
+      for (int i=0; i < 8; i++) {
+        chars = (chars << 8) | (((b & (0x80 >>> i)) == 0) ? '0' : '1');
+      }
+      
+      ENCODING[b] = chars;
+    }
+  }
+  
   private OutputStream os = null;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count = 0;
   
   /**
    * Construct an instance of the cipher text output stream using the given output
@@ -41,8 +71,86 @@ public class CipherTextOutputStream extends OutputStream {
    * @see java.io.OutputStream#write(int)
    */
   public void write(int b) throws IOException {
-    for (int i=0; i < 8; i++) {
-      this.os.write(((b & (int) Math.pow(2, 7 - i)) == 0) ? '0' : '1');
+    if (this.count == this.buffer.length) {
+      this.flushBuffer();
+    }
+    
+    LONGS.set(this.buffer, this.count, ENCODING[b & 0xff]);
+    this.count += 8;
+  }
+  
+  /**
+   * Writes the given bytes to the stream as a bit stream (sequence of 1's and 0's).
+   * 
+   * @see java.io.OutputStream#write(byte[], int, int)
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    }
+    
+    while (len > 0) {
+      if (this.count == this.buffer.length) {
+        this.flushBuffer();
+      }
+      
+      int n = Math.min(len, (this.buffer.length - this.count) / 8);
+      
+      encode(b, off, this.buffer, this.count, n);
+      this.count += n * 8;
+      off += n;
+      len -= n;
+    }
+  }
+  
+  /**
+   * Writes any buffered characters and flushes the underlying stream.
+   * 
+   * @see java.io.OutputStream#flush()
+   */
+  public void flush() throws IOException {
+    this.flushBuffer();
+    this.os.flush();
+  }
+  
+  /**
+   * Writes any buffered characters and closes the underlying stream.
+   * 
+   * @see java.io.OutputStream#close()
+   */
+  public void close() throws IOException {
+    try {
+      this.flush();
+    } finally {
+      this.os.close();
+    }
+  }
+  
+  /**
+   * Writes the buffered characters to the underlying stream.
+   * 
+   * @throws IOException  if the characters could not be written
+   */
+  private void flushBuffer() throws IOException {
+    if (this.count > 0) {
+      this.os.write(this.buffer, 0, this.count);
+      this.count = 0;
+    }
+  }
+  
+  /**
+   * Encodes the given bytes in their bit form, writing 8 characters to the
+   * output array for each input byte.
+   * 
+   * @param in      bytes to be encoded
+   * @param inOff   offset of the first byte to encode
+   * @param out     array to write the 1's and 0's to
+   * @param outOff  offset at which to write the first character
+   * @param len     number of bytes to encode
+   */
+  static void encode(byte[] in, int inOff, byte[] out, int outOff, int len) {
+    for (int i=0; i < len; i++) {
+      LONGS.set(out, outOff + (i * 8), ENCODING[in[inOff + i] & 0xff]);
     }
   }
 }
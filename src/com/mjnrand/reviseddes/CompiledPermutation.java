@@ -0,0 +1,65 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * CompiledPermutation is a permutation function that has been compiled into one
+ * lookup table per input byte.  Each table maps the value of its input byte to
+ * the output bits that byte contributes, so that a permutation is performed by
+ * ORing together one lookup per input byte.
+ * 
+ * @author mark
+ */
+public final class CompiledPermutation {
+  private final long[][] tables;
+  private final int width;
+  
+  /**
+   * Compiles the given permutation function for inputs of the given width.
+   * 
+   * @param permutationFunction permutation function to be compiled
+   * @param width         number of input bits; must be a multiple of 8 no greater than 64
+   */
+  public CompiledPermutation(byte[] permutationFunction, int width) {
+    if ((width % 8) != 0 || width <= 0 || width > 64 || permutationFunction.length > 64) {
+      throw new IllegalArgumentException("Permutation cannot be compiled for " + width + " input bits");
+    }
+    
+    this.width = width;
+    this.tables = new long[width / 8][256];
+    
+    for (int i=0; i < this.tables.length; i++) {
+      int shift = width - (8 * (i + 1));
+      
+      for (int v=0; v < 256; v++) {
+        this.tables[i][v] = Permutation.permute((long) v << shift, width, permutationFunction);
+      }
+    }
+  }
+  
+  /**
+   * Performs this permutation on the given bits, which are held in the low order
+   * bits of a long with the first bit most significant.
+   * 
+   * @param bits    bits to be permuted
+   * @return long   permuted bits
+   */
+  public long permute(long bits) {
+    long result = 0;
+    int shift = this.width;
+    
+    for (int i=0; i < this.tables.length; i++) {
+      shift -= 8;
+      result |= this.tables[i][(int) (bits >>> shift) & 0xff];
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Returns the number of input bits this permutation was compiled for.
+   * 
+   * @return int    number of input bits
+   */
+  public int getWidth() {
+    return this.width;
+  }
+}
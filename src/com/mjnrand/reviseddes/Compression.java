@@ -0,0 +1,183 @@
+package com.mjnrand.reviseddes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compression provides the Deflate stage run on plain text before it is
+ * encrypted, and the matching Inflate stage run on plain text once it has been
+ * decrypted.  Nothing outside the cipher text records that it was compressed,
+ * and plain text may begin with any bytes at all, so the Inflate stage is only
+ * run when asked for.  Compressed plain text begins with an 8 byte marker,
+ * encrypted as the first block of the cipher text, which the Inflate stage
+ * requires so that cipher text that was not compressed is rejected rather than
+ * inflated into garbage.  Both stages work on streams through fixed buffers, so
+ * memory use does not depend on the size of the file.
+ * 
+ * The space padding added to the last block follows the end of the Deflate
+ * stream and is ignored when inflating.
+ * 
+ * @author mark
+ */
+public final class Compression {
+  /** First block of compressed plain text: "RDESZIP1". */
+  public static final long MAGIC = 0x524445535a495031L;
+  
+  /** Number of bytes inflated at a time. */
+  private static final int BUFFER_SIZE = 8192;
+  
+  /**
+   * Returns a stream reading the compressed form of the given plain text,
+   * beginning with the marker.
+   * 
+   * @param plainText       stream of plain text to be compressed
+   * @return InputStream    stream of compressed plain text
+   */
+  public static InputStream compress(InputStream plainText) {
+    byte[] marker = new byte[Block.SIZE];
+    
+    Block.unpack(MAGIC, marker, 0);
+    
+    return new SequenceInputStream(new ByteArrayInputStream(marker), new DeflaterInputStream(plainText));
+  }
+  
+  /**
+   * Returns a stream to write decrypted plain text to, which inflates it into
+   * the given stream.  The plain text must begin with the marker, or writing
+   * to or closing the stream fails with a {@link ZipException}.
+   * 
+   * @param plainText       stream to write the plain text to
+   * @return OutputStream   stream to write the decrypted plain text to
+   */
+  public static OutputStream decompress(OutputStream plainText) {
+    return new InflatingOutputStream(plainText);
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private Compression() {}
+  
+  /**
+   * InflatingOutputStream holds back the first block written to it until it
+   * can check the marker, and then inflates everything written to it.
+   */
+  private static final class InflatingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] first = new byte[Block.SIZE];
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final Inflater inflater = new Inflater();
+    private int held = 0;
+    private boolean compressed = false;
+    
+    /**
+     * Constructs a new stream writing to the given stream.
+     * 
+     * @param out   stream to write the plain text to
+     */
+    InflatingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+    
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException {
+      this.write(new byte[] { (byte) b }, 0, 1);
+    }
+    
+    /**
+     * Writes the given bytes, checking the marker once the first block has
+     * been written.
+     * 
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (this.held < Block.SIZE) {
+        int count = Math.min(len, Block.SIZE - this.held);
+        
+        System.arraycopy(b, off, this.first, this.held, count);
+        this.held += count;
+        off += count;
+        len -= count;
+        
+        if (this.held < Block.SIZE) {
+          return;
+        }
+        
+        this.compressed = (Block.pack(this.first, 0) == MAGIC);
+      }
+      
+      if (!this.compressed) {
+        throw new ZipException("Decrypted plain text is not compressed");
+      }
+      
+      if (len > 0 && !this.inflater.finished()) {
+        this.inflate(b, off, len);
+      }
+    }
+    
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException {
+      this.out.flush();
+    }
+    
+    /**
+     * Checks that the compressed stream was complete, and closes the
+     * underlying stream.
+     * 
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException {
+      try {
+        if (!this.compressed) {
+          throw new ZipException("Decrypted plain text is not compressed");
+        } else if (!this.inflater.finished()) {
+          throw new ZipException("Compressed plain text is truncated");
+        }
+      } finally {
+        this.inflater.end();
+        this.out.close();
+      }
+    }
+    
+    /**
+     * Inflates the given compressed bytes into the underlying stream, ignoring
+     * any that follow the end of the Deflate stream.
+     * 
+     * @param b     array holding the compressed bytes
+     * @param off   offset of the first compressed byte
+     * @param len   number of compressed bytes
+     * @throws IOException  if the bytes are not a valid Deflate stream or could not be written
+     */
+    private void inflate(byte[] b, int off, int len) throws IOException {
+      this.inflater.setInput(b, off, len);
+      
+      try {
+        while (!this.inflater.finished()) {
+          int count = this.inflater.inflate(this.buffer);
+          
+          if (count == 0) {
+            if (this.inflater.needsInput() || this.inflater.needsDictionary()) {
+              break;
+            }
+          } else {
+            this.out.write(this.buffer, 0, count);
+          }
+        }
+      } catch (DataFormatException dfe) {
+        ZipException ze = new ZipException("Compressed plain text is corrupt");
+        
+        ze.initCause(dfe);
+        throw ze;
+      }
+    }
+  }
+}
@@ -0,0 +1,534 @@
+package com.mjnrand.reviseddes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+
+/**
+ * ContainerFileCipher encrypts files into, and decrypts them out of, a framed
+ * container which records what the plain stream of cipher text cannot: the
+ * chaining mode, the length of the original file, the key it was encrypted
+ * with and the integrity of each part of the cipher text.  A container is laid
+ * out as follows, all numbers being big endian:
+ * 
+ * <pre>
+ *   header   magic "RDESCONT" (8), version (4), chaining mode (4), chunk size (4),
+ *            number of chunks (4), original length (8), initialization vector (8),
+ *            key check value (4)
+ *   index    for each chunk: offset (8), length (4) and CRC32C (4) of its cipher text
+ *   chunks   cipher text of each chunk, as a stream of bytes
+ * </pre>
+ * 
+ * The key check value is the first half of the encryption of a zero block, so
+ * a container is only resumed or decrypted with the key it was made with.
+ * 
+ * Every chunk but the last holds the same number of plain text bytes, so the
+ * position of each chunk is known before any are written, and chunks are
+ * encrypted / decrypted in parallel on a fork-join pool.  The cipher text of
+ * the chunks together is identical to the byte stream written by
+ * {@link ParallelFileCipher} for the same key, mode and initialization vector,
+ * with the padding of the last block removed on decryption.
+ * 
+ * The index is written as a whole, zeroed, before the chunks, and each entry is
+ * filled in once its chunk has been written.  Checksums can be verified without
+ * the key, and an interrupted encryption can be resumed, skipping the write of
+ * every chunk whose entry is complete and whose checksum still matches.  Such a
+ * chunk is still encrypted again and compared with the cipher text held, so
+ * that a file changed since the container was begun is never mixed into it;
+ * nothing derived from the plain text alone is stored.
+ * 
+ * @author mark
+ */
+final class ContainerFileCipher {
+  /** First 8 bytes of every container: "RDESCONT". */
+  static final long MAGIC = 0x52444553434f4e54L;
+  
+  /** Version of the container format written. */
+  static final int VERSION = 3;
+  
+  /** Number of bytes in the header. */
+  static final int HEADER_SIZE = 44;
+  
+  /** Number of bytes in each entry of the index. */
+  static final int ENTRY_SIZE = 16;
+  
+  /** Number of plain text bytes in each chunk written. */
+  static final int CHUNK_SIZE = ParallelFileCipher.CHUNK_BLOCKS * Block.SIZE;
+  
+  private final FileChannel in;
+  private final FileChannel out;
+  private final FileChannel container;
+  private final KeySchedule schedule;
+  private final boolean encrypt;
+  private final int chaining;
+  private final int chunkSize;
+  private final long chunks;
+  private final long length;
+  private final long iv;
+  
+  /**
+   * Constructs a new container cipher over the given channels.
+   * 
+   * @param in          channel to read the plain text or container from
+   * @param out         channel to write the container or plain text to
+   * @param schedule    schedule of subkeys used to encrypt / decrypt each block; null to verify only
+   * @param encrypt     true to encrypt the input; false to decrypt it
+   * @param chaining    chaining mode of the cipher text
+   * @param chunkSize   number of plain text bytes in each chunk; a multiple of 8
+   * @param length      number of bytes in the original file
+   * @param iv          initialization vector; unused in ECB mode
+   */
+  private ContainerFileCipher(FileChannel in, FileChannel out, KeySchedule schedule, boolean encrypt,
+                              int chaining, int chunkSize, long length, long iv) {
+    this.in = in;
+    this.out = out;
+    this.container = (encrypt) ? out : in;
+    this.schedule = schedule;
+    this.encrypt = encrypt;
+    this.chaining = chaining;
+    this.chunkSize = chunkSize;
+    this.chunks = (length + chunkSize - 1) / chunkSize;
+    this.length = length;
+    this.iv = iv;
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into a container written to the
+   * output channel.  When resuming, the output channel must hold the container
+   * of an interrupted encryption of the same file with the same key, and only
+   * the chunks it does not already hold intact are written.  The resume is
+   * rejected if the key differs, or if any chunk held intact does not match the
+   * encryption of the plain text now in the file.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the container to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   * @param resume      true to resume the encryption held by the output channel
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the plain text could not be read, the container written, or the
+   *                      container being resumed does not match the file
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule, int chaining,
+                      boolean resume, ForkJoinPool pool) throws IOException {
+    ContainerFileCipher cipher = null;
+    
+    if (resume && out.size() > 0) {
+      cipher = readHeader(in, out, schedule, true);
+      
+      if (cipher.chaining != chaining || cipher.length != in.size()) {
+        throw new IOException("Container being resumed does not match the file being encrypted");
+      }
+    } else {
+      long iv = (chaining == Chaining.ECB) ? 0 : Chaining.generateIV();
+      
+      cipher = new ContainerFileCipher(in, out, schedule, true, chaining, CHUNK_SIZE, in.size(), iv);
+      out.truncate(0);
+      cipher.writeHeader();
+    }
+    
+    cipher.run(pool);
+  }
+  
+  /**
+   * Decrypts the container held by the input channel into the output channel,
+   * checking the checksum of each chunk before it is decrypted.  The plain text
+   * written is exactly as long as the original file.
+   * 
+   * @param in          channel to read the container from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the container is not valid, was made with another key, is incomplete,
+   *                      fails a checksum or could not be read, or the plain text could not be written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule, ForkJoinPool pool) throws IOException {
+    readHeader(in, out, schedule, false).run(pool);
+  }
+  
+  /**
+   * Checks the checksum of every chunk of the container held by the given
+   * channel, without decrypting it.
+   * 
+   * @param in          channel to read the container from
+   * @return List       numbers of the chunks that are missing or fail their checksum
+   * @throws IOException  if the container is not valid or could not be read
+   */
+  static List<Long> verify(FileChannel in) throws IOException {
+    ContainerFileCipher cipher = readHeader(in, null, null, false);
+    List<Long> failed = new ArrayList<Long>();
+    
+    for (long chunk=0; chunk < cipher.chunks; chunk++) {
+      int len = cipher.chunkBlocks(chunk) * Block.SIZE;
+      
+      if (!cipher.isIntact(chunk, new byte[len], len)) {
+        failed.add(Long.valueOf(chunk));
+      }
+    }
+    
+    return failed;
+  }
+  
+  /**
+   * Reads the header of the container held by the given channel.
+   * 
+   * @param in          channel to read the plain text or container from
+   * @param out         channel to write the container or plain text to
+   * @param schedule    schedule of subkeys used to encrypt / decrypt each block
+   * @param encrypt     true if the container is being written; false if it is being read
+   * @return ContainerFileCipher  cipher for the container
+   * @throws IOException  if the header could not be read, is not that of a container or does not
+   *                      match the given schedule
+   */
+  private static ContainerFileCipher readHeader(FileChannel in, FileChannel out, KeySchedule schedule,
+                                                boolean encrypt) throws IOException {
+    FileChannel container = (encrypt) ? out : in;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    
+    if (container.size() < HEADER_SIZE) {
+      throw new IOException("Not a Revised DES container");
+    }
+    
+    read(container, header, 0);
+    
+    if (header.getLong(0) != MAGIC) {
+      throw new IOException("Not a Revised DES container");
+    }
+    
+    int version = header.getInt(8);
+    int chaining = header.getInt(12);
+    int chunkSize = header.getInt(16);
+    int chunks = header.getInt(20);
+    long length = header.getLong(24);
+    long iv = header.getLong(32);
+    int keyCheck = header.getInt(40);
+    
+    if (version != VERSION) {
+      throw new IOException("Unsupported container version " + version);
+    }
+    
+    if (chaining < Chaining.ECB || chaining > Chaining.CTR || chunkSize != CHUNK_SIZE ||
+        length < 0 || chunks != (length + chunkSize - 1) / chunkSize) {
+      throw new IOException("Corrupt container header");
+    }
+    
+    if (schedule != null && keyCheck != keyCheck(schedule)) {
+      throw new IOException("Container was made with a different key");
+    }
+    
+    return new ContainerFileCipher(in, out, schedule, encrypt, chaining, chunkSize, length, iv);
+  }
+  
+  /**
+   * Writes the header and a zeroed index to the start of the container.
+   * 
+   * @throws IOException  if the header could not be written
+   */
+  private void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (int) (this.chunks * ENTRY_SIZE));
+    
+    header.putLong(MAGIC).putInt(VERSION).putInt(this.chaining).putInt(this.chunkSize).
+           putInt((int) this.chunks).putLong(this.length).putLong(this.iv).putInt(keyCheck(this.schedule));
+    header.rewind();
+    write(this.container, header, 0);
+  }
+  
+  /**
+   * Processes every chunk, on the given pool unless the chunks must be
+   * chained in order.
+   * 
+   * @param pool    pool to run the chunks on
+   * @throws IOException  if any chunk could not be processed
+   */
+  private void run(ForkJoinPool pool) throws IOException {
+    if (this.encrypt && this.chaining == Chaining.CBC) {
+      ChunkBuffers buffers = ChunkBuffers.get();
+      long chain = this.iv;
+      
+      for (long chunk=0; chunk < this.chunks; chunk++) {
+        chain = this.processChunk(chunk, chain, buffers);
+      }
+      
+      return;
+    }
+    
+    try {
+      pool.invoke(new ChunkTask(0, this.chunks));
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the given chunk.  When encrypting, a chunk the
+   * container already holds intact is compared with the new cipher text and
+   * left as it is.
+   * 
+   * @param chunk     number of the chunk
+   * @param chain     cipher text block preceding the chunk when CBC encrypting
+   * @param buffers   buffers of the calling thread
+   * @return long     last cipher text block of the chunk when CBC encrypting
+   * @throws IOException  if the chunk could not be read, written, failed its checksum or does not
+   *                      match the chunk held intact
+   */
+  private long processChunk(long chunk, long chain, ChunkBuffers buffers) throws IOException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    int numBlocks = this.chunkBlocks(chunk);
+    int len = numBlocks * Block.SIZE;
+    long offset = chunk * this.chunkSize;
+    long firstBlock = offset / Block.SIZE;
+    byte[] data = buffers.data;
+    long[] blocks = buffers.blocks;
+    boolean intact = false;
+    long start = metrics.start();
+    
+    if (this.encrypt) {
+      int count = (int) Math.min(len, this.length - offset);
+      
+      intact = this.isIntact(chunk, buffers.held(), len);
+      read(this.in, ByteBuffer.wrap(data, 0, count), offset);
+      Arrays.fill(data, count, len, (byte) ' ');
+      metrics.read(count, start);
+    } else {
+      if (!this.isIntact(chunk, data, len)) {
+        throw new IOException("Chunk " + chunk + " of the container is incomplete or fails its checksum");
+      }
+      
+      metrics.read(len, start);
+      
+      if (this.chaining == Chaining.CBC) {
+        chain = (chunk == 0) ? this.iv : this.readBlock(this.chunkPosition(chunk) - Block.SIZE);
+      }
+    }
+    
+    start = metrics.start();
+    
+    for (int i=0; i < numBlocks; i++) {
+      blocks[i] = Block.pack(data, i * Block.SIZE);
+    }
+    
+    BlockEngine engine = (numBlocks == ParallelFileCipher.CHUNK_BLOCKS) ? buffers.engine(this.schedule, null, null) :
+                         BlockEngines.create(this.schedule, numBlocks);
+    
+    if (this.chaining == Chaining.CTR) {
+      Chaining.applyCTR(engine, blocks, buffers.scratch, 0, numBlocks, this.iv + firstBlock);
+    } else if (this.chaining == Chaining.CBC && this.encrypt) {
+      chain = Chaining.encryptCBC(buffers.packed(this.schedule), blocks, 0, numBlocks, chain);
+    } else if (this.chaining == Chaining.CBC) {
+      Chaining.decryptCBC(engine, blocks, buffers.scratch, 0, numBlocks, chain);
+    } else if (this.encrypt) {
+      engine.encrypt(blocks, 0, numBlocks);
+    } else {
+      engine.decrypt(blocks, 0, numBlocks);
+    }
+    
+    for (int i=0; i < numBlocks; i++) {
+      Block.unpack(blocks[i], data, i * Block.SIZE);
+    }
+    
+    metrics.processed(this.encrypt, numBlocks, start);
+    start = metrics.start();
+    
+    if (intact) {
+      if (!Arrays.equals(data, 0, len, buffers.held(), 0, len)) {
+        throw new IOException("Container being resumed does not match the file being encrypted");
+      }
+    } else if (this.encrypt) {
+      write(this.out, ByteBuffer.wrap(data, 0, len), this.chunkPosition(chunk));
+      this.writeEntry(chunk, len, checksum(data, len));
+      metrics.written(len, start);
+    } else {
+      int count = (int) Math.min(len, this.length - offset);
+      
+      write(this.out, ByteBuffer.wrap(data, 0, count), offset);
+      metrics.written(count, start);
+    }
+    
+    return chain;
+  }
+  
+  /**
+   * Returns the number of blocks in the given chunk.
+   * 
+   * @param chunk   number of the chunk
+   * @return int    number of blocks in the chunk
+   */
+  private int chunkBlocks(long chunk) {
+    long remaining = this.length - (chunk * this.chunkSize);
+    
+    return (int) ((Math.min(remaining, this.chunkSize) + Block.SIZE - 1) / Block.SIZE);
+  }
+  
+  /**
+   * Returns the position of the container holding the cipher text of the
+   * given chunk.
+   * 
+   * @param chunk   number of the chunk
+   * @return long   position of the chunk
+   */
+  private long chunkPosition(long chunk) {
+    return HEADER_SIZE + (this.chunks * ENTRY_SIZE) + (chunk * this.chunkSize);
+  }
+  
+  /**
+   * Reads the cipher text of the given chunk into the given array and returns
+   * true if its entry in the index is complete and its checksum matches.
+   * 
+   * @param chunk     number of the chunk
+   * @param data      array of at least len bytes to read the cipher text into
+   * @param len       number of cipher text bytes in the chunk
+   * @return boolean  true if the chunk is intact
+   * @throws IOException  if the index could not be read
+   */
+  private boolean isIntact(long chunk, byte[] data, int len) throws IOException {
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    
+    read(this.container, entry, HEADER_SIZE + (chunk * ENTRY_SIZE));
+    
+    if (entry.getLong(0) != this.chunkPosition(chunk) || entry.getInt(8) != len ||
+        this.container.size() < this.chunkPosition(chunk) + len) {
+      return false;
+    }
+    
+    read(this.container, ByteBuffer.wrap(data, 0, len), this.chunkPosition(chunk));
+    
+    return checksum(data, len) == entry.getInt(12);
+  }
+  
+  /**
+   * Fills in the entry of the index for the given chunk.
+   * 
+   * @param chunk     number of the chunk
+   * @param len       number of cipher text bytes in the chunk
+   * @param checksum  CRC32C of the cipher text of the chunk
+   * @throws IOException  if the entry could not be written
+   */
+  private void writeEntry(long chunk, int len, int checksum) throws IOException {
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    
+    entry.putLong(this.chunkPosition(chunk)).putInt(len).putInt(checksum);
+    entry.rewind();
+    write(this.container, entry, HEADER_SIZE + (chunk * ENTRY_SIZE));
+  }
+  
+  /**
+   * Reads a single cipher text block from the given position of the container.
+   * 
+   * @param position  position of the block
+   * @return long     packed block
+   * @throws IOException  if the block could not be read
+   */
+  private long readBlock(long position) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(Block.SIZE);
+    
+    read(this.container, block, position);
+    
+    return block.getLong(0);
+  }
+  
+  /**
+   * Returns the key check value of the given schedule: the first half of the
+   * encryption of a zero block.
+   * 
+   * @param schedule    schedule of subkeys
+   * @return int        key check value
+   */
+  private static int keyCheck(KeySchedule schedule) {
+    return (int) (new PackedBlockEngine(schedule).encrypt(0L) >>> 32);
+  }
+  
+  /**
+   * Returns the CRC32C of the given number of bytes of the given array.
+   * 
+   * @param data    array holding the bytes
+   * @param len     number of bytes
+   * @return int    checksum of the bytes
+   */
+  private static int checksum(byte[] data, int len) {
+    CRC32C crc = new CRC32C();
+    
+    crc.update(data, 0, len);
+    
+    return (int) crc.getValue();
+  }
+  
+  /**
+   * Fills the given buffer from the given position of the channel.
+   * 
+   * @param channel   channel to read from
+   * @param buffer    buffer to fill
+   * @param position  position of the channel to start reading from
+   * @throws IOException  if the buffer could not be filled
+   */
+  private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position + buffer.position());
+      
+      if (count == -1) {
+        throw new EOFException("Unexpected end of file");
+      }
+    }
+  }
+  
+  /**
+   * Writes the remaining bytes of the given buffer to the given position of
+   * the channel.
+   * 
+   * @param channel   channel to write to
+   * @param buffer    buffer holding the bytes to be written
+   * @param position  position of the channel to start writing at
+   * @throws IOException  if the bytes could not be written
+   */
+  private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+  
+  /**
+   * ChunkTask processes a range of chunks, splitting it in half until a single
+   * chunk remains.
+   */
+  private class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final long firstChunk;
+    private final long lastChunk;
+    
+    /**
+     * Constructs a task processing the chunks between the given numbers.
+     * 
+     * @param firstChunk  number of the first chunk to process
+     * @param lastChunk   number of the chunk following the last chunk to process
+     */
+    ChunkTask(long firstChunk, long lastChunk) {
+      this.firstChunk = firstChunk;
+      this.lastChunk = lastChunk;
+    }
+    
+    /**
+     * @see java.util.concurrent.RecursiveAction#compute()
+     */
+    protected void compute() {
+      if (this.lastChunk - this.firstChunk > 1) {
+        long middle = (this.firstChunk + this.lastChunk) >>> 1;
+        
+        invokeAll(new ChunkTask(this.firstChunk, middle), new ChunkTask(middle, this.lastChunk));
+      } else if (this.lastChunk > this.firstChunk) {
+        try {
+          processChunk(this.firstChunk, 0, ChunkBuffers.get());
+        } catch (IOException ioe) {
+          throw new UncheckedIOException(ioe);
+        }
+      }
+    }
+  }
+}
@@ -4,12 +4,21 @@ package com.mjnrand.reviseddes;
  * Feistel Round represents a single Feistel Round that is to be executed
  * during the encryption / decryption process of the Revised DES cryptosystem.
  * 
+ * The halves of the block and the subkey are held packed in primitives, so
+ * executing a round creates no objects beyond the array it returns.  A round
+ * may be loaded with another block and subkey and executed into an array
+ * supplied by the caller, so that rounds run one after another create no
+ * objects at all.
+ * 
  * @author mark
  */
 public class FeistelRound {
-  private byte[] left = new byte[4];
-  private byte[] right = new byte[4];
-  private byte[] key = null;
+  /** Mask selecting the 32 bits of an int once widened to a long. */
+  private static final long INT_MASK = 0xffffffffL;
+  
+  private int left = 0;
+  private int right = 0;
+  private long key = 0;
   
   /**
    * Constructs a new Feistel Round with the given block of bits and key
@@ -19,8 +28,18 @@ public class FeistelRound {
    * @param key   subkey to be used during this round
    */
   public FeistelRound(byte[] block, byte[] key) {
+    this.load(block, key);
+  }
+  
+  /**
+   * Replaces the block of bits and key to be used for this round.
+   * 
+   * @param block   block of bits to be encrypted / decrypted
+   * @param key   subkey to be used during this round
+   */
+  public void load(byte[] block, byte[] key) {
     this.split(block);
-    this.key = key;
+    this.key = Block.pack(key, 0, 6);
   }
   
   /**
@@ -30,19 +49,30 @@ public class FeistelRound {
    */
   public byte[] execute() {
     byte[] result = new byte[8];
-    byte[] expanded = null;
-    byte[] substituted = null;
     
-    this.swapRight(result);
+    this.execute(result);
+    
+    return result;
+  }
+  
+  /**
+   * Executes this Feistel Round and writes the resulting bits into the first
+   * 8 bytes of the given array, which may be the block the round was loaded
+   * with.
+   * 
+   * @param result  array to write the encrypted / decrypted bits to
+   */
+  public void execute(byte[] result) {
+    long expanded = 0;
+    int substituted = 0;
+    
     expanded = this.performExpansion();
-    expanded = this.performXOR(expanded, key);
+    expanded = this.performXOR(expanded, this.key);
     substituted = this.performSubstition(expanded);
     substituted = this.performPermutation(substituted);
     this.left = this.performCompliment(this.left);
-    this.left = this.performXOR(substituted, this.left);
-    this.swapLeft(result);
-    
-    return result;
+    this.left = (int) this.performXOR(substituted, this.left);
+    this.swap(result);
   }
   
   /**
@@ -52,80 +82,50 @@ public class FeistelRound {
    * @param block   64 bit stream to be split
    */
   private void split(byte[] block) {
-    for (int i=0; i < 4; i++) {
-      left[i] = block[i];
-      right[i] = block[4 + i];
-    }
-  }
-  
-  /**
-   * Swaps the bits of the right hand side into the left hand side of the given
-   * bit stream.
-   * 
-   * @param bytes   64 bit stream that is to have the right hand bits swapped with the left side
-   */
-  private void swapRight(byte[] bytes) {
-    for (int i=0; i < 4; i++) {
-      bytes[i] = this.right[i];
-    }
+    long bits = Block.pack(block, 0);
+    
+    this.left = (int) (bits >>> 32);
+    this.right = (int) bits;
   }
   
   /**
-   * Swaps the bits of the left hand side into the right hand side of the given bit
-   * stream.
+   * Writes the bits of the right hand side into the left hand side of the given
+   * bit stream, and the bits of the left hand side into its right hand side.
    * 
-   * @param bytes   64 bit stream that is to have the left side bits swapped with the right side
+   * @param bytes   64 bit stream to hold the swapped sides
    */
-  private void swapLeft(byte[] bytes) {
-    for (int i=4; i < 8; i++) {
-      bytes[i] = this.left[i - 4];
-    }
+  private void swap(byte[] bytes) {
+    Block.unpack(((this.right & INT_MASK) << 32) | (this.left & INT_MASK), bytes, 0);
   }
   
   /**
    * Performs the expansion permutation on the right hand side of the original block
    * of bits passed into this Feistel Round.
    * 
-   * @return byte[] permuted bits
+   * @return long   permuted 48 bits
    */
-  private byte[] performExpansion() {
-    return Permutation.permute(this.right, Permutation.EXPANSION_PERMUTATION);
+  private long performExpansion() {
+    return Permutation.COMPILED_EXPANSION_PERMUTATION.permute(this.right & INT_MASK);
   }
   
   /**
    * Performs the S-Box substitution on the given 48 bit stream, and returns the
-   * result.
+   * result.  S-Box <i>i</i> is fed the 6 bit group <i>i</i> - 1 for
+   * 2 &le; <i>i</i> &le; 8, and S-Box 1 is fed the leading bit of the stream in
+   * all 6 positions.
    * 
-   * @param bytes   48 bit stream to be substituted
-   * @return byte[] resulting 32 bit stream
+   * @param bits    48 bit stream to be substituted
+   * @return int    resulting 32 bit stream
    */
-  private byte[] performSubstition(byte[] bytes) {
-    byte[] result = new byte[4];
+  private int performSubstition(long bits) {
+    int result = 0;
     
     for (int i=0; i < 8; i++) {
-      int startByteNum = ((i - 1) * 6) / 8;
-      int endByteNum = ((i * 6) - 1) / 8;
-      int startBitPos = ((i - 1) * 6) % 8;
-      int endBitPos = ((i * 6) - 1) % 8;
-      
-      int row = ((((int) Math.pow(2, (7 - startBitPos)) & bytes[startByteNum]) == 0) ? 0x00 : 0x02) +
-                ((((int) Math.pow(2, (7 - endBitPos)) & bytes[endByteNum]) == 0) ? 0x00 : 0x01);
-                
-      int col = 0;
-      
-      for (int j=3; j >= 0; j--) {
-        if ((startBitPos = (startBitPos + 1) % 8) == 0) {
-          startByteNum++;
-        }
-        
-        col += (((int) Math.pow(2, (7 - startBitPos)) & bytes[startByteNum]) == 0) ? 0 : (int) Math.pow(2, j);
-      }
+      int group = (i == 0) ? (int) -(bits >>> 47) & 0x3f : (int) (bits >>> (48 - (6 * i))) & 0x3f;
+      int row = ((group >>> 4) & 0x02) | (group & 0x01);
+      int col = (group >>> 1) & 0x0f;
       
-      result[i / 2] |= SBox.S_BOXES[i][row][col];
-      
-      if ((i % 2) == 0) {
-        result[i / 2] <<= 4;
-      }     
+      result = (result << 4) | SBox.S_BOXES[i][row][col];
     }
     
     return result;
@@ -134,11 +134,11 @@ public class FeistelRound {
   /**
    * Performs the permutation function on the given 32 bit stream.
    * 
-   * @param bytes   32 bit stream to be permuted
-   * @return byte[] permuted bits
+   * @param bits    32 bit stream to be permuted
+   * @return int    permuted bits
    */
-  private byte[] performPermutation(byte[] bytes) {
-    return Permutation.permute(bytes, Permutation.PERMUTATION_FUNCTION);
+  private int performPermutation(int bits) {
+    return (int) Permutation.COMPILED_PERMUTATION_FUNCTION.permute(bits & INT_MASK);
   }
   
   /**
@@ -146,31 +146,19 @@ public class FeistelRound {
    * 
    * @param param1  bit stream to be XOR'ed
    * @param param2  bit stream to be XOR'ed
-   * @return byte[] XOR'ed bits
+   * @return long   XOR'ed bits
    */
-  private byte[] performXOR(byte[] param1, byte[] param2) {
-    byte[] result = new byte[param1.length];
-    
-    for (int i=0; i < param1.length; i++) {
-      result[i] = (byte) (param1[i] ^ param2[i]);
-    }
-    
-    return result;
+  private long performXOR(long param1, long param2) {
+    return param1 ^ param2;
   }
   
   /**
    * Returns the bitwise complement of the given bit stream.
    * 
-   * @param bytes   bit stream to be complemented
-   * @return byte[] complemented bits
+   * @param bits    bit stream to be complemented
+   * @return int    complemented bits
    */
-  private byte[] performCompliment(byte[] bytes) {
-    byte[] result = new byte[bytes.length];
-    
-    for (int i=0; i < bytes.length; i++) {
-      result[i] = (byte) (~bytes[i]);
-    }
-    
-    return result;
+  private int performCompliment(int bits) {
+    return ~bits;
   }
 }
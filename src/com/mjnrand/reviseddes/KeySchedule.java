@@ -0,0 +1,84 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * KeySchedule holds the 16 subkeys generated from a 64 bit key, each packed
+ * into the low order 48 bits of a long.  Schedules are immutable, so a single
+ * schedule may be shared by any number of threads.
+ * 
+ * @author mark
+ */
+public final class KeySchedule {
+  /** Mask selecting the 56 bits output by Permuted Choice 1. */
+  private static final long ROTATION_MASK = 0x00ffffffffffffffL;
+  
+  private final long key;
+  private final long[] subkeys = new long[16];
+  
+  /**
+   * Generates the schedule for the given 64 bit key.  The subkeys are identical
+   * to those generated by {@link Key#generateSubKeys()} prior to packing:
+   * only the first 15 subkeys are generated and the last is left empty, each
+   * stage performs a single left shift regardless of the shift schedule, and the
+   * bit shifted out of the left hand 28 bits is ORed into their last bit rather
+   * than replacing the first bit of the right hand 28 bits.
+   * 
+   * @param key   64 bit key
+   */
+  public KeySchedule(long key) {
+    this.key = key;
+    
+    expand(key, this.subkeys, 0);
+  }
+  
+  /**
+   * Generates the 16 subkeys of the given 64 bit key into the given array
+   * starting at the given offset, without creating a schedule.  The last
+   * subkey is cleared, so the array may be reused for other keys.
+   * 
+   * @param key       64 bit key
+   * @param subkeys   array to write the subkeys to
+   * @param off       offset at which to write the first subkey
+   */
+  static void expand(long key, long[] subkeys, int off) {
+    long rotation = Permutation.COMPILED_PERMUTED_CHOICE_1.permute(key);
+    
+    for (int i=0; i < 15; i++) {
+      rotation = rotate(rotation);
+      subkeys[off + i] = Permutation.COMPILED_PERMUTED_CHOICE_2.permute(rotation);
+    }
+    
+    subkeys[off + 15] = 0;
+  }
+  
+  /**
+   * Returns the 64 bit key this schedule was generated from.
+   * 
+   * @return long   64 bit key
+   */
+  public long getKey() {
+    return this.key;
+  }
+  
+  /**
+   * Returns the given packed subkey.
+   * 
+   * @param num   number of the subkey to be returned; must be between 0-15
+   * @return long 48 bit subkey
+   */
+  public long getSubKey(int num) {
+    return this.subkeys[num];
+  }
+  
+  /**
+   * Performs one stage of left shifts on the given 56 bit stream, in the same
+   * way as the key rotation of {@link Key}.
+   * 
+   * @param bits    56 bit stream to be shifted
+   * @return long   shifted bits
+   */
+  static long rotate(long bits) {
+    return ((bits << 1) & ROTATION_MASK)
+         | (((bits >>> 55) & 1L) << 28)
+         | ((bits >>> 27) & 1L);
+  }
+}
@@ -0,0 +1,135 @@
+package com.mjnrand.reviseddes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyScheduleCache is a bounded, thread-safe cache of key schedules keyed by the
+ * 64 bit key they were generated from.  When the cache is full, the least
+ * recently used schedule is evicted.
+ * 
+ * @author mark
+ */
+public final class KeyScheduleCache {
+  /** Number of schedules held by the shared cache. */
+  public static final int DEFAULT_CAPACITY = 64;
+  
+  private static final KeyScheduleCache INSTANCE = new KeyScheduleCache(DEFAULT_CAPACITY);
+  
+  private final int capacity;
+  private final Map<Long, KeySchedule> schedules;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  
+  /**
+   * Constructs a new cache holding at most the given number of schedules.
+   * 
+   * @param capacity    maximum number of schedules to hold; must be positive
+   */
+  public KeyScheduleCache(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    
+    this.capacity = capacity;
+    this.schedules = new LinkedHashMap<Long, KeySchedule>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      
+      protected boolean removeEldestEntry(Map.Entry<Long, KeySchedule> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+  
+  /**
+   * Returns the cache shared by all keys of the application.
+   * 
+   * @return KeyScheduleCache   shared cache
+   */
+  public static KeyScheduleCache getInstance() {
+    return INSTANCE;
+  }
+  
+  /**
+   * Returns the schedule for the given 64 bit key, generating and caching it
+   * if it is not already cached.
+   * 
+   * @param key   64 bit key
+   * @return KeySchedule  schedule for the key
+   */
+  public KeySchedule get(long key) {
+    Long k = Long.valueOf(key);
+    KeySchedule schedule = null;
+    
+    synchronized (this.schedules) {
+      schedule = this.schedules.get(k);
+    }
+    
+    if (schedule != null) {
+      this.hits.incrementAndGet();
+      return schedule;
+    }
+    
+    this.misses.incrementAndGet();
+    
+    long start = CipherMetrics.getInstance().start();
+    
+    schedule = new KeySchedule(key);
+    CipherMetrics.getInstance().scheduled(start);
+    
+    synchronized (this.schedules) {
+      this.schedules.put(k, schedule);
+    }
+    
+    return schedule;
+  }
+  
+  /**
+   * Removes all schedules from the cache.  The hit and miss counters are not
+   * reset.
+   */
+  public void clear() {
+    synchronized (this.schedules) {
+      this.schedules.clear();
+    }
+  }
+  
+  /**
+   * Returns the number of schedules currently held by the cache.
+   * 
+   * @return int    number of cached schedules
+   */
+  public int size() {
+    synchronized (this.schedules) {
+      return this.schedules.size();
+    }
+  }
+  
+  /**
+   * Returns the maximum number of schedules held by the cache.
+   * 
+   * @return int    capacity of the cache
+   */
+  public int getCapacity() {
+    return this.capacity;
+  }
+  
+  /**
+   * Returns the number of lookups that found a cached schedule.
+   * 
+   * @return long   number of hits
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+  
+  /**
+   * Returns the number of lookups that had to generate a schedule.
+   * 
+   * @return long   number of misses
+   */
+  public long getMisses() {
+    return this.misses.get();
+  }
+}
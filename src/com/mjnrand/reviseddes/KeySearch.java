@@ -0,0 +1,572 @@
+package com.mjnrand.reviseddes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeySearch searches a range of 8 character keys drawn from an alphabet for the
+ * key that encrypts a known plain text block into a known cipher text block,
+ * on a thread for each available processor.  It is used to assess how quickly
+ * a reduced key space can be exhausted.
+ * 
+ * Schedules are derived incrementally rather than generated from scratch for
+ * each key.  Permuted Choice 1, the key rotation (whose bug ORs rather than
+ * moves a bit) and Permuted Choice 2 each map the OR of two inputs to the OR
+ * of their outputs, and the 8 characters of a key feed disjoint bits, so every
+ * subkey is the OR of the subkeys generated for each character on its own.
+ * The ORs of the subkeys of the leading characters are kept as keys are
+ * stepped through, and only those following the character that changed are
+ * recomputed, so that most keys cost one OR per subkey.
+ * 
+ * Characters whose bits differ only in bits that never reach a subkey, such as
+ * those dropped by Permuted Choice 1, give identical schedules wherever they
+ * appear in the key, so the alphabet is reduced to one character of each such
+ * class and only one key of each class of equivalent keys is tried.
+ * 
+ * Each key is checked with an early abort.  The last subkey is always empty,
+ * so the last round is undone from the cipher text without a key, which gives
+ * the halves expected after the 15th round and so the right hand side expected
+ * after the 14th.  A key is rejected as soon as the 14th round disagrees, and
+ * the 15th round is only performed for the rare keys that agree.
+ * 
+ * Progress, the rate at which keys are tried and the index below which every
+ * key has been tried are printed as the search runs, and may be saved to a
+ * checkpoint file from which an interrupted search is resumed.
+ * 
+ * @author mark
+ */
+public final class KeySearch {
+  /** The 95 printable ASCII characters, from space to tilde. */
+  public static final String PRINTABLE_ASCII;
+  
+  static {
+    StringBuffer printable = new StringBuffer();
+    
+    for (char c=' '; c <= '~'; c++) {
+      printable.append(c);
+    }
+    
+    PRINTABLE_ASCII = printable.toString();
+  }
+  
+  /** Number of characters in a key. */
+  public static final int KEY_LENGTH = 8;
+  
+  /** Number of keys handed to a thread at a time. */
+  static final long CHUNK_KEYS = 1 << 20;
+  
+  /** Number of milliseconds between progress reports. */
+  private static final long PROGRESS_MILLIS = 10000;
+  
+  /** Number of subkeys generated for a key; the last subkey is always empty. */
+  private static final int SUBKEYS = 15;
+  
+  /** Mask selecting the 32 bits of an int once widened to a long. */
+  private static final long INT_MASK = 0xffffffffL;
+  
+  private final long plainText;
+  private final long cipherText;
+  private final String alphabet;
+  
+  /** Characters of the alphabet, one for each class of equivalent characters. */
+  private final char[] characters;
+  
+  /** Class of each single byte character, or -1 if it is not in the alphabet. */
+  private final int[] classes = new int[256];
+  
+  /** Subkeys generated for each class of character alone at each position of the key. */
+  private final long[][][] subkeys;
+  
+  /** Halves of the plain text block after the initial permutation. */
+  private final int left0;
+  private final int right0;
+  
+  /** Right hand sides expected after the 14th and 15th rounds. */
+  private final int right14;
+  private final int right15;
+  
+  private final AtomicLong nextChunk = new AtomicLong();
+  private final AtomicLong tried = new AtomicLong();
+  private final TreeSet<Long> completed = new TreeSet<Long>();
+  private volatile long found = -1;
+  private volatile boolean stopped = false;
+  private long first;
+  private long last;
+  private long checkpoint;
+  
+  /**
+   * Constructs a new search for the key encrypting the given plain text block
+   * into the given cipher text block.
+   * 
+   * @param plainText   known 64 bit plain text block
+   * @param cipherText  64 bit cipher text block it encrypts to
+   * @param alphabet    characters keys are made of; each must be a single byte
+   */
+  public KeySearch(long plainText, long cipherText, String alphabet) {
+    List<Character> representatives = new ArrayList<Character>();
+    List<long[]> generated = new ArrayList<long[]>();
+    
+    Arrays.fill(this.classes, -1);
+    
+    for (int i=0; i < alphabet.length(); i++) {
+      char c = alphabet.charAt(i);
+      
+      if (c > 0xff) {
+        throw new IllegalArgumentException("Alphabet must consist of single byte characters");
+      }
+      
+      long[] subkeys = new long[KEY_LENGTH * SUBKEYS];
+      int n = 0;
+      
+      for (int p=0; p < KEY_LENGTH; p++) {
+        System.arraycopy(generate(c, p), 0, subkeys, p * SUBKEYS, SUBKEYS);
+      }
+      
+      while (n < generated.size() && !Arrays.equals(subkeys, generated.get(n))) {
+        n++;
+      }
+      
+      if (n == generated.size()) {
+        representatives.add(c);
+        generated.add(subkeys);
+      }
+      
+      this.classes[c] = n;
+    }
+    
+    this.plainText = plainText;
+    this.cipherText = cipherText;
+    this.alphabet = alphabet;
+    this.characters = new char[representatives.size()];
+    this.subkeys = new long[KEY_LENGTH][representatives.size()][];
+    
+    for (int c=0; c < this.characters.length; c++) {
+      this.characters[c] = representatives.get(c);
+      
+      for (int p=0; p < KEY_LENGTH; p++) {
+        this.subkeys[p][c] = generate(this.characters[c], p);
+      }
+    }
+    
+    long block = Permutation.COMPILED_INITIAL_PERMUTATION.permute(plainText);
+    
+    this.left0 = (int) (block >>> 32);
+    this.right0 = (int) block;
+    
+    block = Permutation.COMPILED_INITIAL_PERMUTATION.permute(cipherText);
+    
+    // The halves are swapped after the last round, so the block holds R16 then L16.
+    // Undoing the keyless 16th round, L16 = R15 and R16 = ~L15 ^ f(R15, 0), where L15 = R14.
+    this.right15 = (int) block;
+    this.right14 = ~((int) (block >>> 32) ^ f(this.right15, 0));
+  }
+  
+  /**
+   * Returns the number of keys searched, one of each class of equivalent keys.
+   * 
+   * @return long   size of the key space
+   */
+  public long getSize() {
+    long size = 1;
+    
+    for (int p=0; p < KEY_LENGTH; p++) {
+      size *= this.characters.length;
+    }
+    
+    return size;
+  }
+  
+  /**
+   * Returns the number of characters of the alphabet that give distinct
+   * schedules.
+   * 
+   * @return int    number of classes of equivalent characters
+   */
+  public int getClasses() {
+    return this.characters.length;
+  }
+  
+  /**
+   * Returns the index of the given key in the key space.  Each character is
+   * replaced by the character of its class that is searched.
+   * 
+   * @param key     8 character key made of characters of the alphabet
+   * @return long   index of the key
+   */
+  public long indexOf(String key) {
+    long index = 0;
+    
+    if (key.length() != KEY_LENGTH) {
+      throw new IllegalArgumentException("Key must be 8 characters");
+    }
+    
+    for (int p=0; p < KEY_LENGTH; p++) {
+      char c = key.charAt(p);
+      
+      if (c > 0xff || this.classes[c] < 0) {
+        throw new IllegalArgumentException("Key character not in alphabet: " + c);
+      }
+      
+      index = (index * this.characters.length) + this.classes[c];
+    }
+    
+    return index;
+  }
+  
+  /**
+   * Returns the key searched at the given index of the key space.
+   * 
+   * @param index     index of the key
+   * @return String   8 character key
+   */
+  public String keyAt(long index) {
+    char[] key = new char[KEY_LENGTH];
+    
+    for (int p=KEY_LENGTH - 1; p >= 0; p--) {
+      key[p] = this.characters[(int) (index % this.characters.length)];
+      index /= this.characters.length;
+    }
+    
+    return new String(key);
+  }
+  
+  /**
+   * Searches the keys between the given indexes on the given number of
+   * threads, stopping at the first key found.  If a checkpoint file is given
+   * and holds a checkpoint of a search for the same blocks, alphabet and range,
+   * the search is resumed from it; the checkpoint is rewritten with every
+   * progress report.
+   * 
+   * @param first       index of the first key to try
+   * @param last        index of the last key to try
+   * @param threads     number of threads to search on
+   * @param checkpoint  file to resume from and save progress to, or null
+   * @return String     key found, or null if no key in the range matches
+   * @throws IOException  if the checkpoint file could not be read or written
+   */
+  public String search(long first, long last, int threads, Path checkpoint) throws IOException {
+    this.first = first;
+    this.last = last;
+    this.checkpoint = first;
+    
+    if (checkpoint != null && Files.exists(checkpoint)) {
+      this.checkpoint = this.readCheckpoint(checkpoint);
+      
+      if (this.checkpoint <= last) {
+        System.out.println("[SEARCH]  Resuming from key " + this.keyAt(this.checkpoint) + " (index " + this.checkpoint + ")");
+      }
+    }
+    
+    Thread[] workers = new Thread[threads];
+    long start = System.nanoTime();
+    long resumed = this.checkpoint;
+    
+    this.nextChunk.set(this.checkpoint);
+    
+    for (int i=0; i < threads; i++) {
+      workers[i] = new Thread(new Runnable() {
+        public void run() {
+          searchChunks();
+        }
+      }, "RevisedDES-search-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    
+    try {
+      for (Thread worker : workers) {
+        while (worker.isAlive()) {
+          worker.join(PROGRESS_MILLIS);
+          
+          if (worker.isAlive()) {
+            this.report(start, resumed, checkpoint);
+          }
+        }
+      }
+    } catch (InterruptedException ie) {
+      this.stopped = true;
+      Thread.currentThread().interrupt();
+    }
+    
+    this.report(start, resumed, checkpoint);
+    
+    return (this.found >= 0) ? this.keyAt(this.found) : null;
+  }
+  
+  /**
+   * Takes chunks of keys until the range is exhausted or a key is found.  A
+   * chunk abandoned because the search has ended is not recorded as searched,
+   * so that it is searched again if the search is resumed.
+   */
+  private void searchChunks() {
+    int[] digits = new int[KEY_LENGTH];
+    long[][] prefixes = new long[KEY_LENGTH][SUBKEYS];
+    
+    while (this.found < 0 && !this.stopped) {
+      long chunk = this.nextChunk.getAndAdd(CHUNK_KEYS);
+      
+      if (chunk > this.last) {
+        return;
+      }
+      
+      long end = Math.min(this.last, chunk + CHUNK_KEYS - 1);
+      long match = this.searchChunk(chunk, end, digits, prefixes);
+      
+      if (match >= 0) {
+        this.tried.addAndGet(match - chunk + 1);
+        
+        synchronized (this) {
+          if (this.found < 0) {
+            this.found = match;
+          }
+        }
+      } else if (this.found < 0 && !this.stopped) {
+        this.tried.addAndGet(end - chunk + 1);
+        this.complete(chunk);
+      }
+    }
+  }
+  
+  /**
+   * Tries every key between the given indexes.  The digits of the key are
+   * stepped like an odometer; prefix <i>p</i> holds the OR of the subkeys of
+   * characters 0 to <i>p</i> - 1, and is recomputed only when one of those
+   * characters changes.
+   * 
+   * @param from      index of the first key to try
+   * @param to        index of the last key to try
+   * @param digits    array to hold the class of each character of the key
+   * @param prefixes  array to hold the ORed subkeys of the leading characters
+   * @return long     index of the key found, or -1 if none matched
+   */
+  private long searchChunk(long from, long to, int[] digits, long[][] prefixes) {
+    int radix = this.characters.length;
+    long[][] lastCharacters = this.subkeys[KEY_LENGTH - 1];
+    long index = from;
+    long rest = from;
+    int changed = 0;
+    
+    for (int p=KEY_LENGTH - 1; p >= 0; p--) {
+      digits[p] = (int) (rest % radix);
+      rest /= radix;
+    }
+    
+    while (index <= to && this.found < 0 && !this.stopped) {
+      for (int p=changed + 1; p < KEY_LENGTH; p++) {
+        long[] character = this.subkeys[p - 1][digits[p - 1]];
+        
+        for (int i=0; i < SUBKEYS; i++) {
+          prefixes[p][i] = prefixes[p - 1][i] | character[i];
+        }
+      }
+      
+      long[] prefix = prefixes[KEY_LENGTH - 1];
+      
+      for (int d=digits[KEY_LENGTH - 1]; d < radix && index <= to; d++, index++) {
+        if (this.matches(prefix, lastCharacters[d]) && this.confirm(index)) {
+          return index;
+        }
+      }
+      
+      digits[KEY_LENGTH - 1] = 0;
+      changed = KEY_LENGTH - 2;
+      
+      while (changed > 0 && ++digits[changed] == radix) {
+        digits[changed--] = 0;
+      }
+      
+      if (changed == 0) {
+        digits[0]++;
+      }
+    }
+    
+    return -1;
+  }
+  
+  /**
+   * Returns true if the key whose subkeys are the OR of the given subkeys
+   * agrees with the known blocks after 14 and 15 rounds.  Only keys whose 14th
+   * round agrees perform the 15th.
+   * 
+   * @param prefix      ORed subkeys of the first 7 characters
+   * @param character   subkeys of the last character
+   * @return boolean    true if the key encrypts the plain text into the cipher text
+   */
+  private boolean matches(long[] prefix, long[] character) {
+    int left = this.left0;
+    int right = this.right0;
+    
+    for (int i=0; i < 14; i++) {
+      int previousRight = right;
+      right = ~left ^ f(right, prefix[i] | character[i]);
+      left = previousRight;
+    }
+    
+    return right == this.right14 && (~left ^ f(right, prefix[14] | character[14])) == this.right15;
+  }
+  
+  /**
+   * Confirms a key found by encrypting the plain text block with the key
+   * generated from scratch.
+   * 
+   * @param index     index of the key
+   * @return boolean  true if the key encrypts the plain text into the cipher text
+   */
+  private boolean confirm(long index) {
+    Key key = new Key(this.keyAt(index).getBytes(StandardCharsets.ISO_8859_1));
+    
+    key.generateSubKeys();
+    
+    return new PackedBlockEngine(key).encrypt(this.plainText) == this.cipherText;
+  }
+  
+  /**
+   * Records that the chunk starting at the given index has been searched, and
+   * advances the checkpoint past every chunk searched in order.
+   * 
+   * @param chunk   index of the first key of the chunk
+   */
+  private synchronized void complete(long chunk) {
+    this.completed.add(chunk);
+    
+    while (this.completed.remove(this.checkpoint)) {
+      this.checkpoint = Math.min(this.checkpoint + CHUNK_KEYS, this.last + 1);
+    }
+  }
+  
+  /**
+   * Prints the progress of the search, and saves the checkpoint if a file was
+   * given.
+   * 
+   * @param start       time the search started, in nanoseconds
+   * @param resumed     index the search started or resumed from
+   * @param checkpoint  file to save the checkpoint to, or null
+   * @throws IOException  if the checkpoint could not be saved
+   */
+  private void report(long start, long resumed, Path checkpoint) throws IOException {
+    long tried = this.tried.get();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double done = (resumed - this.first + tried) * 100.0 / (this.last - this.first + 1);
+    long next;
+    
+    synchronized (this) {
+      next = this.checkpoint;
+    }
+    
+    System.out.println(String.format("[SEARCH]  %d keys tried (%.2f%% of range) in %.1f s, %.0f keys/sec, checkpoint %s",
+                                     tried, done, seconds, tried / Math.max(seconds, 1e-9),
+                                     (next > this.last) ? "done" : this.keyAt(next) + " (index " + next + ")"));
+    
+    if (checkpoint != null) {
+      this.writeCheckpoint(checkpoint, next);
+    }
+  }
+  
+  /**
+   * Reads the index to resume from out of the given checkpoint file.
+   * 
+   * @param file    checkpoint file
+   * @return long   index of the first key that may not have been tried
+   * @throws IOException  if the file could not be read, or is for another search
+   */
+  private long readCheckpoint(Path file) throws IOException {
+    Properties properties = new Properties();
+    
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+    
+    String next = properties.getProperty("next", "");
+    
+    properties.setProperty("next", "0");
+    
+    if (!properties.equals(this.describe(0))) {
+      throw new IOException("Checkpoint " + file + " is for a different search");
+    }
+    
+    try {
+      return Long.parseLong(next);
+    } catch (NumberFormatException nfe) {
+      throw new IOException("Checkpoint " + file + " is corrupt");
+    }
+  }
+  
+  /**
+   * Saves the given index to resume from to the given checkpoint file,
+   * replacing the file only once the new checkpoint has been written in full.
+   * 
+   * @param file    checkpoint file
+   * @param next    index of the first key that may not have been tried
+   * @throws IOException  if the file could not be written
+   */
+  private void writeCheckpoint(Path file, long next) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    
+    try (OutputStream out = Files.newOutputStream(temporary)) {
+      this.describe(next).store(out, "Revised DES key search");
+    }
+    
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+  
+  /**
+   * Returns the properties describing this search, as saved in a checkpoint.
+   * 
+   * @param next    index of the first key that may not have been tried
+   * @return Properties   description of the search
+   */
+  private Properties describe(long next) {
+    Properties properties = new Properties();
+    
+    properties.setProperty("plaintext", String.format("%016x", this.plainText));
+    properties.setProperty("ciphertext", String.format("%016x", this.cipherText));
+    properties.setProperty("alphabet", this.alphabet);
+    properties.setProperty("first", Long.toString(this.first));
+    properties.setProperty("last", Long.toString(this.last));
+    properties.setProperty("next", Long.toString(next));
+    
+    return properties;
+  }
+  
+  /**
+   * The round function F: expansion of the right hand side, XOR with the
+   * subkey, and the fused S-Box substitution and permutation function.
+   * 
+   * @param right   right hand 32 bits of the block
+   * @param subkey  48 bit subkey for this round
+   * @return int    32 bit output of F
+   */
+  private static int f(int right, long subkey) {
+    return SPBox.substitute(Permutation.COMPILED_EXPANSION_PERMUTATION.permute(right & INT_MASK) ^ subkey);
+  }
+  
+  /**
+   * Returns the subkeys generated for a key holding the given character at
+   * the given position and zero bits everywhere else.
+   * 
+   * @param c           character of the key
+   * @param position    position of the character; between 0-7
+   * @return long[]     the 15 subkeys generated
+   */
+  private static long[] generate(char c, int position) {
+    KeySchedule schedule = new KeySchedule((long) c << (8 * (KEY_LENGTH - 1 - position)));
+    long[] generated = new long[SUBKEYS];
+    
+    for (int i=0; i < SUBKEYS; i++) {
+      generated[i] = schedule.getSubKey(i);
+    }
+    
+    return generated;
+  }
+}
@@ -0,0 +1,117 @@
+package com.mjnrand.reviseddes;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts latencies in buckets whose bounds are powers of two
+ * microseconds, so that recording a latency never blocks and percentiles can
+ * be read at any time.  Percentiles are reported as the upper bound of the
+ * bucket they fall in, so they are accurate to within a factor of two.
+ * 
+ * @author mark
+ */
+public final class LatencyHistogram {
+  /** Number of buckets; the last bucket holds every latency of 2^38 microseconds or more. */
+  private static final int BUCKETS = 40;
+  
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+  
+  /**
+   * Constructs a new, empty histogram.
+   */
+  public LatencyHistogram() {
+    for (int i=0; i < BUCKETS; i++) {
+      this.buckets[i] = new LongAdder();
+    }
+  }
+  
+  /**
+   * Records a single latency.
+   * 
+   * @param nanos   latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    
+    this.buckets[bucket].increment();
+    this.count.increment();
+    this.totalNanos.add(nanos);
+    this.maxNanos.accumulate(nanos);
+  }
+  
+  /**
+   * Returns the number of latencies recorded.
+   * 
+   * @return long   number of latencies
+   */
+  public long getCount() {
+    return this.count.sum();
+  }
+  
+  /**
+   * Returns the mean of the latencies recorded.
+   * 
+   * @return double   mean latency in microseconds, or 0 if none were recorded
+   */
+  public double getMeanMicros() {
+    long n = this.count.sum();
+    
+    return (n == 0) ? 0 : this.totalNanos.sum() / (n * 1000.0);
+  }
+  
+  /**
+   * Returns the largest latency recorded.
+   * 
+   * @return long   largest latency in microseconds
+   */
+  public long getMaxMicros() {
+    return this.maxNanos.get() / 1000;
+  }
+  
+  /**
+   * Returns the given percentile of the latencies recorded.
+   * 
+   * @param percentile  percentile between 0 and 100
+   * @return long       upper bound of the bucket holding the percentile, in microseconds
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long n = 0;
+    
+    for (int i=0; i < BUCKETS; i++) {
+      counts[i] = this.buckets[i].sum();
+      n += counts[i];
+    }
+    
+    long rank = (long) Math.ceil(n * percentile / 100.0);
+    long seen = 0;
+    
+    for (int i=0; i < BUCKETS; i++) {
+      seen += counts[i];
+      
+      if (seen >= rank && counts[i] > 0) {
+        return Math.min(1L << i, this.getMaxMicros());
+      }
+    }
+    
+    return 0;
+  }
+  
+  /**
+   * Removes every latency recorded.
+   */
+  public void reset() {
+    for (int i=0; i < BUCKETS; i++) {
+      this.buckets[i].reset();
+    }
+    
+    this.count.reset();
+    this.totalNanos.reset();
+    this.maxNanos.reset();
+  }
+}
@@ -1,5 +1,12 @@
 package com.mjnrand.reviseddes;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Main is the main class that is used to start the Revised DES application.
  * 
@@ -12,12 +19,46 @@ public class Main {
   /** Decryption mode option for the Revised DES application. */
   private static final int DECRYPTION_MODE = 1;
   
+  /** Option for encrypting / decrypting the file one block at a time through streams. */
+  private static final int STREAM_IO = 0;
+  
+  /** Option for encrypting / decrypting large chunks of the file in parallel. */
+  private static final int PARALLEL_IO = 1;
+  
+  /** Option for encrypting / decrypting the file through memory mapped regions. */
+  private static final int MAPPED_IO = 2;
+  
+  /** Option for encrypting / decrypting the file through reader, cipher and writer stages. */
+  private static final int PIPELINED_IO = 3;
+  
+  /** Option for encrypting / decrypting the file through asynchronous reads and writes. */
+  private static final int ASYNC_IO = 4;
+  
   /** Revised DES option parameters. */
   private static int mode = ENCRYPTION_MODE;
   private static String inputFileName = null;
   private static String outputFileName = null;
   private static String key = null;
+  private static String key2 = null;
+  private static String key3 = null;
   private static boolean byteStream = false;
+  private static int io = STREAM_IO;
+  private static int asyncDepth = 0;
+  private static int chaining = Chaining.ECB;
+  private static List<String> inputFileNames = new ArrayList<String>();
+  private static String daemonSocket = null;
+  private static String clientSocket = null;
+  private static long metricsPeriod = -1;
+  private static String searchPlainText = null;
+  private static String searchCipherText = null;
+  private static String searchFirst = null;
+  private static String searchLast = null;
+  private static String searchAlphabet = null;
+  private static String searchCheckpoint = null;
+  private static boolean container = false;
+  private static boolean compress = false;
+  private static boolean resume = false;
+  private static String verifyFileName = null;
   
   /**
    * Main method used to run the Revised DES application.
@@ -27,7 +68,46 @@ public class Main {
   public static void main(String args[]) {
     handleArguments(args);
     
-    if (mode == ENCRYPTION_MODE) {
+    if (metricsPeriod >= 0) {
+      CipherMetrics.getInstance().setEnabled(true);
+      CipherMetrics.register();
+      
+      if (metricsPeriod > 0) {
+        CipherMetrics.getInstance().startLogging(metricsPeriod);
+      }
+    }
+    
+    if (daemonSocket != null) {
+      try {
+        new CipherDaemon(daemonSocket).serve();
+      } catch (IOException ioe) {
+        System.out.println("[ERROR]  Unable to start daemon: " + ioe.getMessage());
+        System.exit(1);
+      }
+    } else if (searchPlainText != null) {
+      searchKey();
+    } else if (verifyFileName != null) {
+      if (!RevisedDES.verifyContainer(verifyFileName)) {
+        System.exit(1);
+      }
+      
+      System.out.println("[VERIFY]  Every chunk of " + verifyFileName + " is intact.");
+    } else if (clientSocket != null) {
+      sendJob();
+    } else if (isBatch()) {
+      Key k = new Key(key.getBytes());
+      k.generateSubKeys();
+      
+      BatchCipher batch = new BatchCipher(k, mode == ENCRYPTION_MODE, byteStream, chaining, outputFileName,
+                                          (mode == ENCRYPTION_MODE) ? ".enc" : "dec", new ForkJoinPool());
+      BatchCipher.Summary summary = batch.process(inputFileNames);
+      
+      System.out.println(summary);
+      
+      if (summary.getFailures() > 0) {
+        System.exit(1);
+      }
+    } else if (mode == ENCRYPTION_MODE) {
       Key k = new Key(key.getBytes());
       k.generateSubKeys();
       
@@ -35,7 +115,25 @@ public class Main {
         outputFileName = new StringBuffer(inputFileName).append(".enc").toString();
       }
       
-      RevisedDES.encrypt(inputFileName, outputFileName, k, byteStream);
+      if (container) {
+        RevisedDES.encryptContainer(inputFileName, outputFileName, k, chaining, resume);
+      } else if (key2 != null) {
+        RevisedDES.encryptTriple(inputFileName, outputFileName, k, tripleKey(key2), tripleKey(key3), byteStream, chaining);
+      } else if (chaining != Chaining.ECB) {
+        RevisedDES.encrypt(inputFileName, outputFileName, k, byteStream, chaining);
+      } else if (io == PARALLEL_IO) {
+        RevisedDES.encryptParallel(inputFileName, outputFileName, k, byteStream);
+      } else if (io == MAPPED_IO) {
+        RevisedDES.encryptMapped(inputFileName, outputFileName, k, byteStream);
+      } else if (io == PIPELINED_IO) {
+        RevisedDES.encryptPipelined(inputFileName, outputFileName, k, byteStream);
+      } else if (io == ASYNC_IO) {
+        RevisedDES.encryptAsync(inputFileName, outputFileName, k, byteStream, asyncDepth);
+      } else if (compress) {
+        RevisedDES.encryptCompressed(inputFileName, outputFileName, k, byteStream);
+      } else {
+        RevisedDES.encrypt(inputFileName, outputFileName, k, byteStream);
+      }
     } else if (mode == DECRYPTION_MODE) {
       Key k = new Key(key.getBytes());
       k.generateSubKeys();
@@ -44,10 +142,32 @@ public class Main {
         outputFileName = new StringBuffer(inputFileName).append("dec").toString();
       }
       
-      RevisedDES.decrypt(inputFileName, outputFileName, k, byteStream);
+      if (container) {
+        RevisedDES.decryptContainer(inputFileName, outputFileName, k);
+      } else if (key2 != null) {
+        RevisedDES.decryptTriple(inputFileName, outputFileName, k, tripleKey(key2), tripleKey(key3), byteStream, chaining);
+      } else if (chaining != Chaining.ECB) {
+        RevisedDES.decrypt(inputFileName, outputFileName, k, byteStream, chaining);
+      } else if (io == PARALLEL_IO) {
+        RevisedDES.decryptParallel(inputFileName, outputFileName, k, byteStream);
+      } else if (io == MAPPED_IO) {
+        RevisedDES.decryptMapped(inputFileName, outputFileName, k, byteStream);
+      } else if (io == PIPELINED_IO) {
+        RevisedDES.decryptPipelined(inputFileName, outputFileName, k, byteStream);
+      } else if (io == ASYNC_IO) {
+        RevisedDES.decryptAsync(inputFileName, outputFileName, k, byteStream, asyncDepth);
+      } else if (compress) {
+        RevisedDES.decryptCompressed(inputFileName, outputFileName, k, byteStream);
+      } else {
+        RevisedDES.decrypt(inputFileName, outputFileName, k, byteStream);
+      }
     } else {
       usage();
     }
+    
+    if (metricsPeriod >= 0) {
+      System.out.println(CipherMetrics.getInstance());
+    }
   }
   
   /**
@@ -60,21 +180,36 @@ public class Main {
     boolean modeSet = false;
     boolean outputSet = false;
     boolean bytesSet = false;
+    boolean ioSet = false;
+    boolean chainingSet = false;
+    boolean inputsOpen = false;
     
     try {
       for (int i=0; i < args.length; i++) {
+        // Further input files may only directly follow the key, before any option.
+        if (inputsOpen && !args[i].startsWith("-")) {
+          inputFileNames.add(args[i]);
+          
+          continue;
+        }
+        
+        inputsOpen = false;
+        
         if (args[i].equals("-e")) {
           if (!modeSet) {
             mode = ENCRYPTION_MODE;
             modeSet = true;
             
             inputFileName = args[++i];
+            inputFileNames.add(inputFileName);
             key = args[++i];
             
             if (key.length() != 8) {
               usage();
             }
             
+            inputsOpen = true;
+            
             continue;
           } else {
             usage();
@@ -87,12 +222,15 @@ public class Main {
             modeSet = true;
             
             inputFileName = args[++i];
+            inputFileNames.add(inputFileName);
             key = args[++i];
             
             if (key.length() != 8) {
               usage();
             }
             
+            inputsOpen = true;
+            
             continue;
           } else {
             usage();
@@ -121,17 +259,348 @@ public class Main {
           }
         }
         
+        if (args[i].equals("-p")) {
+          if (!ioSet) {
+            io = PARALLEL_IO;
+            ioSet = true;
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-m")) {
+          if (!ioSet) {
+            io = MAPPED_IO;
+            ioSet = true;
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-s")) {
+          if (!ioSet) {
+            io = PIPELINED_IO;
+            ioSet = true;
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-q")) {
+          if (!ioSet) {
+            io = ASYNC_IO;
+            ioSet = true;
+            asyncDepth = Integer.parseInt(args[++i]);
+            
+            if (asyncDepth < 1) {
+              usage();
+            }
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-c")) {
+          if (!chainingSet) {
+            chaining = Chaining.parse(args[++i]);
+            chainingSet = true;
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-3")) {
+          if (key2 == null) {
+            key2 = args[++i];
+            key3 = args[++i];
+            
+            if (key2.length() != 8 || key3.length() != 8) {
+              usage();
+            }
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-x")) {
+          container = true;
+          
+          continue;
+        }
+        
+        if (args[i].equals("-g")) {
+          compress = true;
+          
+          continue;
+        }
+        
+        if (args[i].equals("-z")) {
+          resume = true;
+          
+          continue;
+        }
+        
+        if (args[i].equals("-v")) {
+          if (verifyFileName == null) {
+            verifyFileName = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-l")) {
+          if (daemonSocket == null) {
+            daemonSocket = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-u")) {
+          if (clientSocket == null) {
+            clientSocket = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-t")) {
+          if (metricsPeriod < 0) {
+            metricsPeriod = Long.parseLong(args[++i]);
+            
+            if (metricsPeriod < 0) {
+              usage();
+            }
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-k")) {
+          if (searchPlainText == null) {
+            searchPlainText = args[++i];
+            searchCipherText = args[++i];
+            Long.parseUnsignedLong(searchPlainText, 16);
+            Long.parseUnsignedLong(searchCipherText, 16);
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-r")) {
+          if (searchFirst == null) {
+            searchFirst = args[++i];
+            searchLast = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-a")) {
+          if (searchAlphabet == null) {
+            searchAlphabet = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
+        if (args[i].equals("-f")) {
+          if (searchCheckpoint == null) {
+            searchCheckpoint = args[++i];
+            
+            continue;
+          } else {
+            usage();
+          }
+        }
+        
         if (args[i].equals("-h")) {
           usage();
         }
+        
+        if (!args[i].startsWith("-")) {
+          usage();
+        }
       }
     } catch (ArrayIndexOutOfBoundsException aiobe) {
       usage();
+    } catch (IllegalArgumentException iae) {
+      usage();
     }
         
-    if (!modeSet) {
+    if (daemonSocket != null) {
+      if (modeSet || clientSocket != null || searchPlainText != null) {
+        usage();
+      }
+      
+      return;
+    }
+    
+    if (verifyFileName != null) {
+      if (modeSet || clientSocket != null || searchPlainText != null) {
+        usage();
+      }
+      
+      return;
+    }
+    
+    if (searchPlainText != null) {
+      if (modeSet || clientSocket != null) {
+        usage();
+      }
+      
+      return;
+    } else if (searchFirst != null || searchAlphabet != null || searchCheckpoint != null) {
       usage();
     }
+    
+    boolean single = (io == MAPPED_IO || io == PIPELINED_IO || io == ASYNC_IO);
+    
+    if (!modeSet || (chaining != Chaining.ECB && single) ||
+        ((isBatch() || clientSocket != null) && single) ||
+        (isBatch() && clientSocket != null) ||
+        (key2 != null && (isBatch() || clientSocket != null || single)) ||
+        (container && (isBatch() || clientSocket != null || key2 != null || bytesSet || single)) ||
+        (container && mode == DECRYPTION_MODE && chainingSet) || (resume && (!container || mode != ENCRYPTION_MODE)) ||
+        (compress && (ioSet || chainingSet || container || key2 != null ||
+                      isBatch() || clientSocket != null))) {
+      usage();
+    }
+    
+    if (io == ASYNC_IO && asyncDepth > AsyncFileCipher.maxDepth(byteStream)) {
+      System.out.println("[ERROR]  -q " + asyncDepth + " needs more memory than the heap allows; the largest depth is " +
+                         AsyncFileCipher.maxDepth(byteStream) + ".\n");
+      usage();
+    }
+  }
+  
+  /**
+   * Returns the key with the given value, with its subkeys generated, for one
+   * of the later stages of Triple Revised DES.
+   * 
+   * @param value   8 character key
+   * @return Key    key with its subkeys generated
+   */
+  private static Key tripleKey(String value) {
+    Key k = new Key(value.getBytes());
+    k.generateSubKeys();
+    
+    return k;
+  }
+  
+  /**
+   * Searches the key space given on the command line for the key encrypting
+   * the known plain text block into the known cipher text block, on a thread
+   * for each available processor.  Exits with a status of 1 if no key is found.
+   */
+  private static void searchKey() {
+    KeySearch search = null;
+    long first = 0;
+    long last = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String found = null;
+    
+    if (searchAlphabet == null) {
+      searchAlphabet = KeySearch.PRINTABLE_ASCII;
+    }
+    
+    try {
+      search = new KeySearch(Long.parseUnsignedLong(searchPlainText, 16),
+                             Long.parseUnsignedLong(searchCipherText, 16), searchAlphabet);
+      first = (searchFirst == null) ? 0 : search.indexOf(searchFirst);
+      last = (searchLast == null) ? search.getSize() - 1 : search.indexOf(searchLast);
+    } catch (IllegalArgumentException iae) {
+      System.out.println("[ERROR]  " + iae.getMessage());
+      System.exit(1);
+    }
+    
+    System.out.println("[SEARCH]  " + searchAlphabet.length() + " characters give " + search.getClasses() +
+                       " distinct key bytes; searching " + (last - first + 1) + " keys from " +
+                       search.keyAt(first) + " to " + search.keyAt(last) + " on " + threads + " threads");
+    
+    try {
+      found = search.search(first, last, threads, (searchCheckpoint == null) ? null : Paths.get(searchCheckpoint));
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  Unable to search: " + ioe.getMessage());
+      System.exit(1);
+    }
+    
+    if (found == null) {
+      System.out.println("[SEARCH]  No key in the range encrypts the plain text into the cipher text.");
+      System.exit(1);
+    }
+    
+    System.out.println("[FOUND]  Key: " + found);
+  }
+  
+  /**
+   * Sends the job given on the command line to the daemon listening on the
+   * client socket.  An INPUTFILE of "-" sends standard input as an inline
+   * payload, and writes the result to OUTPUTFILE, or to standard output if no
+   * OUTPUTFILE is given.
+   */
+  private static void sendJob() {
+    boolean encrypt = (mode == ENCRYPTION_MODE);
+    
+    try (CipherClient client = new CipherClient(clientSocket)) {
+      if (inputFileName.equals("-")) {
+        byte[] result = client.process(encrypt, System.in.readAllBytes(), key, byteStream);
+        
+        if (outputFileName == null) {
+          System.out.write(result);
+          System.out.flush();
+        } else {
+          Files.write(Paths.get(outputFileName), result);
+        }
+      } else {
+        if (outputFileName == null) {
+          outputFileName = new StringBuffer(inputFileName).append((encrypt) ? ".enc" : "dec").toString();
+        }
+        
+        client.process(encrypt, inputFileName, outputFileName, key, byteStream, chaining);
+      }
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  Daemon could not process the job: " + ioe.getMessage());
+      System.exit(1);
+    }
+  }
+  
+  /**
+   * Returns true if the application was given more than one input file, or an
+   * input that is a directory or glob pattern, in which case every file found
+   * is processed in a single batch.
+   * 
+   * @return boolean  true if the inputs should be processed as a batch
+   */
+  private static boolean isBatch() {
+    return inputFileNames.size() > 1 || Files.isDirectory(Paths.get(inputFileName)) ||
+           (BatchCipher.isGlob(inputFileName) && !Files.exists(Paths.get(inputFileName)));
   }
   
   /**
@@ -139,9 +608,19 @@ public class Main {
    * mode of operation for the Revised DES application.
    */
   private static void usage() {
-    String usageMsg = new StringBuffer("Usage: java -jar RevisedDES.jar MODE INPUTFILE KEY [OPTIONS]\n\n").
+    String usageMsg = new StringBuffer("Usage: java -jar RevisedDES.jar MODE INPUTFILE KEY [INPUTFILE...] [OPTIONS]\n").
+                append("       java -jar RevisedDES.jar -l SOCKET\n").
+                append("       java -jar RevisedDES.jar -v CONTAINER\n").
+                append("       java -jar RevisedDES.jar -k PLAINTEXT CIPHERTEXT [-r FIRST LAST] [-a ALPHABET] [-f CHECKPOINT]\n\n").
                 append("Encrypts / decrypts a given file using the provided key.\n").
                 append("The key must be an 8-character (64-bit) ASCII string.\n\n").
+                append("Given more than one INPUTFILE, a directory or a quoted glob pattern\n").
+                append("such as \"logs/**.txt\", every file found is processed in a single\n").
+                append("batch on all available processors, ending with a throughput report;\n").
+                append("further INPUTFILEs must directly follow KEY, before any option, and\n").
+                append("outputs of an earlier run found among the inputs are skipped;\n").
+                append("-o then names the directory the output files are written to,\n").
+                append("and -m, -s and -q cannot be used.\n\n").
                 append("Modes:\n").               
                 append("\t-e\t\tencrypt a plain text file\n").
                 append("\t-d\t\tdecrypt a cipher text file\n\n").
@@ -151,6 +630,57 @@ public class Main {
                 append("\t\t\tcipher text as a stream of bytes instead of bits;\n").
                 append("\t\t\twhile decrypting, setting this option reads in a byte\n").
                 append("\t\t\tstream instead of a bit stream\n").
+                append("\t-p\t\tencrypts / decrypts large chunks of the file in\n").
+                append("\t\t\tparallel on all available processors\n").
+                append("\t-m\t\tencrypts / decrypts the file through memory mapped\n").
+                append("\t\t\tregions instead of streams; cannot be used with -p\n").
+                append("\t-s\t\tencrypts / decrypts the file through a pipeline of\n").
+                append("\t\t\treader, cipher and writer threads working at the\n").
+                append("\t\t\tsame time; cannot be used with -p or -m\n").
+                append("\t-q DEPTH\tencrypts / decrypts the file through asynchronous\n").
+                append("\t\t\treads and writes at their own offsets, keeping DEPTH\n").
+                append("\t\t\tof each in flight, no more than half the heap can\n").
+                append("\t\t\thold; cannot be used with -p, -m or -s\n").
+                append("\t-c CHAINING\tencrypts / decrypts in the given chaining mode: ecb\n").
+                append("\t\t\t(default), cbc or ctr; cbc and ctr cipher text begins\n").
+                append("\t\t\twith a random initialization vector, and is processed\n").
+                append("\t\t\tin parallel except for cbc encryption; cannot be used\n").
+                append("\t\t\twith -m, -s or -q\n").
+                append("\t-3 KEY2 KEY3\tencrypts / decrypts with Triple Revised DES, encrypting\n").
+                append("\t\t\twith KEY, decrypting with KEY2 and encrypting with\n").
+                append("\t\t\tKEY3 in a single parallel pass; cannot be used with\n").
+                append("\t\t\t-m, -s, -q, -u or in batch mode\n").
+                append("\t-l SOCKET\truns as a daemon serving jobs sent to the Unix domain\n").
+                append("\t\t\tsocket SOCKET, keeping the engines warm between jobs\n").
+                append("\t-u SOCKET\tsends the job to the daemon listening on SOCKET; an\n").
+                append("\t\t\tINPUTFILE of - sends standard input and writes the\n").
+                append("\t\t\tresult to OUTPUTFILE or standard output; cannot be\n").
+                append("\t\t\tused with -m, -s, -q or in batch mode\n").
+                append("\t-t SECONDS\trecords metrics, exposes them over JMX and prints\n").
+                append("\t\t\tthem every SECONDS seconds (never if 0) and once the\n").
+                append("\t\t\tjob is done\n").
+                append("\t-x\t\tencrypts into / decrypts out of a container recording\n").
+                append("\t\t\tthe chaining mode, the original length and a CRC32C\n").
+                append("\t\t\tof each chunk, processed in parallel; cannot be used\n").
+                append("\t\t\twith -b, -m, -s, -q, -3, -u, in batch mode, or with\n").
+                append("\t\t\t-c when decrypting\n").
+                append("\t-z\t\twith -e and -x, resumes an interrupted encryption,\n").
+                append("\t\t\tencrypting only the chunks OUTPUTFILE lacks; the\n").
+                append("\t\t\tsame file and key must be given as before\n").
+                append("\t-g\t\tcompresses the plain text with Deflate before it is\n").
+                append("\t\t\tencrypted, or inflates it after it is decrypted;\n").
+                append("\t\t\tmust be given on both, and only with -o, -b and -t\n").
+                append("\t-v CONTAINER\tchecks the checksum of every chunk of CONTAINER\n").
+                append("\t\t\twithout decrypting it\n").
+                append("\t-k PLAINTEXT CIPHERTEXT\n").
+                append("\t\t\tsearches for the key encrypting the known 16 hex digit\n").
+                append("\t\t\tPLAINTEXT block into the CIPHERTEXT block on all\n").
+                append("\t\t\tavailable processors, reporting progress every 10 s\n").
+                append("\t-r FIRST LAST\tsearches only the keys from FIRST to LAST\n").
+                append("\t-a ALPHABET\tsearches keys made of the characters of ALPHABET\n").
+                append("\t\t\tinstead of the printable ASCII characters\n").
+                append("\t-f CHECKPOINT\tsaves progress to CHECKPOINT, and resumes the\n").
+                append("\t\t\tsearch from it if it exists\n").
                 append("\t-h\t\tdisplays this help message").
                 toString();
                 
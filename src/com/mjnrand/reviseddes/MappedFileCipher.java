@@ -0,0 +1,145 @@
+package com.mjnrand.reviseddes;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFileCipher encrypts / decrypts a file by mapping windows of the input
+ * and output files into memory and running the block engine directly over the
+ * mapped regions.  Windows are far smaller than 2 GB, so files of any size can
+ * be processed.  Blocks are handed to the engine in runs of 64, so that a
+ * {@link BitslicedBlockEngine} can be used for large files.
+ * 
+ * @author mark
+ */
+final class MappedFileCipher {
+  /** Number of blocks processed in a single window. */
+  static final int WINDOW_BLOCKS = 1 << 20;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel, which
+   * must be open for both reading and writing.  The last block is padded with
+   * spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule, boolean byteStream) throws IOException {
+    long length = in.size();
+    long blocks = (length + Block.SIZE - 1) / Block.SIZE;
+    int scale = (byteStream) ? 1 : BITS;
+    BlockEngine engine = BlockEngines.create(schedule, blocks);
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long[] batch = new long[BitslicedBlockEngine.BLOCKS];
+    byte[] text = new byte[batch.length * Block.SIZE * BITS];
+    byte[] bytes = new byte[batch.length * Block.SIZE];
+    
+    for (long first=0; first < blocks; first += WINDOW_BLOCKS) {
+      int numBlocks = (int) Math.min(WINDOW_BLOCKS, blocks - first);
+      long start = metrics.start();
+      long offset = first * Block.SIZE;
+      int count = (int) Math.min((long) numBlocks * Block.SIZE, length - offset);
+      MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, offset, count);
+      MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, offset * scale,
+                                     (long) numBlocks * Block.SIZE * scale);
+      
+      for (int i=0; i < numBlocks; i += batch.length) {
+        int batchBlocks = Math.min(batch.length, numBlocks - i);
+        
+        for (int j=0; j < batchBlocks; j++) {
+          int position = (i + j) * Block.SIZE;
+          long plainText = 0;
+          
+          if (position + Block.SIZE <= count) {
+            plainText = src.getLong(position);
+          } else {
+            for (int k=0; k < Block.SIZE; k++) {
+              plainText = (plainText << 8) | ((position + k < count) ? (src.get(position + k) & 0xff) : ' ');
+            }
+          }
+          
+          batch[j] = plainText;
+        }
+        
+        engine.encrypt(batch, 0, batchBlocks);
+        
+        for (int j=0; j < batchBlocks; j++) {
+          if (byteStream) {
+            dst.putLong(batch[j]);
+          } else {
+            Block.unpack(batch[j], bytes, j * Block.SIZE);
+          }
+        }
+        
+        if (!byteStream) {
+          CipherTextOutputStream.encode(bytes, 0, text, 0, batchBlocks * Block.SIZE);
+          dst.put(text, 0, batchBlocks * Block.SIZE * BITS);
+        }
+      }
+      
+      metrics.transferred(true, numBlocks, count, (long) numBlocks * Block.SIZE * scale, start);
+    }
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel, which
+   * must be open for both reading and writing.  The cipher text must consist
+   * of whole blocks.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule, boolean byteStream) throws IOException {
+    int scale = (byteStream) ? 1 : BITS;
+    long blocks = in.size() / (Block.SIZE * scale);
+    BlockEngine engine = BlockEngines.create(schedule, blocks);
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long[] batch = new long[BitslicedBlockEngine.BLOCKS];
+    byte[] text = new byte[batch.length * Block.SIZE * BITS];
+    byte[] bytes = new byte[batch.length * Block.SIZE];
+    
+    for (long first=0; first < blocks; first += WINDOW_BLOCKS) {
+      int numBlocks = (int) Math.min(WINDOW_BLOCKS, blocks - first);
+      long start = metrics.start();
+      long offset = first * Block.SIZE;
+      MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, offset * scale,
+                                    (long) numBlocks * Block.SIZE * scale);
+      MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, offset,
+                                     (long) numBlocks * Block.SIZE);
+      
+      for (int i=0; i < numBlocks; i += batch.length) {
+        int batchBlocks = Math.min(batch.length, numBlocks - i);
+        
+        if (!byteStream) {
+          src.get(text, 0, batchBlocks * Block.SIZE * BITS);
+          CipherTextInputStream.decode(text, 0, bytes, 0, batchBlocks * Block.SIZE);
+        }
+        
+        for (int j=0; j < batchBlocks; j++) {
+          batch[j] = (byteStream) ? src.getLong() : Block.pack(bytes, j * Block.SIZE);
+        }
+        
+        engine.decrypt(batch, 0, batchBlocks);
+        
+        for (int j=0; j < batchBlocks; j++) {
+          dst.putLong(batch[j]);
+        }
+      }
+      
+      metrics.transferred(false, numBlocks, (long) numBlocks * Block.SIZE * scale, (long) numBlocks * Block.SIZE, start);
+    }
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private MappedFileCipher() {}
+}
@@ -0,0 +1,285 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * MultiKeyCipher encrypts / decrypts batches of short messages held in memory,
+ * each under its own key, such as records belonging to different tenants.  The
+ * schedules of all the keys of a batch are expanded in a single pass into one
+ * array of packed subkeys, without creating a {@link Key} or {@link KeySchedule}
+ * for each message.  The blocks of the batch are then carried through the
+ * Feistel Rounds four at a time, each with the subkeys of its own message: the
+ * four blocks do not depend on one another, so their rounds overlap in the
+ * pipeline of the processor rather than each round waiting on the one before.
+ * 
+ * The output for each message is identical to that of a {@link BufferCipher}
+ * using its key: encryption pads the last block with spaces, and decryption
+ * leaves the padding in place.  Failures are reported by throwing exceptions
+ * before any output is written.  No objects are created once the subkeys of a
+ * cipher have grown to hold the largest batch, and a cipher holds the blocks it
+ * is working on, so it must not be shared between threads.
+ * 
+ * @author mark
+ */
+public final class MultiKeyCipher {
+  /** Number of blocks carried through the Feistel Rounds together. */
+  public static final int INTERLEAVE = 4;
+  
+  /** Number of blocks gathered from the messages before they are processed. */
+  private static final int STAGED_BLOCKS = 64;
+  
+  /** Number of subkeys held for each message. */
+  private static final int SUBKEYS = 16;
+  
+  /** Mask selecting the 32 bits of an int once widened to a long. */
+  private static final long INT_MASK = 0xffffffffL;
+  
+  private long[] subkeys = new long[0];
+  private final long[] blocks = new long[STAGED_BLOCKS];
+  private final int[] keyOffsets = new int[STAGED_BLOCKS];
+  private final int[] messages = new int[STAGED_BLOCKS];
+  private final int[] positions = new int[STAGED_BLOCKS];
+  
+  /**
+   * Encrypts the first <i>count</i> messages, each under the key at the same
+   * index, writing the cipher text of each message to the start of the output
+   * array at the same index.
+   * 
+   * @param keys    64 bit keys, each packed first byte most significant
+   * @param in      plain text messages
+   * @param out     arrays to write the cipher text of each message to; each must
+   *                hold at least {@link BufferCipher#getEncryptedLength(int)} bytes
+   * @param count   number of messages to encrypt
+   * @return int    total number of cipher text bytes written
+   * @throws IndexOutOfBoundsException  if there are fewer than count keys, messages or outputs,
+   *                                    or an output is too short for its cipher text
+   */
+  public int encrypt(long[] keys, byte[][] in, byte[][] out, int count) {
+    return this.process(keys, in, out, count, true);
+  }
+  
+  /**
+   * Decrypts the first <i>count</i> messages, each under the key at the same
+   * index, writing the plain text of each message to the start of the output
+   * array at the same index.
+   * 
+   * @param keys    64 bit keys, each packed first byte most significant
+   * @param in      cipher text messages; each must be a multiple of 8 bytes long
+   * @param out     arrays to write the plain text of each message to; each must
+   *                be at least as long as its cipher text
+   * @param count   number of messages to decrypt
+   * @return int    total number of plain text bytes written
+   * @throws IllegalArgumentException   if a cipher text does not consist of whole blocks
+   * @throws IndexOutOfBoundsException  if there are fewer than count keys, messages or outputs,
+   *                                    or an output is too short for its plain text
+   */
+  public int decrypt(long[] keys, byte[][] in, byte[][] out, int count) {
+    return this.process(keys, in, out, count, false);
+  }
+  
+  /**
+   * Checks the messages, expands the schedules of their keys, and then gathers
+   * the blocks of every message in turn, processing them whenever enough have
+   * been gathered.
+   * 
+   * @param keys      64 bit keys
+   * @param in        input messages
+   * @param out       arrays to write the output of each message to
+   * @param count     number of messages to process
+   * @param encrypt   true to encrypt the messages; false to decrypt them
+   * @return int      total number of bytes written
+   */
+  private int process(long[] keys, byte[][] in, byte[][] out, int count, boolean encrypt) {
+    long start = CipherMetrics.getInstance().start();
+    int total = check(keys, in, out, count, encrypt);
+    int staged = 0;
+    
+    this.expand(keys, count);
+    
+    for (int m=0; m < count; m++) {
+      byte[] message = in[m];
+      
+      for (int pos=0; pos < message.length; pos += Block.SIZE) {
+        int rem = message.length - pos;
+        
+        this.blocks[staged] = (rem >= Block.SIZE) ? Block.pack(message, pos) : BufferCipher.pad(Block.pack(message, pos, rem), rem);
+        this.keyOffsets[staged] = m * SUBKEYS;
+        this.messages[staged] = m;
+        this.positions[staged] = pos;
+        
+        if (++staged == STAGED_BLOCKS) {
+          this.flush(out, staged, encrypt);
+          staged = 0;
+        }
+      }
+    }
+    
+    this.flush(out, staged, encrypt);
+    CipherMetrics.getInstance().processed(encrypt, total / Block.SIZE, start);
+    
+    return total;
+  }
+  
+  /**
+   * Expands the schedule of each of the given keys into the subkeys of this
+   * cipher, 16 subkeys for each message.
+   * 
+   * @param keys    64 bit keys
+   * @param count   number of keys to expand
+   */
+  private void expand(long[] keys, int count) {
+    if (this.subkeys.length < count * SUBKEYS) {
+      this.subkeys = new long[count * SUBKEYS];
+    }
+    
+    for (int i=0; i < count; i++) {
+      KeySchedule.expand(keys[i], this.subkeys, i * SUBKEYS);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the gathered blocks a group at a time and writes each
+   * to its place in the output of its message.  A final group that is not
+   * full repeats its last block in the lanes left over.
+   * 
+   * @param out       arrays to write the output of each message to
+   * @param staged    number of blocks gathered
+   * @param encrypt   true to encrypt the blocks; false to decrypt them
+   */
+  private void flush(byte[][] out, int staged, boolean encrypt) {
+    int i = 0;
+    
+    for (; i + INTERLEAVE <= staged; i += INTERLEAVE) {
+      this.rounds(i, i + 1, i + 2, i + 3, encrypt);
+    }
+    
+    if (i < staged) {
+      int last = staged - 1;
+      
+      this.rounds(i, Math.min(i + 1, last), Math.min(i + 2, last), last, encrypt);
+    }
+    
+    for (int n=0; n < staged; n++) {
+      Block.unpack(this.blocks[n], out[this.messages[n]], this.positions[n]);
+    }
+  }
+  
+  /**
+   * Runs the four gathered blocks at the given indices through the initial
+   * permutation, the 16 Feistel Rounds with the subkeys of their own messages,
+   * the final swap and the inverse of the initial permutation, in step with
+   * one another.  An index may be given more than once.
+   * 
+   * @param a         index of the first block
+   * @param b         index of the second block
+   * @param c         index of the third block
+   * @param d         index of the fourth block
+   * @param encrypt   true to encrypt the blocks; false to decrypt them
+   */
+  private void rounds(int a, int b, int c, int d, boolean encrypt) {
+    long[] k = this.subkeys;
+    int ka = this.keyOffsets[a];
+    int kb = this.keyOffsets[b];
+    int kc = this.keyOffsets[c];
+    int kd = this.keyOffsets[d];
+    
+    long ba = Permutation.COMPILED_INITIAL_PERMUTATION.permute(this.blocks[a]);
+    long bb = Permutation.COMPILED_INITIAL_PERMUTATION.permute(this.blocks[b]);
+    long bc = Permutation.COMPILED_INITIAL_PERMUTATION.permute(this.blocks[c]);
+    long bd = Permutation.COMPILED_INITIAL_PERMUTATION.permute(this.blocks[d]);
+    
+    int la = (int) (ba >>> 32);
+    int ra = (int) ba;
+    int lb = (int) (bb >>> 32);
+    int rb = (int) bb;
+    int lc = (int) (bc >>> 32);
+    int rc = (int) bc;
+    int ld = (int) (bd >>> 32);
+    int rd = (int) bd;
+    
+    for (int i=0; i < 16; i++) {
+      int n = encrypt ? i : 15 - i;
+      int previousRightA = ra;
+      int previousRightB = rb;
+      int previousRightC = rc;
+      int previousRightD = rd;
+      
+      ra = ~la ^ f(ra, k[ka + n]);
+      rb = ~lb ^ f(rb, k[kb + n]);
+      rc = ~lc ^ f(rc, k[kc + n]);
+      rd = ~ld ^ f(rd, k[kd + n]);
+      
+      la = previousRightA;
+      lb = previousRightB;
+      lc = previousRightC;
+      ld = previousRightD;
+    }
+    
+    this.blocks[a] = Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(((ra & INT_MASK) << 32) | (la & INT_MASK));
+    this.blocks[b] = Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(((rb & INT_MASK) << 32) | (lb & INT_MASK));
+    this.blocks[c] = Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(((rc & INT_MASK) << 32) | (lc & INT_MASK));
+    this.blocks[d] = Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(((rd & INT_MASK) << 32) | (ld & INT_MASK));
+  }
+  
+  /**
+   * Checks that there are enough keys, messages and outputs, that every output
+   * has room for the output of its message, and when decrypting that every
+   * message consists of whole blocks.
+   * 
+   * @param keys      64 bit keys
+   * @param in        input messages
+   * @param out       arrays to write the output of each message to
+   * @param count     number of messages to process
+   * @param encrypt   true if the messages are to be encrypted; false if decrypted
+   * @return int      total number of bytes to be written
+   */
+  private static int check(long[] keys, byte[][] in, byte[][] out, int count, boolean encrypt) {
+    int total = 0;
+    
+    if (count < 0 || count > keys.length || count > in.length || count > out.length) {
+      throw new IndexOutOfBoundsException("Count " + count + " out of bounds for " + keys.length + " keys, " +
+                                          in.length + " messages and " + out.length + " outputs");
+    }
+    
+    for (int m=0; m < count; m++) {
+      int len = in[m].length;
+      
+      if (encrypt) {
+        len = BufferCipher.getEncryptedLength(len);
+      } else if ((len % Block.SIZE) != 0) {
+        throw new IllegalArgumentException("Cipher text length " + len + " of message " + m + " is not a multiple of " + Block.SIZE);
+      }
+      
+      if (out[m].length < len) {
+        throw new IndexOutOfBoundsException("Output of length " + out[m].length + " too short for " + len + " bytes of message " + m);
+      }
+      
+      total += len;
+    }
+    
+    return total;
+  }
+  
+  /**
+   * The round function F, in the same way as {@link SPBox#substitute(long)}
+   * applied to the expanded right hand side XOR subkey.  Group <i>g</i> of the
+   * expansion is the 6 bits of the right hand side starting at bit 4<i>g</i>,
+   * with bit 0 wrapping around to bit 32, so each group is taken from a rotation
+   * of the right hand side instead of performing the expansion permutation.
+   * 
+   * @param right   right hand 32 bits of the block
+   * @param subkey  48 bit subkey for this round
+   * @return int    32 bit output of F
+   */
+  private static int f(int right, long subkey) {
+    int[][] sp = SPBox.SP_BOXES;
+    int k = (int) subkey;
+    
+    return sp[0][-((right ^ (int) (subkey >>> 47)) & 0x01) & 0x3f]
+         ^ sp[1][(Integer.rotateRight(right, 27) ^ (int) (subkey >>> 42)) & 0x3f]
+         ^ sp[2][(Integer.rotateRight(right, 23) ^ (int) (subkey >>> 36)) & 0x3f]
+         ^ sp[3][(Integer.rotateRight(right, 19) ^ (int) (subkey >>> 30)) & 0x3f]
+         ^ sp[4][(Integer.rotateRight(right, 15) ^ (k >>> 24)) & 0x3f]
+         ^ sp[5][(Integer.rotateRight(right, 11) ^ (k >>> 18)) & 0x3f]
+         ^ sp[6][(Integer.rotateRight(right, 7) ^ (k >>> 12)) & 0x3f]
+         ^ sp[7][(Integer.rotateRight(right, 3) ^ (k >>> 6)) & 0x3f];
+  }
+}
@@ -0,0 +1,575 @@
+package com.mjnrand.reviseddes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelFileCipher encrypts / decrypts a file by splitting it into large block
+ * aligned chunks and processing the chunks on a fork-join pool.  Each chunk is
+ * read from and written to its own offset of the input and output files, and
+ * the output is identical to that of processing the file one block at a time.
+ * Each chunk is processed with the engine chosen by {@link BlockEngines}, in
+ * the {@link ChunkBuffers} of the thread processing it, which are reused from
+ * one chunk and one file to the next.
+ * 
+ * Every {@link Chaining} mode is supported.  CBC encryption chains each chunk
+ * into the next, so its chunks are processed in order on the calling thread.
+ * 
+ * Given three schedules instead of one, the file is encrypted / decrypted with
+ * Triple Revised DES in a single pass, each chunk using a {@link TripleBlockEngine}.
+ * 
+ * @author mark
+ */
+final class ParallelFileCipher {
+  /** Number of blocks processed by a single task. */
+  static final int CHUNK_BLOCKS = 1 << 17;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  private final FileChannel in;
+  private final FileChannel out;
+  private final KeySchedule[] schedules;
+  private final boolean encrypt;
+  private final boolean byteStream;
+  private final int chaining;
+  private final long iv;
+  private final long length;
+  
+  /**
+   * Constructs a new parallel cipher over the given channels.
+   * 
+   * @param in          channel to read the input text from
+   * @param out         channel to write the output text to
+   * @param schedules   schedule of subkeys used to encrypt / decrypt each block, or the
+   *                    three schedules of Triple Revised DES
+   * @param encrypt     true to encrypt the input; false to decrypt it
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode of the cipher text
+   * @param iv          initialization vector; unused in ECB mode
+   * @param length      number of plain text bytes when encrypting, or cipher text bytes
+   *                    following the initialization vector when decrypting
+   */
+  private ParallelFileCipher(FileChannel in, FileChannel out, KeySchedule[] schedules, boolean encrypt,
+                             boolean byteStream, int chaining, long iv, long length) {
+    this.in = in;
+    this.out = out;
+    this.schedules = schedules;
+    this.encrypt = encrypt;
+    this.byteStream = byteStream;
+    this.chaining = chaining;
+    this.iv = iv;
+    this.length = length;
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel in ECB
+   * mode.  The last block is padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, ForkJoinPool pool) throws IOException {
+    encrypt(in, out, schedule, byteStream, Chaining.ECB, 0, pool);
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel in the
+   * given mode.  The cipher text begins with the initialization vector unless
+   * the mode is ECB, and the last block is padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param chaining    chaining mode to encrypt in
+   * @param iv          initialization vector; unused in ECB mode
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule, boolean byteStream,
+                      int chaining, long iv, ForkJoinPool pool) throws IOException {
+    encrypt(in, out, new KeySchedule[] { schedule }, byteStream, chaining, iv, pool);
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel in the
+   * given mode, with Revised DES if given one schedule or Triple Revised DES if
+   * given three.  The cipher text begins with the initialization vector unless
+   * the mode is ECB, and the last block is padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedules   schedules of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param chaining    chaining mode to encrypt in
+   * @param iv          initialization vector; unused in ECB mode
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule[] schedules, boolean byteStream,
+                      int chaining, long iv, ForkJoinPool pool) throws IOException {
+    ParallelFileCipher cipher = new ParallelFileCipher(in, out, schedules, true, byteStream, chaining, iv, in.size());
+    
+    if (chaining != Chaining.ECB) {
+      cipher.writeIV();
+    }
+    
+    cipher.run(pool);
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel in ECB
+   * mode.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, ForkJoinPool pool) throws IOException {
+    decrypt(in, out, schedule, byteStream, Chaining.ECB, pool);
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel in the
+   * given mode.  Unless the mode is ECB, the cipher text must begin with the
+   * initialization vector.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode the cipher text was encrypted in
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule, boolean byteStream,
+                      int chaining, ForkJoinPool pool) throws IOException {
+    decrypt(in, out, new KeySchedule[] { schedule }, byteStream, chaining, pool);
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel in the
+   * given mode, with Revised DES if given one schedule or Triple Revised DES if
+   * given three.  Unless the mode is ECB, the cipher text must begin with the
+   * initialization vector.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedules   schedules of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode the cipher text was encrypted in
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule[] schedules, boolean byteStream,
+                      int chaining, ForkJoinPool pool) throws IOException {
+    long length = in.size() / (byteStream ? 1 : BITS);
+    long iv = 0;
+    
+    if (chaining != Chaining.ECB) {
+      if (length < Block.SIZE) {
+        throw new EOFException("Missing initialization vector");
+      }
+      
+      iv = readBlock(in, 0, byteStream);
+      length -= Block.SIZE;
+    }
+    
+    new ParallelFileCipher(in, out, schedules, false, byteStream, chaining, iv, length).run(pool);
+  }
+  
+  /**
+   * Opens channels on the given files and encrypts / decrypts the whole of the
+   * input file into the output file in the given mode.  ECB cipher text that
+   * does not consist of whole blocks is decrypted one block at a time, and any
+   * failure to do so is thrown like any other.
+   * 
+   * @param input       file to encrypt / decrypt
+   * @param output      file in which to output the result
+   * @param key         key to be used for encrypting / decrypting the file
+   * @param encrypt     true to encrypt the input file; false to decrypt it
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   * @param pool        pool to run the chunks on
+   * @throws IOException  if either file could not be opened, read or written
+   */
+  static void process(Path input, Path output, Key key, boolean encrypt, boolean byteStream,
+                      int chaining, ForkJoinPool pool) throws IOException {
+    long start = CipherMetrics.getInstance().start();
+    
+    if (!encrypt && !isBlockAligned(Files.size(input), byteStream)) {
+      if (chaining != Chaining.ECB) {
+        throw new IOException("Cipher text does not consist of whole blocks");
+      }
+      
+      RevisedDES.decryptStream(input.toString(), output.toString(), key, byteStream, false);
+      
+      return;
+    }
+    
+    try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+      try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                              StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        if (encrypt) {
+          long iv = (chaining == Chaining.ECB) ? 0 : Chaining.generateIV();
+          
+          encrypt(in, out, key.getSchedule(), byteStream, chaining, iv, pool);
+        } else {
+          decrypt(in, out, key.getSchedule(), byteStream, chaining, pool);
+        }
+      }
+    }
+    
+    CipherMetrics.getInstance().completed(encrypt, start);
+  }
+  
+  /**
+   * Returns true if the cipher text held by the given channel consists of whole
+   * blocks, which is required for it to be decrypted in parallel.
+   * 
+   * @param in          channel holding the cipher text
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @return boolean    true if the cipher text can be decrypted in parallel
+   * @throws IOException  if the size of the channel could not be read
+   */
+  static boolean isBlockAligned(FileChannel in, boolean byteStream) throws IOException {
+    return isBlockAligned(in.size(), byteStream);
+  }
+  
+  /**
+   * Returns true if cipher text of the given size consists of whole blocks.
+   * 
+   * @param size        size of the cipher text, in bytes
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @return boolean    true if the cipher text can be decrypted in parallel
+   */
+  static boolean isBlockAligned(long size, boolean byteStream) {
+    return (size % (byteStream ? Block.SIZE : Block.SIZE * BITS)) == 0;
+  }
+  
+  /**
+   * Processes every chunk of the input, on the given pool unless the chunks
+   * must be chained in order.
+   * 
+   * @param pool    pool to run the chunks on
+   * @throws IOException  if any chunk could not be read or written
+   */
+  private void run(ForkJoinPool pool) throws IOException {
+    long blocks = (this.length + Block.SIZE - 1) / Block.SIZE;
+    long chunks = (blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS;
+    
+    if (this.encrypt && this.chaining == Chaining.CBC) {
+      ChunkBuffers buffers = ChunkBuffers.get();
+      long chain = this.iv;
+      
+      for (long first=0; first < blocks; first += CHUNK_BLOCKS) {
+        chain = this.processChunk(first, (int) Math.min(CHUNK_BLOCKS, blocks - first), chain, buffers);
+      }
+      
+      return;
+    }
+    
+    try {
+      pool.invoke(new ChunkTask(0, chunks, blocks));
+    } catch (UncheckedIOException uioe) {
+      throw uioe.getCause();
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the given range of blocks.
+   * 
+   * @param firstBlock  number of the first block to process
+   * @param numBlocks   number of blocks to process
+   * @param chain       cipher text block preceding the range when CBC encrypting
+   * @param buffers     buffers of the calling thread
+   * @return long       last cipher text block of the range when CBC encrypting
+   * @throws IOException  if the blocks could not be read or written
+   */
+  private long processChunk(long firstBlock, int numBlocks, long chain, ChunkBuffers buffers) throws IOException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long offset = firstBlock * Block.SIZE;
+    int len = numBlocks * Block.SIZE;
+    byte[] data = buffers.data;
+    long[] blocks = buffers.blocks;
+    long start = metrics.start();
+    
+    if (this.encrypt) {
+      int count = (int) Math.min(len, this.length - offset);
+      
+      read(this.in, data, count, offset);
+      metrics.read(count, start);
+      Arrays.fill(data, count, len, (byte) ' ');
+    } else {
+      this.readCipherText(data, len, firstBlock, buffers);
+      metrics.read(len * (this.byteStream ? 1 : BITS), start);
+      
+      if (this.chaining == Chaining.CBC) {
+        chain = (firstBlock == 0) ? this.iv : readBlock(this.in, this.cipherTextPosition(firstBlock - 1), this.byteStream);
+      }
+    }
+    
+    start = metrics.start();
+    
+    for (int i=0; i < numBlocks; i++) {
+      blocks[i] = Block.pack(data, i * Block.SIZE);
+    }
+    
+    BlockEngine engine = this.createEngine(numBlocks, buffers);
+    
+    if (this.chaining == Chaining.CTR) {
+      Chaining.applyCTR(engine, blocks, buffers.scratch, 0, numBlocks, this.iv + firstBlock);
+    } else if (this.chaining == Chaining.CBC && this.encrypt && this.schedules.length == 3) {
+      chain = Chaining.encryptCBC((SingleBlockEngine) engine, blocks, 0, numBlocks, chain);
+    } else if (this.chaining == Chaining.CBC && this.encrypt) {
+      chain = Chaining.encryptCBC(buffers.packed(this.schedules[0]), blocks, 0, numBlocks, chain);
+    } else if (this.chaining == Chaining.CBC) {
+      Chaining.decryptCBC(engine, blocks, buffers.scratch, 0, numBlocks, chain);
+    } else if (this.encrypt) {
+      engine.encrypt(blocks, 0, numBlocks);
+    } else {
+      engine.decrypt(blocks, 0, numBlocks);
+    }
+    
+    for (int i=0; i < numBlocks; i++) {
+      Block.unpack(blocks[i], data, i * Block.SIZE);
+    }
+    
+    metrics.processed(this.encrypt, numBlocks, start);
+    start = metrics.start();
+    
+    if (this.encrypt) {
+      this.writeCipherText(data, len, firstBlock, buffers);
+      metrics.written(len * (this.byteStream ? 1 : BITS), start);
+    } else {
+      write(this.out, data, len, offset);
+      metrics.written(len, start);
+    }
+    
+    return chain;
+  }
+  
+  /**
+   * Returns an engine for the given number of blocks: a
+   * {@link TripleBlockEngine} if three schedules were given, otherwise the
+   * engine chosen by {@link BlockEngines}.  The engine for a whole chunk is
+   * kept by the buffers of the calling thread.
+   * 
+   * @param numBlocks   number of blocks that will be processed
+   * @param buffers     buffers of the calling thread
+   * @return BlockEngine  engine for processing the blocks
+   */
+  private BlockEngine createEngine(int numBlocks, ChunkBuffers buffers) {
+    if (numBlocks == CHUNK_BLOCKS && this.schedules.length == 3) {
+      return buffers.engine(this.schedules[0], this.schedules[1], this.schedules[2]);
+    } else if (numBlocks == CHUNK_BLOCKS) {
+      return buffers.engine(this.schedules[0], null, null);
+    }
+    
+    if (this.schedules.length == 3) {
+      return new TripleBlockEngine(this.schedules[0], this.schedules[1], this.schedules[2]);
+    }
+    
+    return BlockEngines.create(this.schedules[0], numBlocks);
+  }
+  
+  /**
+   * Returns the position of the channel holding the given cipher text block,
+   * which follows the initialization vector unless the mode is ECB.
+   * 
+   * @param block   number of the cipher text block
+   * @return long   position of the block
+   */
+  private long cipherTextPosition(long block) {
+    long header = (this.chaining == Chaining.ECB) ? 0 : Block.SIZE;
+    
+    return (header + (block * Block.SIZE)) * (this.byteStream ? 1 : BITS);
+  }
+  
+  /**
+   * Reads the given number of cipher text bytes, starting with the given block.
+   * 
+   * @param data        array to read the cipher text bytes into
+   * @param len         number of bytes to read
+   * @param firstBlock  number of the first block to read
+   * @param buffers     buffers of the calling thread, holding the bit form if used
+   * @throws IOException  if the cipher text could not be read
+   */
+  private void readCipherText(byte[] data, int len, long firstBlock, ChunkBuffers buffers) throws IOException {
+    if (this.byteStream) {
+      read(this.in, data, len, this.cipherTextPosition(firstBlock));
+    } else {
+      byte[] text = buffers.text();
+      
+      read(this.in, text, len * BITS, this.cipherTextPosition(firstBlock));
+      CipherTextInputStream.decode(text, 0, data, 0, len);
+    }
+  }
+  
+  /**
+   * Writes the given number of cipher text bytes, starting with the given block.
+   * 
+   * @param data        cipher text bytes to write
+   * @param len         number of bytes to write
+   * @param firstBlock  number of the first block to write
+   * @param buffers     buffers of the calling thread, holding the bit form if used
+   * @throws IOException  if the cipher text could not be written
+   */
+  private void writeCipherText(byte[] data, int len, long firstBlock, ChunkBuffers buffers) throws IOException {
+    if (this.byteStream) {
+      write(this.out, data, len, this.cipherTextPosition(firstBlock));
+    } else {
+      byte[] text = buffers.text();
+      
+      CipherTextOutputStream.encode(data, 0, text, 0, len);
+      write(this.out, text, len * BITS, this.cipherTextPosition(firstBlock));
+    }
+  }
+  
+  /**
+   * Writes the initialization vector to the start of the output channel.
+   * 
+   * @throws IOException  if the initialization vector could not be written
+   */
+  private void writeIV() throws IOException {
+    byte[] data = new byte[Block.SIZE];
+    
+    Block.unpack(this.iv, data, 0);
+    
+    if (this.byteStream) {
+      write(this.out, data, data.length, 0);
+    } else {
+      byte[] text = new byte[Block.SIZE * BITS];
+      
+      CipherTextOutputStream.encode(data, 0, text, 0, data.length);
+      write(this.out, text, text.length, 0);
+    }
+  }
+  
+  /**
+   * Reads a single block from the given position of the channel.
+   * 
+   * @param channel     channel to read from
+   * @param position    position of the block
+   * @param byteStream  true if the block is held as bytes; false if it is held in bit form
+   * @return long       packed block
+   * @throws IOException  if the block could not be read
+   */
+  private static long readBlock(FileChannel channel, long position, boolean byteStream) throws IOException {
+    byte[] data = new byte[Block.SIZE];
+    
+    if (byteStream) {
+      read(channel, data, data.length, position);
+    } else {
+      byte[] text = new byte[Block.SIZE * BITS];
+      
+      read(channel, text, text.length, position);
+      CipherTextInputStream.decode(text, 0, data, 0, data.length);
+    }
+    
+    return Block.pack(data, 0);
+  }
+  
+  /**
+   * Reads the given number of bytes from the given position of the channel.
+   * 
+   * @param channel   channel to read from
+   * @param bytes     array to read into
+   * @param len       number of bytes to read
+   * @param position  position of the channel to start reading from
+   * @throws IOException  if the bytes could not be read
+   */
+  private static void read(FileChannel channel, byte[] bytes, int len, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+    
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position + buffer.position());
+      
+      if (count == -1) {
+        throw new EOFException("Unexpected end of file");
+      }
+    }
+  }
+  
+  /**
+   * Writes the given number of bytes to the given position of the channel.
+   * 
+   * @param channel   channel to write to
+   * @param bytes     array holding the bytes to be written
+   * @param len       number of bytes to write
+   * @param position  position of the channel to start writing at
+   * @throws IOException  if the bytes could not be written
+   */
+  private static void write(FileChannel channel, byte[] bytes, int len, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+    
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+  
+  /**
+   * ChunkTask processes a range of chunks, splitting it in half until a single
+   * chunk remains.
+   */
+  private class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final long firstChunk;
+    private final long lastChunk;
+    private final long blocks;
+    
+    /**
+     * Constructs a task processing the chunks between the given numbers.
+     * 
+     * @param firstChunk  number of the first chunk to process
+     * @param lastChunk   number of the chunk following the last chunk to process
+     * @param blocks      total number of blocks in the input
+     */
+    ChunkTask(long firstChunk, long lastChunk, long blocks) {
+      this.firstChunk = firstChunk;
+      this.lastChunk = lastChunk;
+      this.blocks = blocks;
+    }
+    
+    /**
+     * @see java.util.concurrent.RecursiveAction#compute()
+     */
+    protected void compute() {
+      if (this.lastChunk - this.firstChunk > 1) {
+        long middle = (this.firstChunk + this.lastChunk) >>> 1;
+        
+        invokeAll(new ChunkTask(this.firstChunk, middle, this.blocks),
+                  new ChunkTask(middle, this.lastChunk, this.blocks));
+      } else if (this.lastChunk > this.firstChunk) {
+        long firstBlock = this.firstChunk * CHUNK_BLOCKS;
+        int numBlocks = (int) Math.min(CHUNK_BLOCKS, this.blocks - firstBlock);
+        
+        try {
+          processChunk(firstBlock, numBlocks, 0, ChunkBuffers.get());
+        } catch (IOException ioe) {
+          throw new UncheckedIOException(ioe);
+        }
+      }
+    }
+  }
+}
@@ -92,9 +92,34 @@ public class Permutation {
    */
   public static final int[] LEFT_SHIFT_SCHEDULE = { 1, 1, 2, 2, 2, 2, 2, 2, 1, 2, 2, 2, 2, 2, 2, 1 };
   
+  /** Initial permutation compiled for a 64 bit block. */
+  public static final CompiledPermutation COMPILED_INITIAL_PERMUTATION =
+      new CompiledPermutation(INITIAL_PERMUTATION, 64);
+  
+  /** Inverse of the initial permutation compiled for a 64 bit block. */
+  public static final CompiledPermutation COMPILED_INITIAL_PERMUTATION_INVERSE =
+      new CompiledPermutation(INITIAL_PERMUTATION_INVERSE, 64);
+  
+  /** Expansion permutation compiled for the 32 bit right hand side of a block. */
+  public static final CompiledPermutation COMPILED_EXPANSION_PERMUTATION =
+      new CompiledPermutation(EXPANSION_PERMUTATION, 32);
+  
+  /** Permutation function compiled for the 32 bit output of the S-Box substitution. */
+  public static final CompiledPermutation COMPILED_PERMUTATION_FUNCTION =
+      new CompiledPermutation(PERMUTATION_FUNCTION, 32);
+  
+  /** Permuted Choice 1 compiled for a 64 bit key. */
+  public static final CompiledPermutation COMPILED_PERMUTED_CHOICE_1 =
+      new CompiledPermutation(PERMUTED_CHOICE_1, 64);
+  
+  /** Permuted Choice 2 compiled for the 56 bit output of the key rotations. */
+  public static final CompiledPermutation COMPILED_PERMUTED_CHOICE_2 =
+      new CompiledPermutation(PERMUTED_CHOICE_2, 56);
+  
   /**
    * Performs the given permutation function on the given array of bytes, and returns the
-   * result in an array of bytes.
+   * result in an array of bytes.  Permutation functions defined by this class are
+   * performed using their compiled form.
    * 
    * @param bytes         bytes to be permuted
    * @param permutationFunction permutation function to be applied
@@ -103,22 +128,90 @@ public class Permutation {
   public static byte[] permute(byte[] bytes, byte[] permutationFunction) {
     byte[] result = new byte[permutationFunction.length / 8];
     
+    permute(bytes, permutationFunction, result);
+    
+    return result;
+  }
+  
+  /**
+   * Performs the given permutation function on the given array of bytes, and writes the
+   * result into the start of the given array, without creating any objects.
+   * 
+   * @param bytes         bytes to be permuted
+   * @param permutationFunction permutation function to be applied
+   * @param result        array to write the permuted bytes to; must hold at least
+   *                      one byte for every 8 entries of the permutation function
+   */
+  public static void permute(byte[] bytes, byte[] permutationFunction, byte[] result) {
+    int length = permutationFunction.length / 8;
+    CompiledPermutation compiled = compiled(permutationFunction, bytes.length * 8);
+    
+    if (compiled != null) {
+      Block.unpack(compiled.permute(Block.pack(bytes, 0, bytes.length)), result, 0, length);
+      return;
+    }
+    
+    for (int i=0; i < length; i++) {
+      result[i] = 0;
+    }
+    
     for (int i=0; i < permutationFunction.length; i++) {
       int bitNum = (int) permutationFunction[i] - 1;
-      int byteNum = bitNum / 8;
-      int bitPos = bitNum % 8;
-      byte mask = (byte) Math.pow(2, (7 - bitPos));
-      
-      int permutedByteNum = i / 8;
-      int permutedBitPos = i % 8;
-      byte permutedMask = (byte) Math.pow(2, (7 - permutedBitPos));
       
-      result[permutedByteNum] |= (((bytes[byteNum] & mask) != 0) ? permutedMask : 0);     
+      if ((bytes[bitNum >>> 3] & (0x80 >>> (bitNum & 0x07))) != 0) {
+        result[i >>> 3] |= (byte) (0x80 >>> (i & 0x07));
+      }
+    }
+  }
+  
+  /**
+   * Performs the given permutation function on the given bits, which are held in
+   * the low order bits of a long with the first bit most significant, and returns
+   * the result in the same form.
+   * 
+   * @param bits          bits to be permuted
+   * @param width         number of bits held in bits
+   * @param permutationFunction permutation function to be applied
+   * @return long         permuted bits
+   */
+  public static long permute(long bits, int width, byte[] permutationFunction) {
+    long result = 0;
+    
+    for (int i=0; i < permutationFunction.length; i++) {
+      result = (result << 1) | ((bits >>> (width - permutationFunction[i])) & 1L);
     }
     
     return result;
   }
   
+  /**
+   * Returns the compiled form of the given permutation function if it is one
+   * defined by this class and was compiled for the given input width.
+   * 
+   * @param permutationFunction permutation function to look up
+   * @param width         number of input bits
+   * @return CompiledPermutation  compiled permutation, or null if there is none
+   */
+  private static CompiledPermutation compiled(byte[] permutationFunction, int width) {
+    CompiledPermutation compiled = null;
+    
+    if (permutationFunction == INITIAL_PERMUTATION) {
+      compiled = COMPILED_INITIAL_PERMUTATION;
+    } else if (permutationFunction == INITIAL_PERMUTATION_INVERSE) {
+      compiled = COMPILED_INITIAL_PERMUTATION_INVERSE;
+    } else if (permutationFunction == EXPANSION_PERMUTATION) {
+      compiled = COMPILED_EXPANSION_PERMUTATION;
+    } else if (permutationFunction == PERMUTATION_FUNCTION) {
+      compiled = COMPILED_PERMUTATION_FUNCTION;
+    } else if (permutationFunction == PERMUTED_CHOICE_1) {
+      compiled = COMPILED_PERMUTED_CHOICE_1;
+    } else if (permutationFunction == PERMUTED_CHOICE_2) {
+      compiled = COMPILED_PERMUTED_CHOICE_2;
+    }
+    
+    return (compiled != null && compiled.getWidth() == width) ? compiled : null;
+  }
+  
   // Make constructor private so that this class cannot be initialized.
   private Permutation() {}
 }
@@ -0,0 +1,442 @@
+package com.mjnrand.reviseddes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PipelinedFileCipher encrypts / decrypts a file through three stages running
+ * on their own threads: a reader filling large segments of the input, one or
+ * more cipher workers transforming the segments, and a writer draining the
+ * segments to the output in the order they were read.  The reader hands
+ * segments to the workers through a bounded queue, and segments are recycled
+ * from a fixed pool once written, so no memory is allocated once the pipeline
+ * is running and the disk and processors are kept busy at the same time.
+ * 
+ * Cipher text being decrypted must consist of whole blocks.
+ * 
+ * @author mark
+ */
+final class PipelinedFileCipher {
+  /** Number of blocks held by a single segment. */
+  static final int SEGMENT_BLOCKS = 1 << 16;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  /** Segment handed to a worker to tell it that there are no more segments. */
+  private static final Segment END = new Segment(0, true);
+  
+  private final FileChannel in;
+  private final FileChannel out;
+  private final KeySchedule schedule;
+  private final boolean encrypt;
+  private final boolean byteStream;
+  private final int workers;
+  private final ThreadFactory factory;
+  
+  /** Segments that are free to be read into. */
+  private final BlockingQueue<Segment> free;
+  
+  /** Segments that have been read and are waiting for a worker. */
+  private final BlockingQueue<Segment> read;
+  
+  /** Segments that have been transformed, indexed by their sequence number modulo the pool size. */
+  private final Segment[] done;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition transformed = this.lock.newCondition();
+  
+  private final Thread[] threads;
+  private volatile Throwable failure = null;
+  
+  /**
+   * Constructs a new pipeline over the given channels, allocating its pool of
+   * segments.
+   * 
+   * @param in          channel to read the input text from
+   * @param out         channel to write the output text to
+   * @param schedule    schedule of subkeys used to encrypt / decrypt each block
+   * @param encrypt     true to encrypt the input; false to decrypt it
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param workers     number of cipher workers
+   * @param factory     factory creating the thread of each stage
+   */
+  private PipelinedFileCipher(FileChannel in, FileChannel out, KeySchedule schedule,
+                              boolean encrypt, boolean byteStream, int workers, ThreadFactory factory) {
+    int segments = (2 * workers) + 2;
+    
+    this.in = in;
+    this.out = out;
+    this.schedule = schedule;
+    this.encrypt = encrypt;
+    this.byteStream = byteStream;
+    this.workers = workers;
+    this.factory = factory;
+    this.free = new ArrayBlockingQueue<Segment>(segments);
+    this.read = new ArrayBlockingQueue<Segment>(segments + workers);
+    this.done = new Segment[segments];
+    this.threads = new Thread[workers + 2];
+    
+    for (int i=0; i < segments; i++) {
+      this.free.add(new Segment(SEGMENT_BLOCKS, byteStream));
+    }
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel.  The last
+   * block is padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param workers     number of cipher workers
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, int workers) throws IOException {
+    encrypt(in, out, schedule, byteStream, workers, Thread::new);
+  }
+  
+  /**
+   * Encrypts the whole of the input channel into the output channel, running
+   * each stage on a thread created by the given factory.  The last block is
+   * padded with spaces.
+   * 
+   * @param in          channel to read the plain text from
+   * @param out         channel to write the cipher text to
+   * @param schedule    schedule of subkeys used to encrypt each block
+   * @param byteStream  output cipher text as a byte stream or bit stream
+   * @param workers     number of cipher workers
+   * @param factory     factory creating the thread of each stage
+   * @throws IOException  if the plain text could not be read or the cipher text written
+   */
+  static void encrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, int workers, ThreadFactory factory) throws IOException {
+    new PipelinedFileCipher(in, out, schedule, true, byteStream, workers, factory).run();
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel.  The
+   * cipher text must consist of whole blocks.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param workers     number of cipher workers
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, int workers) throws IOException {
+    decrypt(in, out, schedule, byteStream, workers, Thread::new);
+  }
+  
+  /**
+   * Decrypts the whole of the input channel into the output channel, running
+   * each stage on a thread created by the given factory.  The cipher text must
+   * consist of whole blocks.
+   * 
+   * @param in          channel to read the cipher text from
+   * @param out         channel to write the plain text to
+   * @param schedule    schedule of subkeys used to decrypt each block
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param workers     number of cipher workers
+   * @param factory     factory creating the thread of each stage
+   * @throws IOException  if the cipher text could not be read or the plain text written
+   */
+  static void decrypt(FileChannel in, FileChannel out, KeySchedule schedule,
+                      boolean byteStream, int workers, ThreadFactory factory) throws IOException {
+    new PipelinedFileCipher(in, out, schedule, false, byteStream, workers, factory).run();
+  }
+  
+  /**
+   * Starts every stage, and waits for the writer to drain the last segment or
+   * for any stage to fail.
+   * 
+   * @throws IOException  if any stage failed
+   */
+  private void run() throws IOException {
+    this.threads[0] = this.factory.newThread(new Runnable() {
+      public void run() {
+        try {
+          readSegments();
+        } catch (Throwable t) {
+          fail(t);
+        }
+      }
+    });
+    this.threads[0].setName("RevisedDES-reader");
+    
+    for (int i=0; i < this.workers; i++) {
+      this.threads[i + 1] = this.factory.newThread(new Runnable() {
+        public void run() {
+          try {
+            transformSegments();
+          } catch (Throwable t) {
+            fail(t);
+          }
+        }
+      });
+      this.threads[i + 1].setName("RevisedDES-cipher-" + i);
+    }
+    
+    this.threads[this.workers + 1] = this.factory.newThread(new Runnable() {
+      public void run() {
+        try {
+          writeSegments();
+        } catch (Throwable t) {
+          fail(t);
+        }
+      }
+    });
+    this.threads[this.workers + 1].setName("RevisedDES-writer");
+    
+    for (Thread thread : this.threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+    
+    try {
+      for (Thread thread : this.threads) {
+        thread.join();
+      }
+    } catch (InterruptedException ie) {
+      this.fail(ie);
+      Thread.currentThread().interrupt();
+    }
+    
+    if (this.failure instanceof IOException) {
+      throw (IOException) this.failure;
+    } else if (this.failure != null) {
+      throw new IOException(this.failure);
+    }
+  }
+  
+  /**
+   * Records the first failure of any stage, and interrupts every stage so that
+   * none is left waiting on another.
+   * 
+   * @param t   cause of the failure
+   */
+  private synchronized void fail(Throwable t) {
+    if (this.failure != null) {
+      return;
+    }
+    
+    this.failure = t;
+    
+    for (Thread thread : this.threads) {
+      if (thread != Thread.currentThread()) {
+        thread.interrupt();
+      }
+    }
+  }
+  
+  /**
+   * Reader stage: fills free segments from the input in order until the end
+   * of the input is reached.
+   * 
+   * @throws IOException  if the input could not be read
+   * @throws InterruptedException  if another stage failed
+   */
+  private void readSegments() throws IOException, InterruptedException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long sequence = 0;
+    boolean last = false;
+    
+    while (!last) {
+      Segment segment = this.free.take();
+      long start = metrics.start();
+      
+      if (this.encrypt) {
+        int count = fill(this.in, segment.dataBuffer);
+        
+        segment.length = (count + Block.SIZE - 1) & -Block.SIZE;
+        Arrays.fill(segment.data, count, segment.length, (byte) ' ');
+        last = (count < segment.data.length);
+      } else if (this.byteStream) {
+        int count = fill(this.in, segment.dataBuffer);
+        
+        segment.length = count;
+        last = (count < segment.data.length);
+      } else {
+        int count = fill(this.in, segment.textBuffer);
+        
+        segment.length = count / BITS;
+        last = (count < segment.text.length);
+      }
+      
+      metrics.read(((this.encrypt || this.byteStream) ? segment.dataBuffer : segment.textBuffer).position(), start);
+      segment.sequence = sequence++;
+      segment.last = last;
+      this.read.put(segment);
+    }
+    
+    for (int i=0; i < this.workers; i++) {
+      this.read.put(END);
+    }
+  }
+  
+  /**
+   * Cipher stage: transforms segments as they are read, until the reader has
+   * no more segments.
+   * 
+   * @throws IOException  if the cipher text is not valid
+   * @throws InterruptedException  if another stage failed
+   */
+  private void transformSegments() throws IOException, InterruptedException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    BlockEngine engine = BlockEngines.create(this.schedule, SEGMENT_BLOCKS);
+    
+    while (true) {
+      Segment segment = this.read.take();
+      
+      if (segment == END) {
+        return;
+      }
+      
+      int numBlocks = segment.length / Block.SIZE;
+      long start = metrics.start();
+      
+      if (!this.encrypt && !this.byteStream) {
+        CipherTextInputStream.decode(segment.text, 0, segment.data, 0, segment.length);
+      }
+      
+      for (int i=0; i < numBlocks; i++) {
+        segment.blocks[i] = Block.pack(segment.data, i * Block.SIZE);
+      }
+      
+      if (this.encrypt) {
+        engine.encrypt(segment.blocks, 0, numBlocks);
+      } else {
+        engine.decrypt(segment.blocks, 0, numBlocks);
+      }
+      
+      for (int i=0; i < numBlocks; i++) {
+        Block.unpack(segment.blocks[i], segment.data, i * Block.SIZE);
+      }
+      
+      if (this.encrypt && !this.byteStream) {
+        CipherTextOutputStream.encode(segment.data, 0, segment.text, 0, segment.length);
+      }
+      
+      metrics.processed(this.encrypt, numBlocks, start);
+      this.lock.lock();
+      
+      try {
+        this.done[(int) (segment.sequence % this.done.length)] = segment;
+        this.transformed.signalAll();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+  
+  /**
+   * Writer stage: writes transformed segments in the order they were read, and
+   * returns each segment to the pool once written.
+   * 
+   * @throws IOException  if the output could not be written
+   * @throws InterruptedException  if another stage failed
+   */
+  private void writeSegments() throws IOException, InterruptedException {
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    
+    for (long sequence=0; ; sequence++) {
+      int slot = (int) (sequence % this.done.length);
+      Segment segment;
+      
+      this.lock.lock();
+      
+      try {
+        while (this.done[slot] == null) {
+          this.transformed.await();
+        }
+        
+        segment = this.done[slot];
+        this.done[slot] = null;
+      } finally {
+        this.lock.unlock();
+      }
+      
+      ByteBuffer buffer = (this.encrypt && !this.byteStream) ? segment.textBuffer : segment.dataBuffer;
+      
+      long start = metrics.start();
+      
+      buffer.clear().limit(segment.length * ((buffer == segment.textBuffer) ? BITS : 1));
+      
+      while (buffer.hasRemaining()) {
+        this.out.write(buffer);
+      }
+      
+      metrics.written(buffer.limit(), start);
+      
+      if (segment.last) {
+        return;
+      }
+      
+      this.free.put(segment);
+    }
+  }
+  
+  /**
+   * Reads from the channel until the buffer is full or the end of the channel
+   * is reached.
+   * 
+   * @param channel   channel to read from
+   * @param buffer    buffer to fill from its start
+   * @return int      number of bytes read
+   * @throws IOException  if the channel could not be read
+   */
+  private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    
+    while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+      // Keep reading until the buffer is full or the channel is exhausted.
+    }
+    
+    return buffer.position();
+  }
+  
+  /**
+   * Segment holds a run of consecutive blocks as it passes through the stages,
+   * along with the buffers used to read and write it.
+   */
+  private static final class Segment {
+    final byte[] data;
+    final byte[] text;
+    final long[] blocks;
+    final ByteBuffer dataBuffer;
+    final ByteBuffer textBuffer;
+    
+    /** Position of the segment in the input. */
+    long sequence;
+    
+    /** Number of plain text / cipher text bytes held; a multiple of the block size. */
+    int length;
+    
+    /** True if this is the last segment of the input. */
+    boolean last;
+    
+    /**
+     * Allocates a segment for the given number of blocks.
+     * 
+     * @param numBlocks   number of blocks the segment can hold
+     * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+     */
+    Segment(int numBlocks, boolean byteStream) {
+      this.data = new byte[numBlocks * Block.SIZE];
+      this.text = (byteStream) ? null : new byte[numBlocks * Block.SIZE * BITS];
+      this.blocks = new long[numBlocks];
+      this.dataBuffer = ByteBuffer.wrap(this.data);
+      this.textBuffer = (byteStream) ? null : ByteBuffer.wrap(this.text);
+    }
+  }
+}
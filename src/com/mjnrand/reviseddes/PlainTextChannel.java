@@ -0,0 +1,378 @@
+package com.mjnrand.reviseddes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PlainTextChannel is a read only, seekable view of the plain text of a cipher
+ * text file, written as a stream of bytes or of bits in any {@link Chaining}
+ * mode.  Every block can be decrypted on its own given at most the cipher text
+ * block before it (CBC) or its number (CTR), so a read decrypts only the blocks
+ * covering the bytes requested, wherever they lie in the file.
+ * 
+ * Blocks are read and decrypted a page of 512 blocks (4 KB of plain text) at a
+ * time, and the most recently used pages are kept in a small cache, so that
+ * nearby and repeated reads do not touch the file again.  The plain text
+ * includes any padding at the end of the last block, as written by
+ * {@link RevisedDES#decrypt(String, String, Key, boolean)}.  Cipher text
+ * written by {@link RevisedDES#encryptCompressed(String, String, Key, boolean)}
+ * is not inflated, since a Deflate stream cannot be read from the middle: the
+ * channel presents its compressed plain text, marker and all, exactly as
+ * decrypting it without -g does.  A channel holds its position and cache, so
+ * it must not be shared between threads.
+ * 
+ * @author mark
+ */
+public final class PlainTextChannel implements SeekableByteChannel {
+  /** Number of blocks read and decrypted together. */
+  public static final int PAGE_BLOCKS = 512;
+  
+  /** Number of pages held by the cache. */
+  public static final int CACHE_PAGES = 16;
+  
+  /** Number of plain text bytes in a page. */
+  private static final int PAGE_SIZE = PAGE_BLOCKS * Block.SIZE;
+  
+  /** Number of characters used to write a single byte in bit form. */
+  private static final int BITS = 8;
+  
+  private final FileChannel channel;
+  private final BlockEngine engine;
+  private final boolean byteStream;
+  private final int chaining;
+  private final long iv;
+  private final long size;
+  private final Map<Long, byte[]> pages;
+  private final long[] blocks = new long[PAGE_BLOCKS];
+  private final long[] scratch = new long[PAGE_BLOCKS];
+  private final byte[] single = new byte[Block.SIZE];
+  private final byte[] text;
+  private byte[] spare = null;
+  private long position = 0;
+  private long hits = 0;
+  private long misses = 0;
+  
+  /**
+   * Opens a channel on the given cipher text file using the subkeys of the
+   * given key.  The subkeys must already have been generated.
+   * 
+   * @param cipherTextFile  cipher text file to be read
+   * @param key             key the file was encrypted with
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining        chaining mode the file was encrypted in, as defined by {@link Chaining}
+   * @throws IOException    if the file could not be opened, or its initialization vector read
+   */
+  public PlainTextChannel(Path cipherTextFile, Key key, boolean byteStream, int chaining) throws IOException {
+    this(cipherTextFile, key.getSchedule(), byteStream, chaining);
+  }
+  
+  /**
+   * Opens a channel on the given cipher text file using the subkeys of the
+   * given schedule.  Unless the mode is ECB, the initialization vector is read
+   * from the start of the file.
+   * 
+   * @param cipherTextFile  cipher text file to be read
+   * @param schedule        schedule of subkeys of the key the file was encrypted with
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining        chaining mode the file was encrypted in, as defined by {@link Chaining}
+   * @throws IOException    if the file could not be opened, or its initialization vector read
+   */
+  public PlainTextChannel(Path cipherTextFile, KeySchedule schedule, boolean byteStream, int chaining) throws IOException {
+    long length = 0;
+    
+    this.channel = FileChannel.open(cipherTextFile, StandardOpenOption.READ);
+    this.engine = BlockEngines.create(schedule, PAGE_BLOCKS);
+    this.byteStream = byteStream;
+    this.chaining = chaining;
+    this.text = new byte[PAGE_SIZE * (byteStream ? 1 : BITS)];
+    this.pages = new LinkedHashMap<Long, byte[]>(CACHE_PAGES, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      
+      protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+        if (size() > CACHE_PAGES) {
+          PlainTextChannel.this.spare = eldest.getValue();
+          return true;
+        }
+        
+        return false;
+      }
+    };
+    
+    try {
+      length = (this.channel.size() / (byteStream ? 1 : BITS)) / Block.SIZE * Block.SIZE;
+      
+      if (chaining != Chaining.ECB) {
+        if (length < Block.SIZE) {
+          throw new EOFException("Missing initialization vector");
+        }
+        
+        length -= Block.SIZE;
+      }
+      
+      this.size = length;
+      this.iv = (chaining == Chaining.ECB) ? 0 : this.readBlock(-1);
+    } catch (IOException ioe) {
+      this.channel.close();
+      throw ioe;
+    }
+  }
+  
+  /**
+   * Reads plain text from the current position into the given buffer,
+   * decrypting any pages not already cached.
+   * 
+   * @see java.nio.channels.SeekableByteChannel#read(java.nio.ByteBuffer)
+   */
+  public int read(ByteBuffer dst) throws IOException {
+    int count = 0;
+    
+    this.checkOpen();
+    
+    if (this.position >= this.size) {
+      return (dst.hasRemaining()) ? -1 : 0;
+    }
+    
+    while (dst.hasRemaining() && this.position < this.size) {
+      long page = this.position / PAGE_SIZE;
+      int off = (int) (this.position % PAGE_SIZE);
+      int len = (int) Math.min(Math.min(dst.remaining(), PAGE_SIZE - off), this.size - this.position);
+      
+      dst.put(this.page(page), off, len);
+      this.position += len;
+      count += len;
+    }
+    
+    return count;
+  }
+  
+  /**
+   * Reads plain text from the given position into the given buffer, without
+   * moving the position of this channel.
+   * 
+   * @param dst       buffer to read the plain text into
+   * @param position  position of the plain text to start reading from
+   * @return int      number of bytes read, or -1 if the position is at or past the end
+   * @throws IOException  if the cipher text could not be read
+   */
+  public int read(ByteBuffer dst, long position) throws IOException {
+    long current = this.position;
+    
+    this.position(position);
+    
+    try {
+      return this.read(dst);
+    } finally {
+      this.position = current;
+    }
+  }
+  
+  /**
+   * Always throws, as the channel is read only.
+   * 
+   * @see java.nio.channels.SeekableByteChannel#write(java.nio.ByteBuffer)
+   */
+  public int write(ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+  
+  /**
+   * @see java.nio.channels.SeekableByteChannel#position()
+   */
+  public long position() throws IOException {
+    this.checkOpen();
+    return this.position;
+  }
+  
+  /**
+   * @see java.nio.channels.SeekableByteChannel#position(long)
+   */
+  public PlainTextChannel position(long newPosition) throws IOException {
+    this.checkOpen();
+    
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("Position must not be negative");
+    }
+    
+    this.position = newPosition;
+    return this;
+  }
+  
+  /**
+   * Returns the number of plain text bytes, including any padding.
+   * 
+   * @see java.nio.channels.SeekableByteChannel#size()
+   */
+  public long size() throws IOException {
+    this.checkOpen();
+    return this.size;
+  }
+  
+  /**
+   * Always throws, as the channel is read only.
+   * 
+   * @see java.nio.channels.SeekableByteChannel#truncate(long)
+   */
+  public PlainTextChannel truncate(long size) {
+    throw new NonWritableChannelException();
+  }
+  
+  /**
+   * @see java.nio.channels.Channel#isOpen()
+   */
+  public boolean isOpen() {
+    return this.channel.isOpen();
+  }
+  
+  /**
+   * Closes the cipher text file and empties the cache.
+   * 
+   * @see java.nio.channels.Channel#close()
+   */
+  public void close() throws IOException {
+    this.pages.clear();
+    this.channel.close();
+  }
+  
+  /**
+   * Returns the number of pages found in the cache.
+   * 
+   * @return long   number of hits
+   */
+  public long getHits() {
+    return this.hits;
+  }
+  
+  /**
+   * Returns the number of pages that had to be read and decrypted.
+   * 
+   * @return long   number of misses
+   */
+  public long getMisses() {
+    return this.misses;
+  }
+  
+  /**
+   * Returns the plain text of the given page, reading and decrypting it and
+   * adding it to the cache if it is not already cached.
+   * 
+   * @param page      number of the page
+   * @return byte[]   plain text of the page
+   * @throws IOException  if the cipher text could not be read
+   */
+  private byte[] page(long page) throws IOException {
+    Long p = Long.valueOf(page);
+    byte[] data = this.pages.get(p);
+    
+    if (data != null) {
+      this.hits++;
+      return data;
+    }
+    
+    this.misses++;
+    
+    long firstBlock = page * PAGE_BLOCKS;
+    int numBlocks = (int) Math.min(PAGE_BLOCKS, (this.size / Block.SIZE) - firstBlock);
+    
+    data = (this.spare != null) ? this.spare : new byte[PAGE_SIZE];
+    this.spare = null;
+    
+    this.readCipherText(data, numBlocks * Block.SIZE, firstBlock);
+    
+    for (int i=0; i < numBlocks; i++) {
+      this.blocks[i] = Block.pack(data, i * Block.SIZE);
+    }
+    
+    if (this.chaining == Chaining.CBC) {
+      long chain = (firstBlock == 0) ? this.iv : this.readBlock(firstBlock - 1);
+      
+      Chaining.decryptCBC(this.engine, this.blocks, this.scratch, 0, numBlocks, chain);
+    } else if (this.chaining == Chaining.CTR) {
+      Chaining.applyCTR(this.engine, this.blocks, this.scratch, 0, numBlocks, this.iv + firstBlock);
+    } else {
+      this.engine.decrypt(this.blocks, 0, numBlocks);
+    }
+    
+    for (int i=0; i < numBlocks; i++) {
+      Block.unpack(this.blocks[i], data, i * Block.SIZE);
+    }
+    
+    this.pages.put(p, data);
+    
+    return data;
+  }
+  
+  /**
+   * Reads the given number of cipher text bytes, starting with the given block,
+   * decoding them from bit form if needed.
+   * 
+   * @param data        array to read the cipher text bytes into
+   * @param len         number of bytes to read
+   * @param firstBlock  number of the first block to read; -1 for the initialization vector
+   * @throws IOException  if the cipher text could not be read
+   */
+  private void readCipherText(byte[] data, int len, long firstBlock) throws IOException {
+    long offset = (this.chaining == Chaining.ECB) ? 0 : Block.SIZE;
+    long position = (offset + (firstBlock * Block.SIZE)) * (this.byteStream ? 1 : BITS);
+    
+    if (this.byteStream) {
+      read(this.channel, data, len, position);
+    } else {
+      read(this.channel, this.text, len * BITS, position);
+      CipherTextInputStream.decode(this.text, 0, data, 0, len);
+    }
+  }
+  
+  /**
+   * Reads a single cipher text block.
+   * 
+   * @param block   number of the block; -1 for the initialization vector
+   * @return long   packed cipher text block
+   * @throws IOException  if the block could not be read
+   */
+  private long readBlock(long block) throws IOException {
+    this.readCipherText(this.single, Block.SIZE, block);
+    
+    return Block.pack(this.single, 0);
+  }
+  
+  /**
+   * Reads the given number of bytes from the given position of the channel.
+   * 
+   * @param channel   channel to read from
+   * @param bytes     array to read into
+   * @param len       number of bytes to read
+   * @param position  position of the channel to start reading from
+   * @throws IOException  if the bytes could not be read
+   */
+  private static void read(FileChannel channel, byte[] bytes, int len, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+    
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position + buffer.position());
+      
+      if (count == -1) {
+        throw new EOFException("Unexpected end of cipher text");
+      }
+    }
+  }
+  
+  /**
+   * Checks that the channel has not been closed.
+   * 
+   * @throws ClosedChannelException   if the channel has been closed
+   */
+  private void checkOpen() throws ClosedChannelException {
+    if (!this.channel.isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -6,6 +6,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipException;
 
 /**
  * RevisedDES simply provides static methods for encrypting a plain text message
@@ -14,6 +23,15 @@ import java.io.IOException;
  * @author mark
  */
 public class RevisedDES {
+  /** Channel based method processing chunks of the file in parallel. */
+  private static final int PARALLEL_IO = 0;
+  
+  /** Channel based method processing the file through memory mapped regions. */
+  private static final int MAPPED_IO = 1;
+  
+  /** Channel based method processing the file through reader, cipher and writer stages. */
+  private static final int PIPELINED_IO = 2;
+  
   /**
    * Constructor is private in order to prevent instances of this class
    * from being created.
@@ -30,15 +48,49 @@ public class RevisedDES {
    * @param byteStream    output cipher text as a byte stream or bit stream
    */
   public static void encrypt(String plainTextFile, String cipherTextFile, Key key, boolean byteStream) {
+    encrypt(plainTextFile, cipherTextFile, key, byteStream, false);
+  }
+  
+  /**
+   * Compresses the plain text file with the given file name with Deflate as it
+   * is read, and encrypts the result using the provided key.  The cipher text
+   * must be decrypted with {@link #decryptCompressed(String, String, Key, boolean)}.
+   * 
+   * @param plainTextFile   name of the plain text file to compress and encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   */
+  public static void encryptCompressed(String plainTextFile, String cipherTextFile, Key key, boolean byteStream) {
+    encrypt(plainTextFile, cipherTextFile, key, byteStream, true);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key one block at a time through streams, first compressing it if asked.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   * @param compress    true to compress the plain text before it is encrypted
+   */
+  private static void encrypt(String plainTextFile, String cipherTextFile, Key key, boolean byteStream, boolean compress) {
     BufferedInputStream bis = null;
     BufferedOutputStream bos = null;
-    byte[] plainTextBlock = { 0, 0, 0, 0, 0, 0, 0, 0 };
-    byte[] cipherTextBlock = null;
+    PackedBlockEngine engine = new PackedBlockEngine(key);
+    byte[] block = { 0, 0, 0, 0, 0, 0, 0, 0 };
     int count = 0;
     boolean stillReading = true;
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long start = metrics.start();
+    long blocks = 0;
+    long bytes = 0;
     
     try {
-      bis = new BufferedInputStream(new FileInputStream(plainTextFile));
+      InputStream is = new FileInputStream(plainTextFile);
+      
+      bis = new BufferedInputStream((compress) ? Compression.compress(is) : is);
     } catch (FileNotFoundException fnfe) {
       System.out.println("[ERROR]  File being encrypted does not exist.");
       return;
@@ -59,27 +111,25 @@ public class RevisedDES {
     
     try {
       while (stillReading) {
-        count = bis.read(plainTextBlock);
+        count = bis.readNBytes(block, 0, block.length);
+        
+        if (count == 0) {
+          break;
+        }
         
         if (count < 8) {
           for (int i=count; i < 8; i++) {
-            plainTextBlock[i] = ' ';
+            block[i] = ' ';
           }
           
           stillReading = false;
         }
         
-        cipherTextBlock = performInitialPermutation(plainTextBlock);
+        engine.encrypt(block, 0, block, 0);
         
-        for (int i=0; i < 16; i++) {
-          FeistelRound round = new FeistelRound(cipherTextBlock, key.getSubKey(i));
-          cipherTextBlock = round.execute();
-        }
-        
-        cipherTextBlock = swap(cipherTextBlock);
-        cipherTextBlock = performInverseInitialPermutation(cipherTextBlock);
-        
-        bos.write(cipherTextBlock);
+        bos.write(block);
+        blocks++;
+        bytes += count;
       }
     } catch (IOException ioe) {
       try {
@@ -104,6 +154,9 @@ public class RevisedDES {
     } catch (IOException ioe) {
       System.out.println("[ERROR]  Unable to close input / output stream.");
     }
+    
+    metrics.transferred(true, blocks, bytes, blocks * Block.SIZE * ((byteStream) ? 1 : 8), start);
+    metrics.completed(true, start);
   }
   
   /**
@@ -115,11 +168,56 @@ public class RevisedDES {
    * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
    */
   public static void decrypt(String cipherTextFile, String plainTextFile, Key key, boolean byteStream) {
+    try {
+      decryptStream(cipherTextFile, plainTextFile, key, byteStream, false);
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  " + ioe.getMessage());
+    }
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name, written by
+   * {@link #encryptCompressed(String, String, Key, boolean)}, using the provided
+   * key, and inflates the plain text as it is decrypted.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   */
+  public static void decryptCompressed(String cipherTextFile, String plainTextFile, Key key, boolean byteStream) {
+    try {
+      decryptStream(cipherTextFile, plainTextFile, key, byteStream, true);
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  " + ioe.getMessage());
+    }
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key,
+   * one block at a time through streams, then inflating it if asked, reporting
+   * any failure by throwing an exception instead of printing it.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param decompress      true to inflate the plain text after it is decrypted
+   * @throws IOException  if either file could not be opened, read, written or closed
+   * @throws ZipException  if the plain text to be inflated is not compressed, or is corrupt
+   */
+  static void decryptStream(String cipherTextFile, String plainTextFile, Key key, boolean byteStream,
+                            boolean decompress) throws IOException {
     BufferedInputStream bis = null;
     BufferedOutputStream bos = null;
+    PackedBlockEngine engine = new PackedBlockEngine(key);
     byte[] cipherTextBlock = { 0, 0, 0, 0, 0, 0, 0, 0 };
-    byte[] plainTextBlock = null;
+    byte[] plainTextBlock = { 0, 0, 0, 0, 0, 0, 0, 0 };
     int count = 0;
+    CipherMetrics metrics = CipherMetrics.getInstance();
+    long start = metrics.start();
+    long blocks = 0;
+    long bytes = 0;
     
     try {
       if (!byteStream) {
@@ -130,103 +228,607 @@ public class RevisedDES {
         bis = new BufferedInputStream(new FileInputStream(cipherTextFile));
       }
     } catch (FileNotFoundException fnfe) {
-      System.out.println("[ERROR]  File being decrypted does not exist.");
-      return;
+      throw new IOException("File being decrypted does not exist.", fnfe);
     }
     
     try {
-      bos = new BufferedOutputStream(new FileOutputStream(plainTextFile));
+      OutputStream os = new FileOutputStream(plainTextFile);
+      
+      bos = new BufferedOutputStream((decompress) ? Compression.decompress(os) : os);
     } catch (FileNotFoundException fnfe) {
-      System.out.println("[ERROR]  Output plain text file could not be opened.");
-      return;
+      closeQuietly(bis, null);
+      throw new IOException("Output plain text file could not be opened.", fnfe);
     }     
     
     try {
       while (true) {
-        count = bis.read(cipherTextBlock);
+        count = bis.readNBytes(cipherTextBlock, 0, cipherTextBlock.length);
         
-        if (count == -1) {
+        if (count == 0) {
           break;
         }
         
-        plainTextBlock = performInitialPermutation(cipherTextBlock);
-        
-        for (int i=0; i < 16; i++) {
-          FeistelRound round = new FeistelRound(plainTextBlock, key.getSubKey((16 - i) - 1));
-          plainTextBlock = round.execute();
-        }
-        
-        plainTextBlock = swap(plainTextBlock);
-        plainTextBlock = performInverseInitialPermutation(plainTextBlock);
+        engine.decrypt(cipherTextBlock, 0, plainTextBlock, 0);
         
-        bos.write(plainTextBlock);      
+        bos.write(plainTextBlock);
+        blocks++;
+        bytes += count;
       }
+    } catch (ZipException ze) {
+      closeQuietly(bis, bos);
+      throw ze;
     } catch (IOException ioe) {
-      try {
-        if (bis != null) {
-          bis.close();
-        }
-        
-        if (bos != null) {
-          bos.close();
-        }
-      } catch (IOException e) {
-        System.out.println("[ERROR]  Unable to close input / output stream.");        
-        return;
+      closeQuietly(bis, bos);
+      throw new IOException("Unable to read from ciphertext file.", ioe);
+    }
+    
+    try {
+      bis.close();
+      bos.close();
+    } catch (ZipException ze) {
+      closeQuietly(bis, bos);
+      throw ze;
+    } catch (IOException ioe) {
+      closeQuietly(bis, bos);
+      throw new IOException("Unable to close input / output stream.", ioe);
+    }
+    
+    metrics.transferred(false, blocks, bytes * ((byteStream) ? 1 : 8), blocks * Block.SIZE, start);
+    metrics.completed(false, start);
+  }
+  
+  /**
+   * Closes the given input / output streams after a failure, either of which
+   * may be null, ignoring any further failure.
+   * 
+   * @param in    input stream to close
+   * @param out   output stream to close
+   */
+  private static void closeQuietly(InputStream in, OutputStream out) {
+    try {
+      if (in != null) {
+        in.close();
       }
-      
-      System.out.println("[ERROR]  Unable to read from ciphertext file.");      
-      return;
+    } catch (IOException ioe) {
+      // The failure that led here is the one reported.
     }
     
     try {
-      if (bis != null) {
-        bis.close();
+      if (out != null) {
+        out.close();
       }
+    } catch (IOException ioe) {
+      // The failure that led here is the one reported.
+    }
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key in the given chaining mode.  Unless the mode is ECB, a random
+   * initialization vector is generated and written at the start of the cipher
+   * text.  Every mode other than CBC processes large chunks of the file in
+   * parallel on the common fork-join pool.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   */
+  public static void encrypt(String plainTextFile, String cipherTextFile, Key key, boolean byteStream, int chaining) {
+    processChannels(plainTextFile, cipherTextFile, key, byteStream, true, PARALLEL_IO, chaining);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key
+   * in the given chaining mode.  Unless the mode is ECB, the cipher text must
+   * begin with the initialization vector.  Every mode processes large chunks
+   * of the file in parallel on the common fork-join pool.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining      chaining mode, as defined by {@link Chaining}
+   */
+  public static void decrypt(String cipherTextFile, String plainTextFile, Key key, boolean byteStream, int chaining) {
+    processChannels(cipherTextFile, plainTextFile, key, byteStream, false, PARALLEL_IO, chaining);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key, processing large chunks of the file in parallel on the common
+   * fork-join pool.  The cipher text is identical to that written by
+   * {@link #encrypt(String, String, Key, boolean)}.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   */
+  public static void encryptParallel(String plainTextFile, String cipherTextFile, Key key, boolean byteStream) {
+    processChannels(plainTextFile, cipherTextFile, key, byteStream, true, PARALLEL_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key,
+   * processing large chunks of the file in parallel on the common fork-join
+   * pool.  The plain text is identical to that written by
+   * {@link #decrypt(String, String, Key, boolean)}; cipher text that does not
+   * consist of whole blocks is decrypted one block at a time.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   */
+  public static void decryptParallel(String cipherTextFile, String plainTextFile, Key key, boolean byteStream) {
+    processChannels(cipherTextFile, plainTextFile, key, byteStream, false, PARALLEL_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key, mapping both files into memory and encrypting the blocks directly in
+   * the mapped regions.  The cipher text is identical to that written by
+   * {@link #encrypt(String, String, Key, boolean)}.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   */
+  public static void encryptMapped(String plainTextFile, String cipherTextFile, Key key, boolean byteStream) {
+    processChannels(plainTextFile, cipherTextFile, key, byteStream, true, MAPPED_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key,
+   * mapping both files into memory and decrypting the blocks directly in the
+   * mapped regions.  The plain text is identical to that written by
+   * {@link #decrypt(String, String, Key, boolean)}; cipher text that does not
+   * consist of whole blocks is decrypted one block at a time.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   */
+  public static void decryptMapped(String cipherTextFile, String plainTextFile, Key key, boolean byteStream) {
+    processChannels(cipherTextFile, plainTextFile, key, byteStream, false, MAPPED_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key, through a pipeline of a reader, a cipher worker for each available
+   * processor and a writer running at the same time on their own threads.
+   * The cipher text is identical to that written by
+   * {@link #encrypt(String, String, Key, boolean)}.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   */
+  public static void encryptPipelined(String plainTextFile, String cipherTextFile, Key key, boolean byteStream) {
+    processChannels(plainTextFile, cipherTextFile, key, byteStream, true, PIPELINED_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key,
+   * through a pipeline of a reader, a cipher worker for each available
+   * processor and a writer running at the same time on their own threads.
+   * The plain text is identical to that written by
+   * {@link #decrypt(String, String, Key, boolean)}; cipher text that does not
+   * consist of whole blocks is decrypted one block at a time.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   */
+  public static void decryptPipelined(String cipherTextFile, String plainTextFile, Key key, boolean byteStream) {
+    processChannels(cipherTextFile, plainTextFile, key, byteStream, false, PIPELINED_IO, Chaining.ECB);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key, through asynchronous channels keeping the given number of reads in
+   * flight ahead of the cipher and the same number of writes in flight behind
+   * it, each at its own offset in the file.  The cipher text is identical to
+   * that written by {@link #encrypt(String, String, Key, boolean)}.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key       key to be used for encrypting the file
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   * @param depth     number of reads and of writes to keep in flight; at least 1
+   */
+  public static void encryptAsync(String plainTextFile, String cipherTextFile, Key key, boolean byteStream, int depth) {
+    processAsync(plainTextFile, cipherTextFile, key, byteStream, true, depth);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name using the provided key,
+   * through asynchronous channels keeping the given number of reads in flight
+   * ahead of the cipher and the same number of writes in flight behind it, each
+   * at its own offset in the file.  The plain text is identical to that written
+   * by {@link #decrypt(String, String, Key, boolean)}; cipher text that does not
+   * consist of whole blocks is decrypted one block at a time.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the cipher text
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param depth       number of reads and of writes to keep in flight; at least 1
+   */
+  public static void decryptAsync(String cipherTextFile, String plainTextFile, Key key, boolean byteStream, int depth) {
+    processAsync(cipherTextFile, plainTextFile, key, byteStream, false, depth);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name with Triple Revised
+   * DES: each block is encrypted with the first key, decrypted with the second
+   * and encrypted with the third.  All 48 rounds are performed in a single pass
+   * over the file, processing large chunks of it in parallel on the common
+   * fork-join pool.  The cipher text is laid out in the same way as that
+   * written by {@link #encrypt(String, String, Key, boolean, int)}.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the file in which to output the encrypted cipher text
+   * @param key1      key of the first encryption stage
+   * @param key2      key of the decryption stage
+   * @param key3      key of the second encryption stage
+   * @param byteStream    output cipher text as a byte stream or bit stream
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   */
+  public static void encryptTriple(String plainTextFile, String cipherTextFile, Key key1, Key key2, Key key3,
+                                   boolean byteStream, int chaining) {
+    processChannels(plainTextFile, cipherTextFile, new Key[] { key1, key2, key3 }, byteStream, true, PARALLEL_IO, chaining);
+  }
+  
+  /**
+   * Decrypts the cipher text file with the given name with Triple Revised DES:
+   * each block is decrypted with the third key, encrypted with the second and
+   * decrypted with the first.  All 48 rounds are performed in a single pass over
+   * the file, processing large chunks of it in parallel on the common fork-join
+   * pool.  The cipher text must consist of whole blocks.
+   * 
+   * @param cipherTextFile    name of the cipher text file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key1        key of the first encryption stage
+   * @param key2        key of the decryption stage
+   * @param key3        key of the second encryption stage
+   * @param byteStream      true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param chaining      chaining mode, as defined by {@link Chaining}
+   */
+  public static void decryptTriple(String cipherTextFile, String plainTextFile, Key key1, Key key2, Key key3,
+                                   boolean byteStream, int chaining) {
+    processChannels(cipherTextFile, plainTextFile, new Key[] { key1, key2, key3 }, byteStream, false, PARALLEL_IO, chaining);
+  }
+  
+  /**
+   * Encrypts the plain text file with the given file name using the provided
+   * key into a framed container recording the chaining mode, the length of
+   * the file and a CRC32C of each chunk, processing the chunks in parallel on
+   * the common fork-join pool.  When resuming, only the chunks that the
+   * container left by an interrupted encryption of the same file with the same
+   * key does not hold intact are encrypted.
+   * 
+   * @param plainTextFile   name of the plain text file to encrypt
+   * @param cipherTextFile  name of the container file to write
+   * @param key       key to be used for encrypting the file
+   * @param chaining    chaining mode, as defined by {@link Chaining}
+   * @param resume      true to resume an interrupted encryption into the container file
+   */
+  public static void encryptContainer(String plainTextFile, String cipherTextFile, Key key, int chaining, boolean resume) {
+    FileChannel in = null;
+    FileChannel out = null;
+    long start = CipherMetrics.getInstance().start();
+    
+    try {
+      in = FileChannel.open(Paths.get(plainTextFile), StandardOpenOption.READ);
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  File being encrypted does not exist.");
+      return;
+    }
+    
+    try {
+      out = FileChannel.open(Paths.get(cipherTextFile), StandardOpenOption.CREATE,
+                             StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println("[ERROR]  Output cipher text file could not be opened.");
+      return;
+    }
+    
+    try {
+      ContainerFileCipher.encrypt(in, out, key.getSchedule(), chaining, resume, ForkJoinPool.commonPool());
+    } catch (IOException ioe) {
+      close(in, out);
+      System.out.println("[ERROR]  Unable to encrypt into container: " + ioe.getMessage());
+      return;
+    }
+    
+    close(in, out);
+    CipherMetrics.getInstance().completed(true, start);
+  }
+  
+  /**
+   * Decrypts the container file with the given name using the provided key,
+   * processing the chunks in parallel on the common fork-join pool.  The
+   * chaining mode is read from the container, the checksum of each chunk is
+   * checked before it is decrypted, and the plain text written is exactly as
+   * long as the file that was encrypted.
+   * 
+   * @param cipherTextFile    name of the container file to decrypt
+   * @param plainTextFile     name of the file which to output the decrypted plain text
+   * @param key         key to be used in decrypting the container
+   */
+  public static void decryptContainer(String cipherTextFile, String plainTextFile, Key key) {
+    FileChannel in = null;
+    FileChannel out = null;
+    long start = CipherMetrics.getInstance().start();
+    
+    try {
+      in = FileChannel.open(Paths.get(cipherTextFile), StandardOpenOption.READ);
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  File being decrypted does not exist.");
+      return;
+    }
+    
+    try {
+      out = openOutputChannel(plainTextFile);
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println("[ERROR]  Output plain text file could not be opened.");
+      return;
+    }
+    
+    try {
+      ContainerFileCipher.decrypt(in, out, key.getSchedule(), ForkJoinPool.commonPool());
+    } catch (IOException ioe) {
+      close(in, out);
+      System.out.println("[ERROR]  Unable to decrypt container: " + ioe.getMessage());
+      return;
+    }
+    
+    close(in, out);
+    CipherMetrics.getInstance().completed(false, start);
+  }
+  
+  /**
+   * Checks the checksum of every chunk of the container file with the given
+   * name without decrypting it, reporting each chunk that is missing or fails
+   * its checksum.
+   * 
+   * @param cipherTextFile    name of the container file to check
+   * @return boolean      true if every chunk is intact
+   */
+  public static boolean verifyContainer(String cipherTextFile) {
+    try (FileChannel in = FileChannel.open(Paths.get(cipherTextFile), StandardOpenOption.READ)) {
+      List<Long> failed = ContainerFileCipher.verify(in);
       
-      if (bos != null) {
-        bos.close();
+      for (Long chunk : failed) {
+        System.out.println("[ERROR]  Chunk " + chunk + " of the container is incomplete or fails its checksum.");
       }
+      
+      return failed.isEmpty();
     } catch (IOException ioe) {
-      System.out.println("[ERROR]  Unable to close input / output stream.");
+      System.out.println("[ERROR]  Unable to read container: " + ioe.getMessage());
+      return false;
     }
   }
   
   /**
-   * Performs the initial permutation on the given block of bits.
+   * Opens channels on the given files and encrypts / decrypts the whole of the
+   * input file into the output file using the given channel based method.
    * 
-   * @param bytes   bits to be permuted
-   * @return byte[] permuted bits
+   * @param inputFile   name of the file to encrypt / decrypt
+   * @param outputFile  name of the file in which to output the result
+   * @param key         key to be used for encrypting / decrypting the file
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param encrypt     true to encrypt the input file; false to decrypt it
+   * @param method      either PARALLEL_IO, MAPPED_IO or PIPELINED_IO
+   * @param chaining    chaining mode; must be ECB unless the method is PARALLEL_IO
    */
-  private static byte[] performInitialPermutation(byte[] bytes) {
-    return Permutation.permute(bytes, Permutation.INITIAL_PERMUTATION);
+  private static void processChannels(String inputFile, String outputFile, Key key,
+                                      boolean byteStream, boolean encrypt, int method, int chaining) {
+    processChannels(inputFile, outputFile, new Key[] { key }, byteStream, encrypt, method, chaining);
   }
   
   /**
-   * Performs the inverse of the initial permutation on the given block of bits.
+   * Opens channels on the given files and encrypts / decrypts the whole of the
+   * input file into the output file using the given channel based method.
+   * Given three keys, the file is encrypted / decrypted with Triple Revised DES,
+   * which requires the method to be PARALLEL_IO.
    * 
-   * @param bytes   bits to be permuted
-   * @return byte[] permuted bits
+   * @param inputFile   name of the file to encrypt / decrypt
+   * @param outputFile  name of the file in which to output the result
+   * @param keys        key to be used for encrypting / decrypting the file, or the three
+   *                    keys of Triple Revised DES
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param encrypt     true to encrypt the input file; false to decrypt it
+   * @param method      either PARALLEL_IO, MAPPED_IO or PIPELINED_IO
+   * @param chaining    chaining mode; must be ECB unless the method is PARALLEL_IO
    */
-  private static byte[] performInverseInitialPermutation(byte[] bytes) {
-    return Permutation.permute(bytes, Permutation.INITIAL_PERMUTATION_INVERSE);
+  private static void processChannels(String inputFile, String outputFile, Key[] keys,
+                                      boolean byteStream, boolean encrypt, int method, int chaining) {
+    FileChannel in = null;
+    FileChannel out = null;
+    KeySchedule[] schedules = new KeySchedule[keys.length];
+    long start = CipherMetrics.getInstance().start();
+    
+    for (int i=0; i < keys.length; i++) {
+      schedules[i] = keys[i].getSchedule();
+    }
+    
+    try {
+      in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+      
+      if (!encrypt && chaining == Chaining.ECB && keys.length == 1 && !ParallelFileCipher.isBlockAligned(in, byteStream)) {
+        close(in, null);
+        decrypt(inputFile, outputFile, keys[0], byteStream);
+        return;
+      }
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println((encrypt) ? "[ERROR]  File being encrypted does not exist."
+                                   : "[ERROR]  File being decrypted does not exist.");
+      return;
+    }
+    
+    try {
+      out = openOutputChannel(outputFile);
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println((encrypt) ? "[ERROR]  Output cipher text file could not be opened."
+                                   : "[ERROR]  Output plain text file could not be opened.");
+      return;
+    }
+    
+    try {
+      if (!encrypt && !ParallelFileCipher.isBlockAligned(in, byteStream)) {
+        throw new IOException("Cipher text does not consist of whole blocks");
+      }
+      
+      if (method == PARALLEL_IO && encrypt) {
+        long iv = (chaining == Chaining.ECB) ? 0 : Chaining.generateIV();
+        
+        ParallelFileCipher.encrypt(in, out, schedules, byteStream, chaining, iv, ForkJoinPool.commonPool());
+      } else if (method == PARALLEL_IO) {
+        ParallelFileCipher.decrypt(in, out, schedules, byteStream, chaining, ForkJoinPool.commonPool());
+      } else if (method == PIPELINED_IO && encrypt) {
+        PipelinedFileCipher.encrypt(in, out, schedules[0], byteStream, Runtime.getRuntime().availableProcessors());
+      } else if (method == PIPELINED_IO) {
+        PipelinedFileCipher.decrypt(in, out, schedules[0], byteStream, Runtime.getRuntime().availableProcessors());
+      } else if (encrypt) {
+        MappedFileCipher.encrypt(in, out, schedules[0], byteStream);
+      } else {
+        MappedFileCipher.decrypt(in, out, schedules[0], byteStream);
+      }
+    } catch (IOException ioe) {
+      close(in, out);
+      System.out.println((encrypt) ? "[ERROR]  Unable to read from plaintext file."
+                                   : "[ERROR]  Unable to read from ciphertext file.");
+      return;
+    }
+    
+    close(in, out);
+    CipherMetrics.getInstance().completed(encrypt, start);
   }
   
   /**
-   * Swaps the left hand 32 bits with the right hand 32 bits of the given 64 bit
-   * block.
+   * Opens asynchronous channels on the given files and encrypts / decrypts the
+   * whole of the input file into the output file with the given number of
+   * reads and writes in flight.
    * 
-   * @param bytes   64 bit stream that is to be swapped
-   * @return byte[] swapped bits
+   * @param inputFile   name of the file to encrypt / decrypt
+   * @param outputFile  name of the file in which to output the result
+   * @param key         key to be used for encrypting / decrypting the file
+   * @param byteStream  true if the cipher text is a stream of bytes; false if it is a stream of bits
+   * @param encrypt     true to encrypt the input file; false to decrypt it
+   * @param depth       number of reads and of writes to keep in flight
    */
-  private static byte[] swap(byte[] bytes) {
-    byte[] result = new byte[8];
+  private static void processAsync(String inputFile, String outputFile, Key key,
+                                   boolean byteStream, boolean encrypt, int depth) {
+    AsynchronousFileChannel in = null;
+    AsynchronousFileChannel out = null;
+    long start = CipherMetrics.getInstance().start();
     
-    for (int i=0; i < 4; i++) {
-      result[i] = bytes[i + 4];
-      result[i + 4] = bytes[i];
+    try {
+      in = AsynchronousFileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+      
+      if (!encrypt && !AsyncFileCipher.isBlockAligned(in, byteStream)) {
+        close(in, null);
+        decrypt(inputFile, outputFile, key, byteStream);
+        return;
+      }
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println((encrypt) ? "[ERROR]  File being encrypted does not exist."
+                                   : "[ERROR]  File being decrypted does not exist.");
+      return;
     }
     
-    return result;
+    try {
+      out = AsynchronousFileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    } catch (IOException ioe) {
+      close(in, null);
+      System.out.println((encrypt) ? "[ERROR]  Output cipher text file could not be opened."
+                                   : "[ERROR]  Output plain text file could not be opened.");
+      return;
+    }
+    
+    try {
+      if (encrypt) {
+        AsyncFileCipher.encrypt(in, out, key.getSchedule(), byteStream, depth);
+      } else {
+        AsyncFileCipher.decrypt(in, out, key.getSchedule(), byteStream, depth);
+      }
+    } catch (IOException ioe) {
+      close(in, out);
+      System.out.println((encrypt) ? "[ERROR]  Unable to read from plaintext file."
+                                   : "[ERROR]  Unable to read from ciphertext file.");
+      return;
+    }
+    
+    close(in, out);
+    CipherMetrics.getInstance().completed(encrypt, start);
+  }
+  
+  /**
+   * Opens the file with the given name for reading and writing, creating it if
+   * it does not exist and truncating it if it does.
+   * 
+   * @param fileName    name of the file to open
+   * @return FileChannel  channel for writing to the file
+   * @throws IOException  if the file could not be opened
+   */
+  private static FileChannel openOutputChannel(String fileName) throws IOException {
+    return FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+  }
+  
+  /**
+   * Closes the given asynchronous input / output channels, either of which may
+   * be null.
+   * 
+   * @param in    input channel to close
+   * @param out   output channel to close
+   */
+  private static void close(AsynchronousFileChannel in, AsynchronousFileChannel out) {
+    try {
+      if (in != null) {
+        in.close();
+      }
+      
+      if (out != null) {
+        out.close();
+      }
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  Unable to close input / output stream.");
+    }
+  }
+  
+  /**
+   * Closes the given input / output channels, either of which may be null.
+   * 
+   * @param in    input channel to close
+   * @param out   output channel to close
+   */
+  private static void close(FileChannel in, FileChannel out) {
+    try {
+      if (in != null) {
+        in.close();
+      }
+      
+      if (out != null) {
+        out.close();
+      }
+    } catch (IOException ioe) {
+      System.out.println("[ERROR]  Unable to close input / output stream.");
+    }
   }
 }
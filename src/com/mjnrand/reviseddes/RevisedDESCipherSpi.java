@@ -0,0 +1,554 @@
+package com.mjnrand.reviseddes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * RevisedDESCipherSpi implements the Revised DES cipher for
+ * <code>javax.crypto.Cipher</code>, as registered by
+ * {@link RevisedDESProvider}.  The default transformation is
+ * "RevisedDES/ECB/SpacePadding", which produces the same cipher text as the
+ * file format.  Space padding is only added when encrypting, and is left in
+ * the plain text when decrypting, as the file format does; ECB and CBC input
+ * that does not fill its last block must otherwise be padded by the caller.
+ * CTR mode is a stream mode, so its input may be of any length.
+ * 
+ * Blocks are processed straight from the input into the output, and input
+ * that does not fill a block is held until the next call, so no memory is
+ * allocated by the update and doFinal calls that are given their output
+ * array or buffer.
+ * 
+ * After doFinal, a cipher returns to the state it was initialized in, ready
+ * for the next message, except when encrypting in CBC or CTR mode: there the
+ * next message would reuse the initialization vector, and in CTR mode the key
+ * stream, so the cipher refuses further use until it is initialized again.
+ * 
+ * @author mark
+ */
+public final class RevisedDESCipherSpi extends CipherSpi {
+  /** Padding option adding nothing. */
+  private static final int NO_PADDING = 0;
+  
+  /** Padding option filling the last block with spaces, as the file format does. */
+  private static final int SPACE_PADDING = 1;
+  
+  private int chaining = Chaining.ECB;
+  private int padding = SPACE_PADDING;
+  private PackedBlockEngine engine = null;
+  private boolean encrypt = true;
+  private long iv = 0;
+  
+  /** True once doFinal has used up the initialization vector of an encrypting cipher. */
+  private boolean spent = false;
+  
+  /** Previous cipher text block in CBC mode, or the next counter block in CTR mode. */
+  private long chain = 0;
+  
+  /** Input that does not yet fill a block. */
+  private final byte[] buffer = new byte[Block.SIZE];
+  private int buffered = 0;
+  
+  /**
+   * Constructs a new, uninitialized cipher.
+   */
+  public RevisedDESCipherSpi() {}
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineSetMode(java.lang.String)
+   */
+  protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+    try {
+      this.chaining = Chaining.parse(mode.toLowerCase());
+    } catch (IllegalArgumentException iae) {
+      throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+    }
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineSetPadding(java.lang.String)
+   */
+  protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+    if (padding.equalsIgnoreCase("NoPadding")) {
+      this.padding = NO_PADDING;
+    } else if (padding.equalsIgnoreCase("SpacePadding")) {
+      this.padding = SPACE_PADDING;
+    } else {
+      throw new NoSuchPaddingException("Unsupported padding " + padding);
+    }
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineGetBlockSize()
+   */
+  protected int engineGetBlockSize() {
+    return Block.SIZE;
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineGetOutputSize(int)
+   */
+  protected int engineGetOutputSize(int inputLen) {
+    return (this.buffered + inputLen + Block.SIZE - 1) & -Block.SIZE;
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineGetIV()
+   */
+  protected byte[] engineGetIV() {
+    if (this.engine == null || this.chaining == Chaining.ECB) {
+      return null;
+    }
+    
+    byte[] bytes = new byte[Block.SIZE];
+    
+    Block.unpack(this.iv, bytes, 0);
+    
+    return bytes;
+  }
+  
+  /**
+   * Returns the initialization vector as DES parameters, which hold the same
+   * 8 byte vector.
+   * 
+   * @see javax.crypto.CipherSpi#engineGetParameters()
+   */
+  protected AlgorithmParameters engineGetParameters() {
+    byte[] bytes = this.engineGetIV();
+    
+    if (bytes == null) {
+      return null;
+    }
+    
+    try {
+      AlgorithmParameters parameters = AlgorithmParameters.getInstance("DES");
+      
+      parameters.init(new IvParameterSpec(bytes));
+      
+      return parameters;
+    } catch (GeneralSecurityException gse) {
+      return null;
+    }
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineGetKeySize(java.security.Key)
+   */
+  protected int engineGetKeySize(Key key) throws InvalidKeyException {
+    return rawKey(key).length * 8;
+  }
+  
+  /**
+   * Initializes the cipher, generating a random initialization vector when
+   * encrypting in CBC or CTR mode.
+   * 
+   * @see javax.crypto.CipherSpi#engineInit(int, java.security.Key, java.security.SecureRandom)
+   */
+  protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+    try {
+      this.engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+    } catch (InvalidAlgorithmParameterException iape) {
+      throw new InvalidKeyException(iape.getMessage(), iape);
+    }
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineInit(int, java.security.Key, java.security.spec.AlgorithmParameterSpec, java.security.SecureRandom)
+   */
+  protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+      throws InvalidKeyException, InvalidAlgorithmParameterException {
+    if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+      throw new InvalidKeyException("Only encryption and decryption are supported, not key wrapping");
+    }
+    
+    byte[] raw = rawKey(key);
+    long vector = 0;
+    
+    if (params != null && !(params instanceof IvParameterSpec)) {
+      throw new InvalidAlgorithmParameterException("Parameters must be an IvParameterSpec");
+    }
+    
+    if (params != null && this.chaining == Chaining.ECB) {
+      throw new InvalidAlgorithmParameterException("ECB mode does not take an initialization vector");
+    }
+    
+    if (this.chaining != Chaining.ECB) {
+      if (params != null) {
+        byte[] bytes = ((IvParameterSpec) params).getIV();
+        
+        if (bytes.length != Block.SIZE) {
+          throw new InvalidAlgorithmParameterException("Initialization vector must be 8 bytes long");
+        }
+        
+        vector = Block.pack(bytes, 0);
+      } else if (opmode == Cipher.ENCRYPT_MODE) {
+        vector = (random == null) ? Chaining.generateIV() : random.nextLong();
+      } else {
+        throw new InvalidAlgorithmParameterException("Decryption requires an initialization vector");
+      }
+    }
+    
+    this.engine = new PackedBlockEngine(KeyScheduleCache.getInstance().get(Block.pack(raw, 0)));
+    this.encrypt = (opmode == Cipher.ENCRYPT_MODE);
+    this.iv = vector;
+    this.spent = false;
+    this.reset();
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineInit(int, java.security.Key, java.security.AlgorithmParameters, java.security.SecureRandom)
+   */
+  protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+      throws InvalidKeyException, InvalidAlgorithmParameterException {
+    IvParameterSpec spec = null;
+    
+    if (params != null) {
+      try {
+        spec = params.getParameterSpec(IvParameterSpec.class);
+      } catch (InvalidParameterSpecException ipse) {
+        throw new InvalidAlgorithmParameterException("Parameters must hold an initialization vector", ipse);
+      }
+    }
+    
+    this.engineInit(opmode, key, spec, random);
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineUpdate(byte[], int, int)
+   */
+  protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+    byte[] output = new byte[(this.buffered + inputLen) & -Block.SIZE];
+    
+    this.update(input, inputOffset, inputLen, output, 0);
+    
+    return output;
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineUpdate(byte[], int, int, byte[], int)
+   */
+  protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+      throws ShortBufferException {
+    checkOutput(output.length - outputOffset, (this.buffered + inputLen) & -Block.SIZE);
+    
+    return this.update(input, inputOffset, inputLen, output, outputOffset);
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineUpdate(java.nio.ByteBuffer, java.nio.ByteBuffer)
+   */
+  protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+    checkOutput(output.remaining(), (this.buffered + input.remaining()) & -Block.SIZE);
+    
+    return this.update(input, output);
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineDoFinal(byte[], int, int)
+   */
+  protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
+      throws IllegalBlockSizeException, BadPaddingException {
+    byte[] output = new byte[this.finalLength(inputLen)];
+    
+    try {
+      this.engineDoFinal(input, inputOffset, inputLen, output, 0);
+    } catch (ShortBufferException sbe) {
+      throw new IllegalStateException(sbe);
+    }
+    
+    return output;
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineDoFinal(byte[], int, int, byte[], int)
+   */
+  protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+      throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+    int length = this.finalLength(inputLen);
+    
+    checkOutput(output.length - outputOffset, length);
+    
+    int count = (input == null) ? 0 : this.update(input, inputOffset, inputLen, output, outputOffset);
+    
+    return count + this.finish(output, outputOffset + count, null);
+  }
+  
+  /**
+   * @see javax.crypto.CipherSpi#engineDoFinal(java.nio.ByteBuffer, java.nio.ByteBuffer)
+   */
+  protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+      throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+    int length = this.finalLength(input.remaining());
+    
+    checkOutput(output.remaining(), length);
+    
+    int count = this.update(input, output);
+    
+    return count + this.finish(null, 0, output);
+  }
+  
+  /**
+   * Returns the number of bytes output by a doFinal call given the number of
+   * input bytes, after checking that the input can be completed.
+   * 
+   * @param inputLen  number of input bytes
+   * @return int      number of output bytes
+   * @throws IllegalBlockSizeException  if the input does not fill its last block and cannot be padded
+   */
+  private int finalLength(int inputLen) throws IllegalBlockSizeException {
+    this.checkInitialized();
+    
+    int total = this.buffered + inputLen;
+    
+    if (this.chaining == Chaining.CTR) {
+      return total;
+    }
+    
+    if ((total % Block.SIZE) != 0 && !(this.encrypt && this.padding == SPACE_PADDING)) {
+      throw new IllegalBlockSizeException("Input length must be a multiple of 8 bytes");
+    }
+    
+    return (total + Block.SIZE - 1) & -Block.SIZE;
+  }
+  
+  /**
+   * Processes as many whole blocks as the held input and the given input make
+   * up, and holds any input left over.
+   * 
+   * @param input         array holding the input
+   * @param inputOffset   offset of the input
+   * @param inputLen      number of input bytes
+   * @param output        array to write the output to
+   * @param outputOffset  offset to write the output at
+   * @return int          number of bytes output
+   */
+  private int update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+    this.checkInitialized();
+    
+    long start = CipherMetrics.getInstance().start();
+    
+    if (input == output && outputOffset + this.buffered > inputOffset && outputOffset < inputOffset + inputLen) {
+      input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+      inputOffset = 0;
+    }
+    
+    int count = 0;
+    
+    if (this.buffered > 0) {
+      int n = Math.min(inputLen, Block.SIZE - this.buffered);
+      
+      System.arraycopy(input, inputOffset, this.buffer, this.buffered, n);
+      this.buffered += n;
+      inputOffset += n;
+      inputLen -= n;
+      
+      if (this.buffered < Block.SIZE) {
+        return 0;
+      }
+      
+      Block.unpack(this.process(Block.pack(this.buffer, 0)), output, outputOffset);
+      this.buffered = 0;
+      count = Block.SIZE;
+    }
+    
+    for (; inputLen >= Block.SIZE; inputLen -= Block.SIZE) {
+      Block.unpack(this.process(Block.pack(input, inputOffset)), output, outputOffset + count);
+      inputOffset += Block.SIZE;
+      count += Block.SIZE;
+    }
+    
+    System.arraycopy(input, inputOffset, this.buffer, 0, inputLen);
+    this.buffered = inputLen;
+    CipherMetrics.getInstance().processed(this.encrypt, count / Block.SIZE, start);
+    
+    return count;
+  }
+  
+  /**
+   * Processes as many whole blocks as the held input and the given input make
+   * up, and holds any input left over.
+   * 
+   * @param input   buffer holding the input, which is consumed
+   * @param output  buffer to write the output to
+   * @return int    number of bytes output
+   */
+  private int update(ByteBuffer input, ByteBuffer output) {
+    this.checkInitialized();
+    
+    long start = CipherMetrics.getInstance().start();
+    ByteOrder inputOrder = input.order();
+    ByteOrder outputOrder = output.order();
+    int count = 0;
+    
+    input.order(ByteOrder.BIG_ENDIAN);
+    output.order(ByteOrder.BIG_ENDIAN);
+    
+    try {
+      if (this.buffered > 0) {
+        int n = Math.min(input.remaining(), Block.SIZE - this.buffered);
+        
+        input.get(this.buffer, this.buffered, n);
+        this.buffered += n;
+        
+        if (this.buffered < Block.SIZE) {
+          return 0;
+        }
+        
+        output.putLong(this.process(Block.pack(this.buffer, 0)));
+        this.buffered = 0;
+        count = Block.SIZE;
+      }
+      
+      while (input.remaining() >= Block.SIZE) {
+        output.putLong(this.process(input.getLong()));
+        count += Block.SIZE;
+      }
+      
+      this.buffered = input.remaining();
+      input.get(this.buffer, 0, this.buffered);
+    } finally {
+      input.order(inputOrder);
+      output.order(outputOrder);
+    }
+    
+    CipherMetrics.getInstance().processed(this.encrypt, count / Block.SIZE, start);
+    
+    return count;
+  }
+  
+  /**
+   * Completes the held input, writes it to the given array or buffer and
+   * returns the cipher to the state it was initialized in, or marks its
+   * initialization vector as spent when encrypting in CBC or CTR mode.
+   * 
+   * @param output        array to write the output to, if not writing to a buffer
+   * @param outputOffset  offset to write the output at
+   * @param buffer        buffer to write the output to, or null to write to the array
+   * @return int          number of bytes output
+   */
+  private int finish(byte[] output, int outputOffset, ByteBuffer buffer) {
+    int n = this.buffered;
+    
+    if (n > 0) {
+      long start = CipherMetrics.getInstance().start();
+      
+      if (this.chaining == Chaining.CTR) {
+        Arrays.fill(this.buffer, n, Block.SIZE, (byte) 0);
+      } else {
+        Arrays.fill(this.buffer, n, Block.SIZE, (byte) ' ');
+        n = Block.SIZE;
+      }
+      
+      Block.unpack(this.process(Block.pack(this.buffer, 0)), this.buffer, 0);
+      
+      if (buffer == null) {
+        System.arraycopy(this.buffer, 0, output, outputOffset, n);
+      } else {
+        buffer.put(this.buffer, 0, n);
+      }
+      
+      CipherMetrics.getInstance().processed(this.encrypt, 1, start);
+    }
+    
+    this.reset();
+    this.spent = (this.encrypt && this.chaining != Chaining.ECB);
+    
+    return n;
+  }
+  
+  /**
+   * Encrypts / decrypts a single block in the mode of the cipher.
+   * 
+   * @param block   packed input block
+   * @return long   packed output block
+   */
+  private long process(long block) {
+    if (this.chaining == Chaining.CTR) {
+      return block ^ this.engine.encrypt(this.chain++);
+    } else if (this.chaining == Chaining.CBC && this.encrypt) {
+      this.chain = this.engine.encrypt(block ^ this.chain);
+      
+      return this.chain;
+    } else if (this.chaining == Chaining.CBC) {
+      long plainText = this.engine.decrypt(block) ^ this.chain;
+      
+      this.chain = block;
+      
+      return plainText;
+    } else if (this.encrypt) {
+      return this.engine.encrypt(block);
+    } else {
+      return this.engine.decrypt(block);
+    }
+  }
+  
+  /**
+   * Returns the cipher to the state it was initialized in, discarding any
+   * held input.
+   */
+  private void reset() {
+    this.chain = this.iv;
+    this.buffered = 0;
+  }
+  
+  /**
+   * Throws an exception if the cipher has not been initialized, or has spent
+   * its initialization vector.
+   */
+  private void checkInitialized() {
+    if (this.engine == null) {
+      throw new IllegalStateException("Cipher not initialized");
+    }
+    
+    if (this.spent) {
+      throw new IllegalStateException("Cipher must be initialized again with a new initialization vector");
+    }
+  }
+  
+  /**
+   * Throws an exception if the output does not have room for the given number
+   * of bytes.
+   * 
+   * @param available   number of bytes the output has room for
+   * @param required    number of bytes to be output
+   * @throws ShortBufferException  if the output is too small
+   */
+  private static void checkOutput(int available, int required) throws ShortBufferException {
+    if (available < required) {
+      throw new ShortBufferException("Output requires " + required + " bytes");
+    }
+  }
+  
+  /**
+   * Returns the 8 bytes of the given secret key.
+   * 
+   * @param key     secret key in RAW format
+   * @return byte[] bytes of the key
+   * @throws InvalidKeyException  if the key is not an 8 byte RAW key
+   */
+  private static byte[] rawKey(Key key) throws InvalidKeyException {
+    byte[] raw = (key == null || !"RAW".equalsIgnoreCase(key.getFormat())) ? null : key.getEncoded();
+    
+    if (raw == null || raw.length != Block.SIZE) {
+      throw new InvalidKeyException("Key must be an 8 byte RAW secret key");
+    }
+    
+    return raw;
+  }
+}
@@ -0,0 +1,40 @@
+package com.mjnrand.reviseddes;
+
+import java.security.Provider;
+
+/**
+ * RevisedDESProvider makes the Revised DES cipher available through the
+ * standard <code>javax.crypto.Cipher</code> API under the name "RevisedDES",
+ * in ECB, CBC and CTR modes, with either no padding or the space padding used
+ * by the file format.  Keys are 8 byte secret keys in RAW format, such as a
+ * <code>SecretKeySpec</code> of the 8 characters of the key.
+ * 
+ * <pre>
+ *   Cipher cipher = Cipher.getInstance("RevisedDES/CBC/NoPadding", new RevisedDESProvider());
+ *   cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "RevisedDES"), new IvParameterSpec(iv));
+ * </pre>
+ * 
+ * The provider may also be installed with <code>Security.addProvider</code>.
+ * Unsigned providers are accepted by OpenJDK based runtimes; runtimes that
+ * require JCE providers to be signed need the jar to be signed first.
+ * 
+ * @author mark
+ */
+public final class RevisedDESProvider extends Provider {
+  private static final long serialVersionUID = 1L;
+  
+  /** Name of the provider, and of the cipher it provides. */
+  public static final String NAME = "RevisedDES";
+  
+  /**
+   * Constructs a new provider.
+   */
+  public RevisedDESProvider() {
+    super(NAME, "1.0", "Revised DES cipher (ECB, CBC and CTR modes; NoPadding and SpacePadding)");
+    
+    this.put("Cipher." + NAME, RevisedDESCipherSpi.class.getName());
+    this.put("Cipher." + NAME + " SupportedModes", "ECB|CBC|CTR");
+    this.put("Cipher." + NAME + " SupportedPaddings", "NOPADDING|SPACEPADDING");
+    this.put("Cipher." + NAME + " SupportedKeyFormats", "RAW");
+  }
+}
@@ -0,0 +1,54 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * SPBox defines the 8 S-Boxes of the Revised DES cryptosystem fused with the
+ * permutation function.  The entry of SP<i>i</i> for a 6 bit input is the output
+ * of RS<i>i</i> for that input, placed in its position of the 32 bit S-Box output
+ * and then permuted, so that the permutation function applied to the whole S-Box
+ * output is the XOR of the 8 entries.
+ * 
+ * The tables are generated from {@link SBox#S_BOXES} when the class is
+ * initialized.
+ * 
+ * @author mark
+ */
+public final class SPBox {
+  /** Array of all SP-Boxes, each indexed by its 6 bit input. */
+  public static final int[][] SP_BOXES = new int[8][64];
+  
+  static {
+    for (int i=0; i < 8; i++) {
+      for (int v=0; v < 64; v++) {
+        int row = ((v >>> 4) & 0x02) | (v & 0x01);
+        int col = (v >>> 1) & 0x0f;
+        long substituted = (long) SBox.S_BOXES[i][row][col] << (28 - (4 * i));
+        
+        SP_BOXES[i][v] = (int) Permutation.COMPILED_PERMUTATION_FUNCTION.permute(substituted);
+      }
+    }
+  }
+  
+  /**
+   * Performs the S-Box substitution followed by the permutation function on the
+   * given 48 bit stream in the same way as {@link FeistelRound}: SP-Box <i>i</i>
+   * is fed the 6 bit group <i>i</i> - 1 for 2 &le; <i>i</i> &le; 8, and SP-Box 1
+   * is fed the leading bit of the stream in all 6 positions.  The last 6 bit
+   * group is unused.
+   * 
+   * @param expanded    48 bit stream held in the low order bits of a long
+   * @return int        resulting 32 bit stream
+   */
+  public static int substitute(long expanded) {
+    return SP_BOXES[0][(int) -(expanded >>> 47) & 0x3f]
+         ^ SP_BOXES[1][(int) (expanded >>> 42) & 0x3f]
+         ^ SP_BOXES[2][(int) (expanded >>> 36) & 0x3f]
+         ^ SP_BOXES[3][(int) (expanded >>> 30) & 0x3f]
+         ^ SP_BOXES[4][(int) (expanded >>> 24) & 0x3f]
+         ^ SP_BOXES[5][(int) (expanded >>> 18) & 0x3f]
+         ^ SP_BOXES[6][(int) (expanded >>> 12) & 0x3f]
+         ^ SP_BOXES[7][(int) (expanded >>> 6) & 0x3f];
+  }
+  
+  // Make constructor private so that this class cannot be initialized.
+  private SPBox() {}
+}
@@ -0,0 +1,26 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * SingleBlockEngine is implemented by the engines that can also encrypt /
+ * decrypt a single packed block at a time, as needed by modes such as CBC
+ * encryption where each block depends on the one before it.
+ * 
+ * @author mark
+ */
+public interface SingleBlockEngine extends BlockEngine {
+  /**
+   * Encrypts the given packed block.
+   * 
+   * @param block   64 bit plain text block
+   * @return long   64 bit cipher text block
+   */
+  public long encrypt(long block);
+  
+  /**
+   * Decrypts the given packed block.
+   * 
+   * @param block   64 bit cipher text block
+   * @return long   64 bit plain text block
+   */
+  public long decrypt(long block);
+}
@@ -0,0 +1,166 @@
+package com.mjnrand.reviseddes;
+
+/**
+ * TripleBlockEngine encrypts / decrypts single 64 bit blocks of Triple Revised
+ * DES, in which a block is encrypted with the first key, decrypted with the
+ * second and encrypted with the third (EDE), and decrypted in the reverse order.
+ * 
+ * The three stages are fused into a single pass of 48 Feistel Rounds over a
+ * block held in two ints.  The inverse of the initial permutation that ends
+ * one stage and the initial permutation that begins the next cancel out, so
+ * only the initial permutation of the first stage and its inverse after the
+ * last stage are performed, leaving just the swap of the halves between stages.
+ * The output is identical to running the block through three
+ * {@link PackedBlockEngine}s in turn.
+ * 
+ * Engines hold nothing but their subkeys, so a single engine may be shared by
+ * any number of threads.
+ * 
+ * @author mark
+ */
+public final class TripleBlockEngine implements SingleBlockEngine {
+  /** Number of Feistel Rounds performed on each block. */
+  public static final int ROUNDS = 48;
+  
+  /** Number of Feistel Rounds in each of the three stages. */
+  private static final int STAGE_ROUNDS = 16;
+  
+  /** Mask selecting the 32 bits of an int once widened to a long. */
+  private static final long INT_MASK = 0xffffffffL;
+  
+  private final long[] encryptKeys = new long[ROUNDS];
+  private final long[] decryptKeys = new long[ROUNDS];
+  
+  /**
+   * Constructs a new engine using the subkeys of the given keys.  The subkeys
+   * must already have been generated.
+   * 
+   * @param key1  key of the first encryption stage
+   * @param key2  key of the decryption stage
+   * @param key3  key of the second encryption stage
+   */
+  public TripleBlockEngine(Key key1, Key key2, Key key3) {
+    this(key1.getSchedule(), key2.getSchedule(), key3.getSchedule());
+  }
+  
+  /**
+   * Constructs a new engine using the subkeys of the given schedules.  The
+   * subkeys of every stage are laid out in the order they are used, so that
+   * encryption and decryption each run through a single array.
+   * 
+   * @param schedule1   schedule of the first encryption stage
+   * @param schedule2   schedule of the decryption stage
+   * @param schedule3   schedule of the second encryption stage
+   */
+  public TripleBlockEngine(KeySchedule schedule1, KeySchedule schedule2, KeySchedule schedule3) {
+    for (int i=0; i < STAGE_ROUNDS; i++) {
+      this.encryptKeys[i] = schedule1.getSubKey(i);
+      this.encryptKeys[STAGE_ROUNDS + i] = schedule2.getSubKey(STAGE_ROUNDS - 1 - i);
+      this.encryptKeys[2 * STAGE_ROUNDS + i] = schedule3.getSubKey(i);
+      
+      this.decryptKeys[i] = schedule3.getSubKey(STAGE_ROUNDS - 1 - i);
+      this.decryptKeys[STAGE_ROUNDS + i] = schedule2.getSubKey(i);
+      this.decryptKeys[2 * STAGE_ROUNDS + i] = schedule1.getSubKey(STAGE_ROUNDS - 1 - i);
+    }
+  }
+  
+  /**
+   * Encrypts the given packed block.
+   * 
+   * @param block   64 bit plain text block
+   * @return long   64 bit cipher text block
+   */
+  public long encrypt(long block) {
+    return process(block, this.encryptKeys);
+  }
+  
+  /**
+   * Decrypts the given packed block.
+   * 
+   * @param block   64 bit cipher text block
+   * @return long   64 bit plain text block
+   */
+  public long decrypt(long block) {
+    return process(block, this.decryptKeys);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(long[], int, int)
+   */
+  public void encrypt(long[] blocks, int off, int numBlocks) {
+    for (int i=off; i < off + numBlocks; i++) {
+      blocks[i] = process(blocks[i], this.encryptKeys);
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(long[], int, int)
+   */
+  public void decrypt(long[] blocks, int off, int numBlocks) {
+    for (int i=off; i < off + numBlocks; i++) {
+      blocks[i] = process(blocks[i], this.decryptKeys);
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(byte[], int, byte[], int, int)
+   */
+  public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    for (int i=0; i < numBlocks; i++, inOff += Block.SIZE, outOff += Block.SIZE) {
+      Block.unpack(process(Block.pack(in, inOff), this.encryptKeys), out, outOff);
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(byte[], int, byte[], int, int)
+   */
+  public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    for (int i=0; i < numBlocks; i++, inOff += Block.SIZE, outOff += Block.SIZE) {
+      Block.unpack(process(Block.pack(in, inOff), this.decryptKeys), out, outOff);
+    }
+  }
+  
+  /**
+   * Runs the given block through the initial permutation, three stages of 16
+   * Feistel Rounds each ending with the swap of the halves, and the inverse of
+   * the initial permutation.
+   * 
+   * @param block     64 bit input block
+   * @param subkeys   48 subkeys in the order they are used
+   * @return long     64 bit output block
+   */
+  private static long process(long block, long[] subkeys) {
+    block = Permutation.COMPILED_INITIAL_PERMUTATION.permute(block);
+    
+    int left = (int) (block >>> 32);
+    int right = (int) block;
+    
+    for (int stage=0; stage < ROUNDS; stage += STAGE_ROUNDS) {
+      for (int i=stage; i < stage + STAGE_ROUNDS; i++) {
+        int previousRight = right;
+        right = ~left ^ f(right, subkeys[i]);
+        left = previousRight;
+      }
+      
+      int previousLeft = left;
+      left = right;
+      right = previousLeft;
+    }
+    
+    block = ((left & INT_MASK) << 32) | (right & INT_MASK);
+    
+    return Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(block);
+  }
+  
+  /**
+   * The round function F: expansion of the right hand side, XOR with the
+   * subkey, and the fused S-Box substitution and permutation function.
+   * 
+   * @param right   right hand 32 bits of the block
+   * @param subkey  48 bit subkey for this round
+   * @return int    32 bit output of F
+   */
+  private static int f(int right, long subkey) {
+    return SPBox.substitute(Permutation.COMPILED_EXPANSION_PERMUTATION.permute(right & INT_MASK) ^ subkey);
+  }
+}
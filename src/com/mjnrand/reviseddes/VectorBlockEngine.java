@@ -0,0 +1,273 @@
+package com.mjnrand.reviseddes;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorBlockEngine encrypts / decrypts runs of 64 bit blocks of the Revised
+ * DES cryptosystem with the JDK Vector API, holding the left and right hand
+ * sides of as many blocks as fit in the preferred vector shape (16 on AVX-512,
+ * 8 on AVX2) in one int lane each.  Every step of the Feistel Round is done for
+ * all lanes at once: the expansion is a lane-wise rotation and mask per S-Box,
+ * the subkey XOR a broadcast, the fused S-Box and permutation lookups shuffles
+ * of {@link SPBox#SP_BOXES} held in vector registers, and the complement of the
+ * left hand side a NOT.  The initial permutation and its inverse are performed
+ * one block at a time.
+ * 
+ * Lookups shuffle each 64 entry SP-Box as several vectors of one lane per entry,
+ * selecting between them by the high order bits of the input, rather than
+ * gathering from the table in memory: gathers by index map crash the C2
+ * compiler of JDK 17, and shuffles keep the tables in registers.
+ * 
+ * The output is identical to that of a {@link PackedBlockEngine}, which is used
+ * for the blocks left over once every whole group of lanes has been processed.
+ * This class needs the jdk.incubator.vector module; engines should be obtained
+ * through {@link BlockEngines#createVector(KeySchedule)}, which falls back to a
+ * scalar engine when the module is not available.  An engine holds the lanes it
+ * works on, so it must not be shared between threads.
+ * 
+ * @author mark
+ */
+public final class VectorBlockEngine implements BlockEngine {
+  /** Shape of the vectors used, chosen to match the widest registers of the processor. */
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+  
+  /** Number of blocks processed by a single pass of the rounds. */
+  public static final int LANES = SPECIES.length();
+  
+  /** Mask selecting the 32 bits of an int once widened to a long. */
+  private static final long INT_MASK = 0xffffffffL;
+  
+  /** Number of vectors each SP-Box is split into. */
+  private static final int PARTS = 64 / LANES;
+  
+  /** Number of low order bits of an SP-Box input selecting the lane of a part. */
+  private static final int LANE_BITS = Integer.numberOfTrailingZeros(LANES);
+  
+  /** Each SP-Box split into vectors, part <i>p</i> holding entries <i>p</i> * LANES onwards. */
+  private static final IntVector[][] SP_VECTORS = new IntVector[8][PARTS];
+  
+  static {
+    for (int i=0; i < 8; i++) {
+      for (int p=0; p < PARTS; p++) {
+        SP_VECTORS[i][p] = IntVector.fromArray(SPECIES, SPBox.SP_BOXES[i], p * LANES);
+      }
+    }
+  }
+  
+  private final PackedBlockEngine packed;
+  private final int[][] keyGroups = new int[16][8];
+  
+  private final int[] left = new int[LANES];
+  private final int[] right = new int[LANES];
+  
+  /**
+   * Constructs a new engine using the subkeys of the given schedule.  Each
+   * subkey is split into the bits XORed with the input of each SP-Box: the
+   * leading bit for SP-Box 1, and the 6 bit groups 1 to 7 for SP-Boxes 2 to 8.
+   * 
+   * @param schedule  schedule of subkeys to be used for encrypting / decrypting blocks
+   */
+  public VectorBlockEngine(KeySchedule schedule) {
+    this.packed = new PackedBlockEngine(schedule);
+    
+    for (int i=0; i < 16; i++) {
+      long subkey = schedule.getSubKey(i);
+      
+      this.keyGroups[i][0] = (int) (subkey >>> 47) & 0x01;
+      
+      for (int j=1; j < 8; j++) {
+        this.keyGroups[i][j] = (int) (subkey >>> (48 - (6 * j))) & 0x3f;
+      }
+    }
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(long[], int, int)
+   */
+  public void encrypt(long[] blocks, int off, int numBlocks) {
+    this.process(blocks, off, numBlocks, true);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(long[], int, int)
+   */
+  public void decrypt(long[] blocks, int off, int numBlocks) {
+    this.process(blocks, off, numBlocks, false);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#encrypt(byte[], int, byte[], int, int)
+   */
+  public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    this.process(in, inOff, out, outOff, numBlocks, true);
+  }
+  
+  /**
+   * @see com.mjnrand.reviseddes.BlockEngine#decrypt(byte[], int, byte[], int, int)
+   */
+  public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+    this.process(in, inOff, out, outOff, numBlocks, false);
+  }
+  
+  /**
+   * Encrypts / decrypts the given packed blocks in place, a group of lanes at
+   * a time, handing any remaining blocks to the packed engine.
+   * 
+   * @param blocks      array holding the blocks
+   * @param off         offset of the first block
+   * @param numBlocks   number of blocks to process
+   * @param encrypt     true to encrypt the blocks; false to decrypt them
+   */
+  private void process(long[] blocks, int off, int numBlocks, boolean encrypt) {
+    int end = off + numBlocks;
+    int i = off;
+    
+    for (; i + LANES <= end; i += LANES) {
+      for (int b=0; b < LANES; b++) {
+        this.load(b, blocks[i + b]);
+      }
+      
+      this.rounds(encrypt);
+      
+      for (int b=0; b < LANES; b++) {
+        blocks[i + b] = this.store(b);
+      }
+    }
+    
+    if (encrypt) {
+      this.packed.encrypt(blocks, i, end - i);
+    } else {
+      this.packed.decrypt(blocks, i, end - i);
+    }
+  }
+  
+  /**
+   * Encrypts / decrypts the given number of blocks from the input array into
+   * the output array, a group of lanes at a time, handing any remaining blocks
+   * to the packed engine.
+   * 
+   * @param in          array holding the input blocks
+   * @param inOff       offset of the first input block
+   * @param out         array to write the output blocks to
+   * @param outOff      offset at which to write the first output block
+   * @param numBlocks   number of blocks to process
+   * @param encrypt     true to encrypt the blocks; false to decrypt them
+   */
+  private void process(byte[] in, int inOff, byte[] out, int outOff, int numBlocks, boolean encrypt) {
+    int done = 0;
+    
+    for (; done + LANES <= numBlocks; done += LANES) {
+      for (int b=0; b < LANES; b++) {
+        this.load(b, Block.pack(in, inOff + ((done + b) * Block.SIZE)));
+      }
+      
+      this.rounds(encrypt);
+      
+      for (int b=0; b < LANES; b++) {
+        Block.unpack(this.store(b), out, outOff + ((done + b) * Block.SIZE));
+      }
+    }
+    
+    inOff += done * Block.SIZE;
+    outOff += done * Block.SIZE;
+    
+    if (encrypt) {
+      this.packed.encrypt(in, inOff, out, outOff, numBlocks - done);
+    } else {
+      this.packed.decrypt(in, inOff, out, outOff, numBlocks - done);
+    }
+  }
+  
+  /**
+   * Performs the initial permutation on the given block and places its halves
+   * in the given lane.
+   * 
+   * @param lane    lane to hold the block
+   * @param block   64 bit input block
+   */
+  private void load(int lane, long block) {
+    block = Permutation.COMPILED_INITIAL_PERMUTATION.permute(block);
+    
+    this.left[lane] = (int) (block >>> 32);
+    this.right[lane] = (int) block;
+  }
+  
+  /**
+   * Joins the halves held in the given lane with the final swap, and performs
+   * the inverse of the initial permutation.
+   * 
+   * @param lane    lane holding the block
+   * @return long   64 bit output block
+   */
+  private long store(int lane) {
+    long block = ((this.right[lane] & INT_MASK) << 32) | (this.left[lane] & INT_MASK);
+    
+    return Permutation.COMPILED_INITIAL_PERMUTATION_INVERSE.permute(block);
+  }
+  
+  /**
+   * Performs the 16 Feistel Rounds on every lane, in order of subkey when
+   * encrypting and in reverse order when decrypting.
+   * 
+   * The round function F is written out here rather than called, so that the
+   * compiler sees every vector of a round within one method and keeps them in
+   * registers; a separate method for F is compiled on its own once it grows
+   * large, and every vector passed to or returned from it is then created as an
+   * object on the heap.  SP-Box 1 is fed the leading bit of the expanded right
+   * hand side XOR subkey in all 6 positions, and SP-Box <i>i</i> the 6 bit group
+   * <i>i</i> - 1 for 2 &le; <i>i</i> &le; 8, in the same way as
+   * {@link SPBox#substitute(long)}.  Group <i>g</i> of the expansion is the 6 bits
+   * of the right hand side starting at bit 4<i>g</i>, with bit 0 wrapping around
+   * to bit 32, so it is found by a rotation.
+   * 
+   * @param encrypt   true to encrypt the lanes; false to decrypt them
+   */
+  private void rounds(boolean encrypt) {
+    IntVector l = IntVector.fromArray(SPECIES, this.left, 0);
+    IntVector r = IntVector.fromArray(SPECIES, this.right, 0);
+    
+    for (int n=0; n < 16; n++) {
+      int[] groups = this.keyGroups[encrypt ? n : 15 - n];
+      IntVector leading = r.and(0x01).lanewise(VectorOperators.XOR, groups[0]).neg().and(0x3f);
+      IntVector result = lookup(0, leading);
+      
+      for (int j=1; j < 8; j++) {
+        IntVector group = r.lanewise(VectorOperators.ROR, 31 - (4 * j)).and(0x3f);
+        
+        result = result.lanewise(VectorOperators.XOR, lookup(j, group.lanewise(VectorOperators.XOR, groups[j])));
+      }
+      
+      IntVector previousRight = r;
+      
+      r = l.not().lanewise(VectorOperators.XOR, result);
+      l = previousRight;
+    }
+    
+    l.intoArray(this.left, 0);
+    r.intoArray(this.right, 0);
+  }
+  
+  /**
+   * Looks up the entry of the given SP-Box for the 6 bit input held by each
+   * lane.  The low order bits of each input select a lane of every part of the
+   * SP-Box, and the high order bits select the part the entry is taken from.
+   * 
+   * @param box         number of the SP-Box; between 0-7
+   * @param inputs      6 bit input of each lane
+   * @return IntVector  entry of the SP-Box for each lane
+   */
+  private static IntVector lookup(int box, IntVector inputs) {
+    VectorShuffle<Integer> shuffle = inputs.and(LANES - 1).toShuffle();
+    IntVector parts = inputs.lanewise(VectorOperators.LSHR, LANE_BITS);
+    IntVector result = SP_VECTORS[box][0].rearrange(shuffle);
+    
+    for (int p=1; p < PARTS; p++) {
+      result = result.blend(SP_VECTORS[box][p].rearrange(shuffle), parts.compare(VectorOperators.EQ, p));
+    }
+    
+    return result;
+  }
+}
@@ -0,0 +1,582 @@
+package com.mjnrand.reviseddes;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * AllocationTest warms up each per-block loop and then fails if it allocates
+ * more than a fixed number of bytes per block, as counted for the running
+ * thread by {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * The stream loops are measured as the difference between a large and a small
+ * file, so that the streams and buffers opened for each file are not counted.
+ * The file ciphers running on other threads are given threads created by
+ * {@link Workers}, and what those threads allocate is counted as well.
+ * 
+ * @author mark
+ */
+public class AllocationTest {
+  /** Most bytes a loop may allocate per block once warmed up. */
+  private static final double MAX_BYTES_PER_BLOCK = 0.5;
+  
+  /** Number of blocks processed by each call of an in-memory loop. */
+  private static final int BLOCKS = 512;
+  
+  /** Number of calls made to warm up a loop, and then to measure it. */
+  private static final int CALLS = 2000;
+  
+  /** Number of times each file is processed to warm up a stream loop, and then to measure it. */
+  private static final int FILE_CALLS = 40;
+  
+  /** Number of blocks in the small and large files processed by the stream loops. */
+  private static final int SMALL_FILE_BLOCKS = 64;
+  private static final int LARGE_FILE_BLOCKS = 16384;
+  
+  /** Number of blocks in the large file processed by the file ciphers, spanning several chunks and segments. */
+  private static final int CHUNKED_FILE_BLOCKS = 2 * ParallelFileCipher.CHUNK_BLOCKS + 1000;
+  
+  /** Number of times each file is processed to warm up a file cipher, and then to measure it. */
+  private static final int CHUNKED_FILE_CALLS = 8;
+  
+  /** Number of threads in the pools given to the file ciphers. */
+  private static final int POOL_THREADS = 2;
+  
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  
+  private static Key key;
+  private static Path directory;
+  
+  private final byte[] input = new byte[BLOCKS * Block.SIZE];
+  private final byte[] output = new byte[BLOCKS * Block.SIZE];
+  private final long[] blocks = new long[BLOCKS];
+  
+  /**
+   * Generates the key and the directory holding the files of the stream loops.
+   * 
+   * @throws Exception  if the directory could not be created
+   */
+  @BeforeAll
+  public static void setUpClass() throws Exception {
+    key = new Key("abcdefgh".getBytes());
+    key.generateSubKeys();
+    directory = Files.createTempDirectory("allocation");
+  }
+  
+  /**
+   * Deletes the files of the stream loops.
+   * 
+   * @throws Exception  if a file could not be deleted
+   */
+  @AfterAll
+  public static void tearDownClass() throws Exception {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    
+    Files.delete(directory);
+  }
+  
+  /**
+   * Checks the byte array and packed block loops of the packed engine.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void packedEngine() throws Exception {
+    PackedBlockEngine engine = new PackedBlockEngine(key.getSchedule());
+    
+    check("packed engine bytes", BLOCKS, () -> engine.encrypt(this.input, 0, this.output, 0, BLOCKS));
+    check("packed engine blocks", BLOCKS, () -> engine.encrypt(this.blocks, 0, BLOCKS));
+  }
+  
+  /**
+   * Checks the encrypt and decrypt loops of the bitsliced engine.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void bitslicedEngine() throws Exception {
+    BitslicedBlockEngine engine = new BitslicedBlockEngine(key.getSchedule());
+    
+    check("bitsliced engine encrypt", BLOCKS, () -> engine.encrypt(this.blocks, 0, BLOCKS));
+    check("bitsliced engine decrypt", BLOCKS, () -> engine.decrypt(this.blocks, 0, BLOCKS));
+  }
+  
+  /**
+   * Checks the encrypt and decrypt loops of the vector engine, or of the
+   * packed engine when the Vector API is not available.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void vectorEngine() throws Exception {
+    BlockEngine engine = BlockEngines.createVector(key.getSchedule());
+    
+    check("vector engine encrypt", BLOCKS, () -> engine.encrypt(this.blocks, 0, BLOCKS));
+    check("vector engine decrypt", BLOCKS, () -> engine.decrypt(this.blocks, 0, BLOCKS));
+  }
+  
+  /**
+   * Checks the byte array and direct buffer loops of the buffer cipher.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void bufferCipher() throws Exception {
+    BufferCipher cipher = new BufferCipher(key);
+    ByteBuffer in = ByteBuffer.allocateDirect(this.input.length);
+    ByteBuffer out = ByteBuffer.allocateDirect(this.output.length);
+    
+    check("buffer cipher arrays", BLOCKS, () -> cipher.encrypt(this.input, 0, this.input.length, this.output, 0));
+    check("buffer cipher buffers", BLOCKS, () -> {
+      in.clear();
+      out.clear();
+      cipher.encrypt(in, out);
+    });
+  }
+  
+  /**
+   * Checks engineUpdate of the cipher provider in every chaining mode.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void cipherUpdate() throws Exception {
+    for (String mode : new String[] { "ECB", "CBC", "CTR" }) {
+      Cipher cipher = Cipher.getInstance("RevisedDES/" + mode + "/NoPadding", new RevisedDESProvider());
+      
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec("abcdefgh".getBytes(), "RevisedDES"));
+      check("cipher update " + mode, BLOCKS, () -> cipher.update(this.input, 0, this.input.length, this.output, 0));
+    }
+  }
+  
+  /**
+   * Checks the loops encrypting and decrypting a file one block at a time
+   * through streams, as a stream of bytes and as a stream of bits.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void streams() throws Exception {
+    Workers workers = new Workers();
+    
+    for (boolean byteStream : new boolean[] { true, false }) {
+      String name = (byteStream) ? "bytes" : "bits";
+      Path[] small = createFiles("small.stream." + name, SMALL_FILE_BLOCKS);
+      Path[] large = createFiles("large.stream." + name, LARGE_FILE_BLOCKS);
+      
+      checkFiles("stream encrypt " + name, small[0], small[1], large[0], large[1], LARGE_FILE_BLOCKS, FILE_CALLS,
+                 workers, (plainText, cipherText) ->
+                 RevisedDES.encrypt(plainText.toString(), cipherText.toString(), key, byteStream));
+      checkFiles("stream decrypt " + name, small[1], small[2], large[1], large[2], LARGE_FILE_BLOCKS, FILE_CALLS,
+                 workers, (cipherText, plainText) ->
+                 RevisedDES.decryptStream(cipherText.toString(), plainText.toString(), key, byteStream, false));
+    }
+  }
+  
+  /**
+   * Checks the parallel file cipher, as a stream of bytes and as a stream of
+   * bits, counting what the workers of its pool allocate.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void parallelFileCipher() throws Exception {
+    Workers workers = new Workers();
+    ForkJoinPool pool = new ForkJoinPool(POOL_THREADS, workers, null, false);
+    
+    try {
+      for (boolean byteStream : new boolean[] { true, false }) {
+        String name = (byteStream) ? "bytes" : "bits";
+        
+        checkChannels("parallel " + name, workers,
+                      (in, out) -> ParallelFileCipher.encrypt(in, out, key.getSchedule(), byteStream, pool),
+                      (in, out) -> ParallelFileCipher.decrypt(in, out, key.getSchedule(), byteStream, pool));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  /**
+   * Checks the memory mapped file cipher, as a stream of bytes and as a stream
+   * of bits.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void mappedFileCipher() throws Exception {
+    Workers workers = new Workers();
+    
+    for (boolean byteStream : new boolean[] { true, false }) {
+      String name = (byteStream) ? "bytes" : "bits";
+      
+      checkChannels("mapped " + name, workers,
+                    (in, out) -> MappedFileCipher.encrypt(in, out, key.getSchedule(), byteStream),
+                    (in, out) -> MappedFileCipher.decrypt(in, out, key.getSchedule(), byteStream));
+    }
+  }
+  
+  /**
+   * Checks the pipelined file cipher, as a stream of bytes and as a stream of
+   * bits, counting what its reader, cipher workers and writer allocate.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void pipelinedFileCipher() throws Exception {
+    Workers workers = new Workers();
+    
+    for (boolean byteStream : new boolean[] { true, false }) {
+      String name = (byteStream) ? "bytes" : "bits";
+      
+      checkChannels("pipelined " + name, workers,
+                    (in, out) -> PipelinedFileCipher.encrypt(in, out, key.getSchedule(), byteStream,
+                                                             POOL_THREADS, workers),
+                    (in, out) -> PipelinedFileCipher.decrypt(in, out, key.getSchedule(), byteStream,
+                                                             POOL_THREADS, workers));
+    }
+  }
+  
+  /**
+   * Checks the asynchronous file cipher, as a stream of bytes and as a stream
+   * of bits, counting what the threads completing its reads and writes
+   * allocate.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void asyncFileCipher() throws Exception {
+    Workers workers = new Workers();
+    ExecutorService executor = Executors.newFixedThreadPool(POOL_THREADS, workers);
+    
+    try {
+      for (boolean byteStream : new boolean[] { true, false }) {
+        String name = (byteStream) ? "bytes" : "bits";
+        Path[] small = createFiles("small.async." + name, SMALL_FILE_BLOCKS);
+        Path[] large = createFiles("large.async." + name, CHUNKED_FILE_BLOCKS);
+        
+        checkFiles("async encrypt " + name, small[0], small[1], large[0], large[1], CHUNKED_FILE_BLOCKS,
+                   CHUNKED_FILE_CALLS, workers, (plainText, cipherText) -> {
+          try (AsynchronousFileChannel in = openAsync(plainText, executor, StandardOpenOption.READ);
+               AsynchronousFileChannel out = openAsync(cipherText, executor, StandardOpenOption.CREATE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                                       StandardOpenOption.WRITE)) {
+            AsyncFileCipher.encrypt(in, out, key.getSchedule(), byteStream, 4);
+          }
+        });
+        checkFiles("async decrypt " + name, small[1], small[2], large[1], large[2], CHUNKED_FILE_BLOCKS,
+                   CHUNKED_FILE_CALLS, workers, (cipherText, plainText) -> {
+          try (AsynchronousFileChannel in = openAsync(cipherText, executor, StandardOpenOption.READ);
+               AsynchronousFileChannel out = openAsync(plainText, executor, StandardOpenOption.CREATE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING,
+                                                       StandardOpenOption.WRITE)) {
+            AsyncFileCipher.decrypt(in, out, key.getSchedule(), byteStream, 4);
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  /**
+   * Checks the container file cipher in CBC mode, whose encryption runs on the
+   * calling thread and whose decryption runs on the workers of its pool.
+   * 
+   * @throws Exception  if the loop fails
+   */
+  @Test
+  public void containerFileCipher() throws Exception {
+    Workers workers = new Workers();
+    ForkJoinPool pool = new ForkJoinPool(POOL_THREADS, workers, null, false);
+    
+    try {
+      checkChannels("container", workers,
+                    (in, out) -> ContainerFileCipher.encrypt(in, out, key.getSchedule(), Chaining.CBC, false, pool),
+                    (in, out) -> ContainerFileCipher.decrypt(in, out, key.getSchedule(), pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+  
+  /**
+   * Warms up the given loop and fails if it then allocates more than
+   * {@link #MAX_BYTES_PER_BLOCK} bytes per block.
+   * 
+   * @param name        name of the loop, reported on failure
+   * @param numBlocks   number of blocks processed by each call of the loop
+   * @param loop        loop to check
+   * @throws Exception  if the loop fails
+   */
+  private static void check(String name, int numBlocks, Loop loop) throws Exception {
+    for (int i=0; i < CALLS; i++) {
+      loop.run();
+    }
+    
+    long before = allocatedBytes();
+    
+    for (int i=0; i < CALLS; i++) {
+      loop.run();
+    }
+    
+    assertBelow(name, (allocatedBytes() - before) / ((double) CALLS * numBlocks));
+  }
+  
+  /**
+   * Checks the encryption and then the decryption of a file cipher over file
+   * channels, as in {@link #checkFiles}, on a large file of
+   * {@link #CHUNKED_FILE_BLOCKS} blocks.
+   * 
+   * @param name      name of the file cipher, reported on failure
+   * @param workers   threads the file cipher runs on besides the calling thread
+   * @param encrypt   loop encrypting the plain text channel into the cipher text channel
+   * @param decrypt   loop decrypting the cipher text channel into the plain text channel
+   * @throws Exception  if the loop fails
+   */
+  private static void checkChannels(String name, Workers workers, ChannelLoop encrypt,
+                                    ChannelLoop decrypt) throws Exception {
+    Path[] small = createFiles("small." + name.replace(' ', '.'), SMALL_FILE_BLOCKS);
+    Path[] large = createFiles("large." + name.replace(' ', '.'), CHUNKED_FILE_BLOCKS);
+    
+    checkFiles(name + " encrypt", small[0], small[1], large[0], large[1], CHUNKED_FILE_BLOCKS, CHUNKED_FILE_CALLS,
+               workers, (input, output) -> transfer(input, output, encrypt));
+    checkFiles(name + " decrypt", small[1], small[2], large[1], large[2], CHUNKED_FILE_BLOCKS, CHUNKED_FILE_CALLS,
+               workers, (input, output) -> transfer(input, output, decrypt));
+  }
+  
+  /**
+   * Warms up the given file loop on both files and fails if the large file
+   * allocates more than {@link #MAX_BYTES_PER_BLOCK} bytes per block beyond
+   * what the small file does, on the calling thread and the given workers.
+   * The least difference of any call is taken, so that the buffers a pool
+   * thread allocates once, when it first happens to be given a chunk of the
+   * form being measured, are not counted.
+   * 
+   * @param name          name of the loop, reported on failure
+   * @param small         file of {@link #SMALL_FILE_BLOCKS} blocks
+   * @param smallOutput   file to write the small file to
+   * @param large         file of largeBlocks blocks
+   * @param largeOutput   file to write the large file to
+   * @param largeBlocks   number of blocks in the large file
+   * @param calls         number of times each file is processed to warm up, and then to measure
+   * @param workers       threads the loop runs on besides the calling thread
+   * @param loop          loop to check
+   * @throws Exception  if the loop fails
+   */
+  private static void checkFiles(String name, Path small, Path smallOutput, Path large, Path largeOutput,
+                                 int largeBlocks, int calls, Workers workers, FileLoop loop) throws Exception {
+    for (int i=0; i < calls; i++) {
+      loop.run(small, smallOutput);
+      loop.run(large, largeOutput);
+    }
+    
+    long bytes = Long.MAX_VALUE;
+    
+    for (int i=0; i < calls; i++) {
+      long before = allocatedBytes() + workers.allocatedBytes();
+      
+      loop.run(small, smallOutput);
+      
+      long middle = allocatedBytes() + workers.allocatedBytes();
+      
+      loop.run(large, largeOutput);
+      bytes = Math.min(bytes, (allocatedBytes() + workers.allocatedBytes() - middle) - (middle - before));
+    }
+    
+    assertBelow(name, bytes / (double) (largeBlocks - SMALL_FILE_BLOCKS));
+  }
+  
+  /**
+   * Fails if the given number of bytes per block is above {@link #MAX_BYTES_PER_BLOCK}.
+   * 
+   * @param name            name of the loop, reported on failure
+   * @param bytesPerBlock   number of bytes the loop allocated per block
+   */
+  private static void assertBelow(String name, double bytesPerBlock) {
+    assertTrue(bytesPerBlock <= MAX_BYTES_PER_BLOCK,
+               String.format("%s allocates %.3f bytes per block", name, bytesPerBlock));
+  }
+  
+  /**
+   * Returns the number of bytes allocated so far by the running thread.
+   * 
+   * @return long   number of bytes allocated
+   */
+  private static long allocatedBytes() {
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  
+  /**
+   * Opens the given files as channels and runs the given loop over them.
+   * 
+   * @param input       file to read
+   * @param output      file to write, truncated first
+   * @param loop        loop to run
+   * @throws Exception  if a file could not be opened or the loop fails
+   */
+  private static void transfer(Path input, Path output, ChannelLoop loop) throws Exception {
+    try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      loop.run(in, out);
+    }
+  }
+  
+  /**
+   * Opens the given file as an asynchronous channel completing on the given
+   * executor.
+   * 
+   * @param file        file to open
+   * @param executor    executor completing the reads and writes
+   * @param options     options to open the file with
+   * @return AsynchronousFileChannel  channel of the file
+   * @throws Exception  if the file could not be opened
+   */
+  private static AsynchronousFileChannel openAsync(Path file, ExecutorService executor,
+                                                   StandardOpenOption... options) throws Exception {
+    EnumSet<StandardOpenOption> set = EnumSet.noneOf(StandardOpenOption.class);
+    
+    for (StandardOpenOption option : options) {
+      set.add(option);
+    }
+    
+    return AsynchronousFileChannel.open(file, set, executor);
+  }
+  
+  /**
+   * Writes a file of random plain text of the given number of blocks, and
+   * returns it along with the paths of its cipher text and decrypted plain
+   * text.
+   * 
+   * @param name        name of the file within the directory
+   * @param numBlocks   number of blocks in the file
+   * @return Path[]     paths of the plain text, cipher text and decrypted plain text
+   * @throws Exception  if the file could not be written
+   */
+  private static Path[] createFiles(String name, int numBlocks) throws Exception {
+    return new Path[] { createFile(name, numBlocks), directory.resolve(name + ".enc"), directory.resolve(name + ".dec") };
+  }
+  
+  /**
+   * Writes a file of random plain text of the given number of blocks.
+   * 
+   * @param name        name of the file within the directory
+   * @param numBlocks   number of blocks in the file
+   * @return Path       path of the file
+   * @throws Exception  if the file could not be written
+   */
+  private static Path createFile(String name, int numBlocks) throws Exception {
+    byte[] data = new byte[numBlocks * Block.SIZE];
+    
+    new Random(42).nextBytes(data);
+    
+    return Files.write(directory.resolve(name), data);
+  }
+  
+  /**
+   * Loop is a per-block loop called repeatedly over the same data.
+   */
+  private interface Loop {
+    void run() throws Exception;
+  }
+  
+  /**
+   * FileLoop is a per-block loop reading one file and writing another.
+   */
+  private interface FileLoop {
+    void run(Path input, Path output) throws Exception;
+  }
+  
+  /**
+   * ChannelLoop is a per-block loop reading one file channel and writing another.
+   */
+  private interface ChannelLoop {
+    void run(FileChannel in, FileChannel out) throws Exception;
+  }
+  
+  /**
+   * Workers creates the threads a file cipher runs on, as a thread factory or
+   * as the factory of a fork-join pool, and counts what they allocate: while a
+   * thread is alive through its allocation counter, and once it ends as the
+   * count it reached just before it did.
+   */
+  private static final class Workers implements ThreadFactory, ForkJoinWorkerThreadFactory {
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private long finished = 0;
+    
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return this.add(new Thread(() -> {
+        try {
+          runnable.run();
+        } finally {
+          this.finish();
+        }
+      }));
+    }
+    
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      return this.add(new ForkJoinWorkerThread(pool) {
+        @Override
+        protected void onTermination(Throwable exception) {
+          finish();
+        }
+      });
+    }
+    
+    /**
+     * Returns the number of bytes allocated so far by every thread created.
+     * 
+     * @return long   number of bytes allocated
+     */
+    synchronized long allocatedBytes() {
+      long bytes = this.finished;
+      
+      for (Thread thread : this.threads) {
+        bytes += Math.max(0, THREADS.getThreadAllocatedBytes(thread.getId()));
+      }
+      
+      return bytes;
+    }
+    
+    private synchronized <T extends Thread> T add(T thread) {
+      this.threads.add(thread);
+      
+      return thread;
+    }
+    
+    private synchronized void finish() {
+      this.finished += THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+      this.threads.remove(Thread.currentThread());
+    }
+  }
+}
@@ -0,0 +1,354 @@
+package com.mjnrand.reviseddes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * EquivalenceTest encrypts and decrypts random blocks under random keys and
+ * initialization vectors with each of the block engines, and fails unless the
+ * output is identical to that of the reference path: the initial permutation,
+ * 16 {@link FeistelRound}s, the final swap and the inverse of the initial
+ * permutation, applied one block at a time.  Every engine is checked in ECB,
+ * CBC and CTR mode, over runs of blocks of random length, so that runs shorter
+ * than, equal to and longer than the lanes of each engine are all covered.
+ * 
+ * The seed of each run is random, and is reported on failure.
+ * 
+ * @author mark
+ */
+public class EquivalenceTest {
+  /** Number of random keys each engine is checked under in each mode. */
+  private static final int TRIALS = 12;
+  
+  /** Most blocks in a single run. */
+  private static final int MAX_BLOCKS = 2100;
+  
+  /** Number of messages in each batch given to the multi-key cipher. */
+  private static final int MESSAGES = 40;
+  
+  private final long seed = System.nanoTime();
+  private final Random random = new Random(this.seed);
+  
+  /**
+   * Checks the bitsliced engine.
+   */
+  @Test
+  public void bitslicedEngine() {
+    this.check("bitsliced", (key) -> new BitslicedBlockEngine(key.getSchedule()));
+  }
+  
+  /**
+   * Checks the vector engine, or the packed engine when the Vector API is not
+   * available.
+   */
+  @Test
+  public void vectorEngine() {
+    this.check("vector", (key) -> BlockEngines.createVector(key.getSchedule()));
+  }
+  
+  /**
+   * Checks the fused triple engine with the same key in all three stages,
+   * which is the same as a single encryption under that key.
+   */
+  @Test
+  public void tripleEngine() {
+    this.check("triple", (key) -> new TripleBlockEngine(key.getSchedule(), key.getSchedule(), key.getSchedule()));
+  }
+  
+  /**
+   * Checks the multi-key cipher, giving it each block as a message of its own
+   * under the same key.
+   */
+  @Test
+  public void multiKeyEngine() {
+    this.check("multi-key", (key) -> new MultiKeyEngine(key.getSchedule().getKey()));
+  }
+  
+  /**
+   * Checks the multi-key cipher on batches of messages of random length, each
+   * under its own key, against the reference path with the spaces padding the
+   * last block of each message.
+   */
+  @Test
+  public void multiKeyMessages() {
+    MultiKeyCipher cipher = new MultiKeyCipher();
+    
+    for (int t=0; t < TRIALS; t++) {
+      long[] keys = new long[MESSAGES];
+      byte[][] plainText = new byte[MESSAGES][];
+      byte[][] cipherText = new byte[MESSAGES][];
+      byte[][] decrypted = new byte[MESSAGES][];
+      
+      for (int m=0; m < MESSAGES; m++) {
+        keys[m] = this.random.nextLong();
+        plainText[m] = new byte[this.random.nextInt(10 * Block.SIZE)];
+        this.random.nextBytes(plainText[m]);
+        cipherText[m] = new byte[BufferCipher.getEncryptedLength(plainText[m].length)];
+        decrypted[m] = new byte[cipherText[m].length];
+      }
+      
+      cipher.encrypt(keys, plainText, cipherText, MESSAGES);
+      cipher.decrypt(keys, cipherText, decrypted, MESSAGES);
+      
+      for (int m=0; m < MESSAGES; m++) {
+        Key key = newKey(keys[m]);
+        byte[] padded = new byte[cipherText[m].length];
+        
+        Arrays.fill(padded, (byte) ' ');
+        System.arraycopy(plainText[m], 0, padded, 0, plainText[m].length);
+        
+        for (int pos=0; pos < padded.length; pos += Block.SIZE) {
+          assertEquals(reference(key, Block.pack(padded, pos), true), Block.pack(cipherText[m], pos),
+                       this.message("multi-key messages", "ecb"));
+        }
+        
+        assertArrayEquals(padded, decrypted[m], this.message("multi-key messages", "ecb"));
+      }
+    }
+  }
+  
+  /**
+   * Checks the engine created by the given factory in every mode, each under
+   * {@link #TRIALS} random keys.
+   * 
+   * @param name      name of the engine, reported on failure
+   * @param factory   factory creating the engine for a key
+   */
+  private void check(String name, EngineFactory factory) {
+    for (int t=0; t < TRIALS; t++) {
+      Key key = newKey(this.random.nextLong());
+      BlockEngine engine = factory.create(key);
+      int numBlocks = 1 + this.random.nextInt(MAX_BLOCKS);
+      long[] plainText = new long[numBlocks];
+      long iv = this.random.nextLong();
+      
+      for (int i=0; i < numBlocks; i++) {
+        plainText[i] = this.random.nextLong();
+      }
+      
+      this.checkECB(name, key, engine, plainText);
+      this.checkCBC(name, key, engine, plainText, iv);
+      this.checkCTR(name, key, engine, plainText, iv);
+    }
+  }
+  
+  /**
+   * Checks that the engine encrypts the plain text in ECB mode as the
+   * reference path does, and decrypts it back.
+   * 
+   * @param name        name of the engine, reported on failure
+   * @param key         key of the engine
+   * @param engine      engine to check
+   * @param plainText   packed plain text blocks
+   */
+  private void checkECB(String name, Key key, BlockEngine engine, long[] plainText) {
+    long[] blocks = plainText.clone();
+    long[] expected = new long[plainText.length];
+    
+    for (int i=0; i < plainText.length; i++) {
+      expected[i] = reference(key, plainText[i], true);
+    }
+    
+    engine.encrypt(blocks, 0, blocks.length);
+    assertArrayEquals(expected, blocks, this.message(name, "ecb encrypt"));
+    engine.decrypt(blocks, 0, blocks.length);
+    assertArrayEquals(plainText, blocks, this.message(name, "ecb decrypt"));
+  }
+  
+  /**
+   * Checks that the engine encrypts the plain text in CBC mode, one block at a
+   * time, as the reference path does, and decrypts it back with
+   * {@link Chaining#decryptCBC}.
+   * 
+   * @param name        name of the engine, reported on failure
+   * @param key         key of the engine
+   * @param engine      engine to check
+   * @param plainText   packed plain text blocks
+   * @param iv          initialization vector
+   */
+  private void checkCBC(String name, Key key, BlockEngine engine, long[] plainText, long iv) {
+    long[] blocks = plainText.clone();
+    long[] expected = new long[plainText.length];
+    long chain = iv;
+    
+    for (int i=0; i < plainText.length; i++) {
+      chain = reference(key, plainText[i] ^ chain, true);
+      expected[i] = chain;
+    }
+    
+    chain = iv;
+    
+    for (int i=0; i < blocks.length; i++) {
+      blocks[i] ^= chain;
+      engine.encrypt(blocks, i, 1);
+      chain = blocks[i];
+    }
+    
+    assertArrayEquals(expected, blocks, this.message(name, "cbc encrypt"));
+    
+    for (int i=0; i < expected.length; i++) {
+      assertEquals(plainText[i], reference(key, expected[i], false) ^ ((i == 0) ? iv : expected[i - 1]),
+                   this.message("reference", "cbc decrypt"));
+    }
+    
+    Chaining.decryptCBC(engine, blocks, new long[blocks.length], 0, blocks.length, iv);
+    assertArrayEquals(plainText, blocks, this.message(name, "cbc decrypt"));
+  }
+  
+  /**
+   * Checks that the engine encrypts the plain text in CTR mode, through
+   * {@link Chaining#applyCTR}, as the reference path does, and decrypts it back.
+   * 
+   * @param name        name of the engine, reported on failure
+   * @param key         key of the engine
+   * @param engine      engine to check
+   * @param plainText   packed plain text blocks
+   * @param iv          initialization vector
+   */
+  private void checkCTR(String name, Key key, BlockEngine engine, long[] plainText, long iv) {
+    long[] blocks = plainText.clone();
+    long[] scratch = new long[blocks.length];
+    long[] expected = new long[plainText.length];
+    
+    for (int i=0; i < plainText.length; i++) {
+      expected[i] = plainText[i] ^ reference(key, iv + i, true);
+    }
+    
+    Chaining.applyCTR(engine, blocks, scratch, 0, blocks.length, iv);
+    assertArrayEquals(expected, blocks, this.message(name, "ctr encrypt"));
+    Chaining.applyCTR(engine, blocks, scratch, 0, blocks.length, iv);
+    assertArrayEquals(plainText, blocks, this.message(name, "ctr decrypt"));
+  }
+  
+  /**
+   * Returns the message reported when the given engine fails in the given mode.
+   * 
+   * @param name      name of the engine
+   * @param mode      mode and direction that failed
+   * @return String   message naming the seed of the run
+   */
+  private String message(String name, String mode) {
+    return name + " " + mode + " differs from the reference path (seed " + this.seed + ")";
+  }
+  
+  /**
+   * Encrypts / decrypts a single block along the reference path: the initial
+   * permutation applied by {@link Permutation#permute(byte[], byte[])}, 16
+   * {@link FeistelRound}s with the subkeys of the key in order or in reverse,
+   * the final swap of the halves and the inverse of the initial permutation.
+   * 
+   * @param key       key whose subkeys have been generated
+   * @param block     packed input block
+   * @param encrypt   true to encrypt the block; false to decrypt it
+   * @return long     packed output block
+   */
+  private static long reference(Key key, long block, boolean encrypt) {
+    byte[] bytes = Permutation.permute(unpack(block), Permutation.INITIAL_PERMUTATION);
+    FeistelRound round = new FeistelRound(bytes, key.getSubKey(encrypt ? 0 : 15));
+    
+    for (int i=0; i < 16; i++) {
+      round.load(bytes, key.getSubKey(encrypt ? i : 15 - i));
+      round.execute(bytes);
+    }
+    
+    long swapped = Block.pack(bytes, 0);
+    
+    swapped = (swapped << 32) | (swapped >>> 32);
+    
+    return Block.pack(Permutation.permute(unpack(swapped), Permutation.INITIAL_PERMUTATION_INVERSE), 0);
+  }
+  
+  /**
+   * Returns a key made of the given 64 bits, with its subkeys generated.
+   * 
+   * @param bits    64 bit key
+   * @return Key    key with its subkeys generated
+   */
+  private static Key newKey(long bits) {
+    Key key = new Key(unpack(bits));
+    
+    key.generateSubKeys();
+    
+    return key;
+  }
+  
+  /**
+   * Returns the 8 bytes of the given packed block.
+   * 
+   * @param block     packed block
+   * @return byte[]   bytes of the block, first byte most significant
+   */
+  private static byte[] unpack(long block) {
+    byte[] bytes = new byte[Block.SIZE];
+    
+    Block.unpack(block, bytes, 0);
+    
+    return bytes;
+  }
+  
+  /**
+   * EngineFactory creates the engine being checked for a key.
+   */
+  private interface EngineFactory {
+    BlockEngine create(Key key);
+  }
+  
+  /**
+   * MultiKeyEngine presents a {@link MultiKeyCipher} as a block engine, giving
+   * it each block as a message of its own under the same key.
+   */
+  private static final class MultiKeyEngine implements BlockEngine {
+    private final MultiKeyCipher cipher = new MultiKeyCipher();
+    private final long key;
+    
+    MultiKeyEngine(long key) {
+      this.key = key;
+    }
+    
+    @Override
+    public void encrypt(long[] blocks, int off, int numBlocks) {
+      this.process(blocks, off, numBlocks, true);
+    }
+    
+    @Override
+    public void decrypt(long[] blocks, int off, int numBlocks) {
+      this.process(blocks, off, numBlocks, false);
+    }
+    
+    @Override
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int numBlocks) {
+      throw new UnsupportedOperationException();
+    }
+    
+    private void process(long[] blocks, int off, int numBlocks, boolean encrypt) {
+      long[] keys = new long[numBlocks];
+      byte[][] in = new byte[numBlocks][];
+      byte[][] out = new byte[numBlocks][Block.SIZE];
+      
+      for (int i=0; i < numBlocks; i++) {
+        keys[i] = this.key;
+        in[i] = unpack(blocks[off + i]);
+      }
+      
+      if (encrypt) {
+        this.cipher.encrypt(keys, in, out, numBlocks);
+      } else {
+        this.cipher.decrypt(keys, in, out, numBlocks);
+      }
+      
+      for (int i=0; i < numBlocks; i++) {
+        blocks[off + i] = Block.pack(out[i], 0);
+      }
+    }
+  }
+}